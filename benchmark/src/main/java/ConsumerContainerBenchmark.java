@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConsumerContainer 虚拟线程与平台线程对比
+ * 订阅大量主题后测量空闲时的线程数和堆内存,再向每个主题发布消息测量全部处理完成的耗时.
+ * MEMORY引擎不依赖redis;STRING引擎连接进程内的RespStandInServer,订阅在虚拟线程中执行阻塞的jedis调用,
+ * pinned列为发布和处理期间虚拟线程阻塞时占住载体线程的次数(JFR jdk.VirtualThreadPinned事件).
+ * 需要JDK21及以上才能对比虚拟线程.
+ * 平台线程的栈不在堆中(每个线程默认预留1MB),heap只反映虚拟线程栈和容器对象,需结合threads列对比
+ *
+ * 运行: mvn -f benchmark/pom.xml compile exec:java -Dexec.mainClass=ConsumerContainerBenchmark -Dexec.args="5000 20"
+ * 参数: 主题数(默认2000) 每个主题的消息数(默认20) 存储引擎(MEMORY或STRING,默认MEMORY) RespStandInServer回复延迟(微秒,默认0)
+ */
+public class ConsumerContainerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int topics = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        TopicEngine engine = args.length > 2 ? TopicEngine.valueOf(args[2]) : TopicEngine.MEMORY;
+        RespStandInServer server = null;
+        if (engine != TopicEngine.MEMORY) {
+            server = new RespStandInServer(0, args.length > 3 ? Long.parseLong(args[3]) : 0);
+            RedisCache config = new RedisCache();
+            config.setADDR("127.0.0.1");
+            config.setPORT(server.getPort());
+            config.setMaxActive(ConsumerContainer.DEFAULT_MAX_CONCURRENT_POLLS + 16);
+        }
+        System.out.printf("%-10s %-8s %10s %10s %12s %12s %12s %10s%n",
+            "mode", "engine", "topics", "threads", "heap(MB)", "time(ms)", "msg/s", "pinned");
+        run("platform", false, engine, topics, messages);
+        run("virtual", true, engine, topics, messages);
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, boolean virtualThreads, TopicEngine engine, int topics, int messages) throws Exception {
+        // 先创建主题存储并初始化订阅方索引(保证读取到之后发布的所有消息),不计入容器的内存占用
+        Producer[] producers = new Producer[topics];
+        for (int i = 0; i < topics; i++) {
+            String topic = "bench-" + mode + "-" + i;
+            if (engine == TopicEngine.MEMORY) {
+                MemoryQueueStorage.of(topic, Integer.highestOneBit(messages) * 2);
+            }
+            new Consumer(topic, "sub", engine).unreadMessages();
+            producers[i] = new Producer(topic, engine);
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.gc();
+        long baseHeap = memory.getHeapMemoryUsage().getUsed();
+
+        ConsumerContainer container = new ConsumerContainer(ConsumerContainer.DEFAULT_MAX_CONCURRENT_POLLS, virtualThreads);
+        if (virtualThreads && !container.isVirtualThreads()) {
+            System.out.println("virtual threads not supported by " + System.getProperty("java.version"));
+            return;
+        }
+        AtomicLong handled = new AtomicLong();
+        for (int i = 0; i < topics; i++) {
+            container.subscribe("bench-" + mode + "-" + i, "sub", engine, message -> handled.incrementAndGet());
+        }
+        // 等待所有订阅进入空闲等待
+        Thread.sleep(1000);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+        System.gc();
+        long heap = memory.getHeapMemoryUsage().getUsed() - baseHeap;
+
+        PinnedEvents pinned = PinnedEvents.start();
+        long start = System.nanoTime();
+        RedisMessageModel message = new RedisMessageModel();
+        message.setContent("benchmark");
+        for (int m = 0; m < messages; m++) {
+            for (Producer producer : producers) {
+                producer.publish(message);
+            }
+        }
+        long total = (long) topics * messages;
+        while (handled.get() < total) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        long pinnedCount = pinned.stop();
+        container.shutdown(10000);
+
+        System.out.printf("%-10s %-8s %10d %10d %12.1f %12d %12.0f %10s%n", mode, engine, topics, threads,
+            heap / 1024.0 / 1024.0, elapsed / 1000000, total * 1e9 / elapsed, pinnedCount < 0 ? "-" : pinnedCount);
+    }
+
+    /**
+     * 统计虚拟线程占住载体线程的次数,需要JDK21的JFR事件
+     */
+    private static class PinnedEvents {
+        private final AutoCloseable stream;
+        private final LongAdder count;
+
+        private PinnedEvents(AutoCloseable stream, LongAdder count) {
+            this.stream = stream;
+            this.count = count;
+        }
+
+        static PinnedEvents start() {
+            LongAdder count = new LongAdder();
+            try {
+                // JDK14的jdk.jfr.consumer.RecordingStream,通过反射访问以便在JDK8编译
+                Class<?> type = Class.forName("jdk.jfr.consumer.RecordingStream");
+                AutoCloseable stream = (AutoCloseable) type.getConstructor().newInstance();
+                Object settings = type.getMethod("enable", String.class).invoke(stream, "jdk.VirtualThreadPinned");
+                Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings, Duration.ZERO);
+                java.util.function.Consumer<Object> handler = event -> count.increment();
+                type.getMethod("onEvent", String.class, java.util.function.Consumer.class)
+                        .invoke(stream, "jdk.VirtualThreadPinned", handler);
+                type.getMethod("startAsync").invoke(stream);
+                return new PinnedEvents(stream, count);
+            } catch (Throwable e) {
+                return new PinnedEvents(null, count);
+            }
+        }
+
+        /**
+         * @return 事件数,不支持时返回-1
+         */
+        long stop() throws Exception {
+            if (stream == null) {
+                return -1;
+            }
+            // 等待已产生的事件被读取
+            Thread.sleep(1500);
+            stream.close();
+            return count.sum();
+        }
+    }
+}
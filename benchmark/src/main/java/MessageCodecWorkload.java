@@ -0,0 +1,49 @@
+import bench.CodecWorkload;
+
+import java.util.Date;
+
+/**
+ * 消息编解码负载,由bench.CodecBenchmark通过反射创建
+ */
+public class MessageCodecWorkload implements CodecWorkload {
+    private Codec<RedisMessageModel> codec;
+    private RedisMessageModel message;
+    private byte[] encoded;
+
+    @Override
+    public void setup(String codec, int payloadBytes) {
+        switch (codec) {
+            case "JSON_TEXT":
+                this.codec = MessageCodec.JSON_TEXT;
+                break;
+            case "COMPRESSED":
+                this.codec = new CompressionCodec<>(MessageCodec.BINARY, new DeflateCompressor(), 256);
+                break;
+            default:
+                this.codec = MessageCodec.BINARY;
+        }
+        // 重复的文本,压缩比接近真实的JSON业务消息
+        StringBuilder content = new StringBuilder(payloadBytes);
+        while (content.length() < payloadBytes) {
+            content.append("{\"orderId\":").append(content.length()).append(",\"status\":\"PAID\"}");
+        }
+        content.setLength(payloadBytes);
+        message = new RedisMessageModel();
+        message.setId(1);
+        message.setTopic("order");
+        message.setExtraInfo("user-42");
+        message.setCreateTime(new Date());
+        message.setContent(content.toString());
+        encoded = this.codec.encode(message);
+    }
+
+    @Override
+    public byte[] encode() {
+        return codec.encode(message);
+    }
+
+    @Override
+    public Object decode() {
+        return codec.decode(encoded);
+    }
+}
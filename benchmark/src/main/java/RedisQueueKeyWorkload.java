@@ -0,0 +1,38 @@
+import bench.KeyWorkload;
+import redis.clients.util.SafeEncoder;
+
+import java.text.MessageFormat;
+
+/**
+ * RedisQueue key生成负载,由bench.KeyGenerationBenchmark通过反射创建
+ */
+public class RedisQueueKeyWorkload implements KeyWorkload {
+    private static final String TOPIC = "redisMq:order";
+
+    private final RedisQueue messageRedisQueue = new RedisQueue("order", Producer.TOPIC_MESSAGE_CACHETYPE);
+    private final RedisQueue countRedisQueue = new RedisQueue("order", Producer.TOPIC_COUNT_CACHETYPE);
+
+    @Override
+    public byte[][] legacyKeys(long from, int count) {
+        byte[][] keys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            keys[i] = SafeEncoder.encode(MessageFormat.format("{0}:{1}:{2}", TOPIC, Producer.TOPIC_MESSAGE_CACHETYPE, (from + i) + ""));
+        }
+        return keys;
+    }
+
+    @Override
+    public byte[][] keys(long from, int count) {
+        return messageRedisQueue.keys(from, count);
+    }
+
+    @Override
+    public byte[] legacyFullKey() {
+        return SafeEncoder.encode(MessageFormat.format("{0}:{1}:{2}", TOPIC, Producer.TOPIC_COUNT_CACHETYPE, "all"));
+    }
+
+    @Override
+    public byte[] fullKey() {
+        return countRedisQueue.fullKeyBytes();
+    }
+}
@@ -0,0 +1,94 @@
+import bench.QueueWorkload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发布/读取负载,由bench.QueueBenchmark和bench.ContendedQueueBenchmark通过反射创建
+ * 进程内只启动一个RespStandInServer,RedisCache的连接池创建后不能更换地址,各次压测共用并在开始前清空数据
+ */
+public class RedisQueueWorkload implements QueueWorkload {
+    private static final AtomicInteger TOPICS = new AtomicInteger();
+    private static RespStandInServer server;
+
+    private Producer producer;
+    private Consumer consumer;
+    private RedisMessageModel message;
+    private List<RedisMessageModel> batch = new ArrayList<>();
+
+    private static synchronized RespStandInServer server(boolean multiplexed, long latencyMicros) throws Exception {
+        if (server == null) {
+            server = new RespStandInServer(0, latencyMicros);
+            RedisCache config = new RedisCache();
+            config.setADDR("127.0.0.1");
+            config.setPORT(server.getPort());
+        }
+        server.setLatencyMicros(latencyMicros);
+        server.flushAll();
+        new RedisCache().setMultiplexed(multiplexed);
+        return server;
+    }
+
+    @Override
+    public void setup(String engine, boolean multiplexed, long latencyMicros, int payloadBytes) throws Exception {
+        TopicEngine topicEngine = TopicEngine.valueOf(engine);
+        if (topicEngine != TopicEngine.MEMORY) {
+            server(multiplexed, latencyMicros);
+        }
+        // 每次压测使用新的主题,订阅方先注册,读取之后发布的全部消息
+        String topic = "bench-" + TOPICS.incrementAndGet();
+        producer = new Producer(topic, topicEngine);
+        consumer = new Consumer(topic, "bench", topicEngine);
+        consumer.unreadMessages();
+        char[] content = new char[payloadBytes];
+        Arrays.fill(content, 'x');
+        message = new RedisMessageModel();
+        message.setId(1);
+        message.setTopic(topic);
+        message.setCreateTime(new Date());
+        message.setContent(new String(content));
+    }
+
+    @Override
+    public boolean publish() {
+        return producer.publish(message);
+    }
+
+    @Override
+    public int publishAll(int count) {
+        List<RedisMessageModel> messages = batch;
+        if (messages.size() != count) {
+            messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(message);
+            }
+            batch = messages;
+        }
+        int published = 0;
+        for (Long id : producer.publishAll(messages)) {
+            if (id != null) {
+                published++;
+            }
+        }
+        return published;
+    }
+
+    @Override
+    public int consume(int maxMessages) {
+        return consumer.consume(maxMessages).size();
+    }
+
+    @Override
+    public String report() {
+        return Instrumentation.snapshot().toString();
+    }
+
+    @Override
+    public void tearDown() {
+        producer.close();
+        consumer.close();
+    }
+}
@@ -0,0 +1,1699 @@
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内的RESP服务端,代替redis运行压测,不需要安装redis
+ * 支持本项目用到的命令: 字符串(GET/SET/SETEX/SETNX/MGET/INCR/INCRBY/DEL/EXISTS/EXPIRE/EXPIREAT/TTL/PERSIST)、
+ * 事务(WATCH/UNWATCH/MULTI/EXEC/DISCARD)、哈希(HSET/HMSET/HGET/HMGET/HDEL/HGETALL/HKEYS/HEXISTS/HSETNX)、
+ * 有序集合(ZADD/ZRANGE/ZRANGEBYSCORE/ZREVRANGEBYSCORE/ZREMRANGEBYSCORE/ZSCORE/ZINCRBY/ZREM/ZCARD)、
+ * stream(XADD/XLEN/XRANGE/XTRIM/XGROUP/XINFO GROUPS/XREADGROUP/XACK,不支持BLOCK,MAXLEN ~按精确长度裁剪)、
+ * 遍历(SCAN,一次返回全部)、发布订阅(PUBLISH/SUBSCRIBE/PSUBSCRIBE)和lua脚本(EVAL/EVALSHA/SCRIPT LOAD,由luaj执行).不支持list.
+ * 所有命令在一把锁内串行执行,与redis单线程的原子性一致.每个连接一个线程,
+ * 一次读取到的所有命令执行完成后等待latencyMicros再回复,模拟网络往返延迟
+ *
+ * 单独运行: java -cp benchmark/target/benchmarks.jar RespStandInServer [端口(默认6379)] [延迟微秒(默认0)]
+ */
+public class RespStandInServer implements AutoCloseable {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final Object NULL_ARRAY = new Object();
+    private static final String OK = "OK";
+    private static final String QUEUED = "QUEUED";
+
+    private final ServerSocket serverSocket;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile long latencyMicros;
+    private volatile boolean closed;
+
+    /**
+     * key使用ISO-8859-1字符串,与字节一一对应
+     */
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Long> expires = new HashMap<>();
+    /**
+     * 被WATCH的key -> 修改次数,只记录至少有一个连接在WATCH的key
+     */
+    private final Map<String, long[]> versions = new HashMap<>();
+    private final Map<String, Set<Connection>> channels = new ConcurrentHashMap<>();
+    private final Map<String, Set<Connection>> patterns = new ConcurrentHashMap<>();
+    /**
+     * sha -> 编译后的脚本
+     */
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+    private final Globals globals = JsePlatform.standardGlobals();
+
+    /**
+     * @param port 端口,0表示随机端口
+     * @param latencyMicros 每次回复前的延迟(微秒)
+     */
+    public RespStandInServer(int port, long latencyMicros) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress("127.0.0.1", port));
+        this.latencyMicros = latencyMicros;
+        initLua();
+        Thread acceptor = new Thread(this::accept, "resp-standin-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 6379;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        RespStandInServer server = new RespStandInServer(port, latency);
+        System.out.println("RESP stand-in server listening on 127.0.0.1:" + server.getPort() + ", latency " + latency + "us");
+        Thread.currentThread().join();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void setLatencyMicros(long latencyMicros) {
+        this.latencyMicros = latencyMicros;
+    }
+
+    /**
+     * 清空所有数据
+     */
+    public synchronized void flushAll() {
+        data.clear();
+        expires.clear();
+        for (long[] version : versions.values()) {
+            version[0]++;
+        }
+    }
+
+    /**
+     * 当前key的数量,包括已过期未删除的key
+     */
+    public synchronized int size() {
+        return data.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread thread = new Thread(connection, "resp-standin-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 客户端连接,连接线程读取并执行命令,发布订阅的消息由发布方线程写入
+     */
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final Object writeLock = new Object();
+        /**
+         * WATCH的key -> WATCH时的修改次数
+         */
+        private final Map<String, Long> watched = new HashMap<>();
+        private List<byte[][]> multi;
+        private final Set<String> subscribedChannels = new CopyOnWriteArraySet<>();
+        private final Set<String> subscribedPatterns = new CopyOnWriteArraySet<>();
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        @Override
+        public void run() {
+            byte[] buf = new byte[64 * 1024];
+            int start = 0;
+            int limit = 0;
+            Object[] holder = new Object[1];
+            ByteArrayOutputStream replies = new ByteArrayOutputStream(1024);
+            try {
+                InputStream in = socket.getInputStream();
+                int n;
+                while ((n = in.read(buf, limit, buf.length - limit)) > 0) {
+                    limit += n;
+                    boolean quit = false;
+                    int next;
+                    while ((next = RespCodec.parse(buf, start, limit, holder)) != RespCodec.INCOMPLETE) {
+                        start = next;
+                        List<?> request = (List<?>) holder[0];
+                        byte[][] args = request.toArray(new byte[request.size()][]);
+                        if (args.length == 0) {
+                            continue;
+                        }
+                        String command = commandName(args[0]);
+                        writeReply(replies, handle(this, command, args));
+                        if ("QUIT".equals(command)) {
+                            quit = true;
+                            break;
+                        }
+                    }
+                    if (start == limit) {
+                        start = limit = 0;
+                    } else if (start > 0) {
+                        System.arraycopy(buf, start, buf, 0, limit - start);
+                        limit -= start;
+                        start = 0;
+                    } else if (limit == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    if (replies.size() > 0) {
+                        long latency = latencyMicros;
+                        if (latency > 0) {
+                            LockSupport.parkNanos(latency * 1000);
+                        }
+                        write(replies);
+                        replies.reset();
+                    }
+                    if (quit) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+            } finally {
+                close();
+            }
+        }
+
+        private void write(ByteArrayOutputStream bytes) throws IOException {
+            synchronized (writeLock) {
+                bytes.writeTo(out);
+                out.flush();
+            }
+        }
+
+        /**
+         * 向订阅方推送消息,失败时关闭连接
+         */
+        private void push(Object message) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            writeReply(bytes, message);
+            try {
+                write(bytes);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (!connections.remove(this)) {
+                return;
+            }
+            synchronized (RespStandInServer.this) {
+                unwatch(this);
+            }
+            for (String channel : subscribedChannels) {
+                unsubscribe(channels, channel, this);
+            }
+            for (String pattern : subscribedPatterns) {
+                unsubscribe(patterns, pattern, this);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static String commandName(byte[] command) {
+        return new String(command, StandardCharsets.ISO_8859_1).toUpperCase();
+    }
+
+    private static String key(byte[] key) {
+        return new String(key, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String text(byte[] arg) {
+        return new String(arg, StandardCharsets.UTF_8);
+    }
+
+    private static long number(byte[] arg) {
+        return Long.parseLong(text(arg));
+    }
+
+    /**
+     * 连接级别的命令:事务和订阅,其余命令在锁内执行
+     */
+    private Object handle(Connection connection, String command, byte[][] args) {
+        try {
+            switch (command) {
+                case "SUBSCRIBE":
+                case "PSUBSCRIBE":
+                    return subscribe(connection, command, args);
+                case "UNSUBSCRIBE":
+                case "PUNSUBSCRIBE":
+                    return unsubscribeAll(connection, command, args);
+                case "QUIT":
+                    return OK;
+                default:
+            }
+            synchronized (this) {
+                if (connection.multi != null) {
+                    switch (command) {
+                        case "EXEC":
+                            return exec(connection);
+                        case "DISCARD":
+                            connection.multi = null;
+                            unwatch(connection);
+                            return OK;
+                        case "MULTI":
+                            return new RespError("ERR MULTI calls can not be nested");
+                        case "WATCH":
+                            return new RespError("ERR WATCH inside MULTI is not allowed");
+                        default:
+                            connection.multi.add(args);
+                            return QUEUED;
+                    }
+                }
+                switch (command) {
+                    case "MULTI":
+                        connection.multi = new ArrayList<>();
+                        return OK;
+                    case "EXEC":
+                        return new RespError("ERR EXEC without MULTI");
+                    case "DISCARD":
+                        return new RespError("ERR DISCARD without MULTI");
+                    case "WATCH":
+                        for (int i = 1; i < args.length; i++) {
+                            String key = key(args[i]);
+                            if (!connection.watched.containsKey(key)) {
+                                long[] version = versions.computeIfAbsent(key, k -> new long[2]);
+                                version[1]++;
+                                connection.watched.put(key, version[0]);
+                            }
+                        }
+                        return OK;
+                    case "UNWATCH":
+                        unwatch(connection);
+                        return OK;
+                    default:
+                        return execute(command, args);
+                }
+            }
+        } catch (RespError e) {
+            return e;
+        } catch (RuntimeException e) {
+            return new RespError("ERR " + e.getMessage());
+        }
+    }
+
+    private Object exec(Connection connection) {
+        List<byte[][]> queued = connection.multi;
+        connection.multi = null;
+        boolean dirty = false;
+        for (Map.Entry<String, Long> entry : connection.watched.entrySet()) {
+            lookup(entry.getKey());
+            if (versions.get(entry.getKey())[0] != entry.getValue()) {
+                dirty = true;
+            }
+        }
+        unwatch(connection);
+        if (dirty) {
+            return NULL_ARRAY;
+        }
+        List<Object> results = new ArrayList<>(queued.size());
+        for (byte[][] args : queued) {
+            try {
+                results.add(execute(commandName(args[0]), args));
+            } catch (RespError e) {
+                results.add(e);
+            } catch (RuntimeException e) {
+                results.add(new RespError("ERR " + e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private void unwatch(Connection connection) {
+        for (String key : connection.watched.keySet()) {
+            long[] version = versions.get(key);
+            if (version != null && --version[1] == 0) {
+                versions.remove(key);
+            }
+        }
+        connection.watched.clear();
+    }
+
+    /**
+     * key被修改,使WATCH该key的事务失败
+     */
+    private void touch(String key) {
+        long[] version = versions.get(key);
+        if (version != null) {
+            version[0]++;
+        }
+    }
+
+    /**
+     * 读取key,已过期的key删除后返回null
+     */
+    private Object lookup(String key) {
+        Long expireAt = expires.get(key);
+        if (expireAt != null && expireAt <= System.currentTimeMillis()) {
+            expires.remove(key);
+            data.remove(key);
+            touch(key);
+            return null;
+        }
+        return data.get(key);
+    }
+
+    private void put(String key, Object value) {
+        data.put(key, value);
+        touch(key);
+    }
+
+    private boolean remove(String key) {
+        boolean existed = lookup(key) != null;
+        data.remove(key);
+        expires.remove(key);
+        if (existed) {
+            touch(key);
+        }
+        return existed;
+    }
+
+    private byte[] getString(String key) {
+        Object value = lookup(key);
+        if (value != null && !(value instanceof byte[])) {
+            throw wrongType();
+        }
+        return (byte[]) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> getHash(String key, boolean create) {
+        Object value = lookup(key);
+        if (value == null) {
+            if (!create) {
+                return null;
+            }
+            value = new LinkedHashMap<String, byte[]>();
+            data.put(key, value);
+        } else if (!(value instanceof Map)) {
+            throw wrongType();
+        }
+        return (Map<String, byte[]>) value;
+    }
+
+    private ZSet getZSet(String key, boolean create) {
+        Object value = lookup(key);
+        if (value == null) {
+            if (!create) {
+                return null;
+            }
+            value = new ZSet();
+            data.put(key, value);
+        } else if (!(value instanceof ZSet)) {
+            throw wrongType();
+        }
+        return (ZSet) value;
+    }
+
+    private Stream getStream(String key, boolean create) {
+        Object value = lookup(key);
+        if (value == null) {
+            if (!create) {
+                return null;
+            }
+            value = new Stream();
+            data.put(key, value);
+        } else if (!(value instanceof Stream)) {
+            throw wrongType();
+        }
+        return (Stream) value;
+    }
+
+    private static RespError wrongType() {
+        return new RespError("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    /**
+     * 执行数据命令,调用方持有锁.脚本中的redis.call也通过该方法执行
+     */
+    private Object execute(String command, byte[][] args) {
+        switch (command) {
+            case "PING":
+                return args.length > 1 ? args[1] : "PONG";
+            case "ECHO":
+                return args[1];
+            case "AUTH":
+            case "SELECT":
+                return OK;
+            case "FLUSHALL":
+            case "FLUSHDB":
+                flushAll();
+                return OK;
+            case "TIME": {
+                long micros = System.currentTimeMillis() * 1000;
+                return Arrays.asList(bytes(String.valueOf(micros / 1000000)), bytes(String.valueOf(micros % 1000000)));
+            }
+            case "GET":
+                return getString(key(args[1]));
+            case "SET":
+                return set(args);
+            case "SETEX": {
+                String key = key(args[1]);
+                put(key, args[3]);
+                expires.put(key, System.currentTimeMillis() + number(args[2]) * 1000);
+                return OK;
+            }
+            case "SETNX": {
+                String key = key(args[1]);
+                if (lookup(key) != null) {
+                    return 0L;
+                }
+                put(key, args[2]);
+                return 1L;
+            }
+            case "MGET": {
+                List<Object> values = new ArrayList<>(args.length - 1);
+                for (int i = 1; i < args.length; i++) {
+                    Object value = lookup(key(args[i]));
+                    values.add(value instanceof byte[] ? value : null);
+                }
+                return values;
+            }
+            case "INCR":
+                return incrBy(key(args[1]), 1);
+            case "INCRBY":
+                return incrBy(key(args[1]), number(args[2]));
+            case "DECR":
+                return incrBy(key(args[1]), -1);
+            case "DEL": {
+                long removed = 0;
+                for (int i = 1; i < args.length; i++) {
+                    if (remove(key(args[i]))) {
+                        removed++;
+                    }
+                }
+                return removed;
+            }
+            case "EXISTS": {
+                long count = 0;
+                for (int i = 1; i < args.length; i++) {
+                    if (lookup(key(args[i])) != null) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            case "EXPIRE":
+                return expireAt(key(args[1]), System.currentTimeMillis() + number(args[2]) * 1000);
+            case "PEXPIRE":
+                return expireAt(key(args[1]), System.currentTimeMillis() + number(args[2]));
+            case "EXPIREAT":
+                return expireAt(key(args[1]), number(args[2]) * 1000);
+            case "TTL":
+            case "PTTL": {
+                String key = key(args[1]);
+                if (lookup(key) == null) {
+                    return -2L;
+                }
+                Long expireAt = expires.get(key);
+                if (expireAt == null) {
+                    return -1L;
+                }
+                long remaining = expireAt - System.currentTimeMillis();
+                return "TTL".equals(command) ? (remaining + 500) / 1000 : remaining;
+            }
+            case "PERSIST": {
+                String key = key(args[1]);
+                return lookup(key) != null && expires.remove(key) != null ? 1L : 0L;
+            }
+            case "TYPE": {
+                Object value = lookup(key(args[1]));
+                return value == null ? "none" : value instanceof byte[] ? "string" : value instanceof ZSet ? "zset"
+                    : value instanceof Stream ? "stream" : "hash";
+            }
+            case "HSET":
+            case "HMSET": {
+                String key = key(args[1]);
+                Map<String, byte[]> hash = getHash(key, true);
+                long added = 0;
+                for (int i = 2; i + 1 < args.length; i += 2) {
+                    if (hash.put(key(args[i]), args[i + 1]) == null) {
+                        added++;
+                    }
+                }
+                touch(key);
+                return "HMSET".equals(command) ? OK : added;
+            }
+            case "HSETNX": {
+                String key = key(args[1]);
+                Map<String, byte[]> hash = getHash(key, true);
+                if (hash.containsKey(key(args[2]))) {
+                    return 0L;
+                }
+                hash.put(key(args[2]), args[3]);
+                touch(key);
+                return 1L;
+            }
+            case "HGET": {
+                Map<String, byte[]> hash = getHash(key(args[1]), false);
+                return hash == null ? null : hash.get(key(args[2]));
+            }
+            case "HMGET": {
+                Map<String, byte[]> hash = getHash(key(args[1]), false);
+                List<Object> values = new ArrayList<>(args.length - 2);
+                for (int i = 2; i < args.length; i++) {
+                    values.add(hash == null ? null : hash.get(key(args[i])));
+                }
+                return values;
+            }
+            case "HDEL": {
+                String key = key(args[1]);
+                Map<String, byte[]> hash = getHash(key, false);
+                long removed = 0;
+                if (hash != null) {
+                    for (int i = 2; i < args.length; i++) {
+                        if (hash.remove(key(args[i])) != null) {
+                            removed++;
+                        }
+                    }
+                    if (hash.isEmpty()) {
+                        remove(key);
+                    } else if (removed > 0) {
+                        touch(key);
+                    }
+                }
+                return removed;
+            }
+            case "HEXISTS": {
+                Map<String, byte[]> hash = getHash(key(args[1]), false);
+                return hash != null && hash.containsKey(key(args[2])) ? 1L : 0L;
+            }
+            case "HLEN": {
+                Map<String, byte[]> hash = getHash(key(args[1]), false);
+                return hash == null ? 0L : (long) hash.size();
+            }
+            case "HGETALL":
+            case "HKEYS": {
+                Map<String, byte[]> hash = getHash(key(args[1]), false);
+                List<Object> values = new ArrayList<>();
+                if (hash != null) {
+                    for (Map.Entry<String, byte[]> entry : hash.entrySet()) {
+                        values.add(bytes(entry.getKey()));
+                        if ("HGETALL".equals(command)) {
+                            values.add(entry.getValue());
+                        }
+                    }
+                }
+                return values;
+            }
+            case "ZADD":
+                return zadd(args);
+            case "ZINCRBY": {
+                String key = key(args[1]);
+                ZSet zset = getZSet(key, true);
+                String member = key(args[3]);
+                Double score = zset.scores.get(member);
+                double updated = (score == null ? 0 : score) + Double.parseDouble(text(args[2]));
+                zset.put(member, updated);
+                touch(key);
+                return bytes(formatScore(updated));
+            }
+            case "ZSCORE": {
+                ZSet zset = getZSet(key(args[1]), false);
+                Double score = zset == null ? null : zset.scores.get(key(args[2]));
+                return score == null ? null : bytes(formatScore(score));
+            }
+            case "ZCARD": {
+                ZSet zset = getZSet(key(args[1]), false);
+                return zset == null ? 0L : (long) zset.scores.size();
+            }
+            case "ZREM": {
+                String key = key(args[1]);
+                ZSet zset = getZSet(key, false);
+                long removed = 0;
+                if (zset != null) {
+                    for (int i = 2; i < args.length; i++) {
+                        if (zset.remove(key(args[i]))) {
+                            removed++;
+                        }
+                    }
+                    afterZRemove(key, zset, removed);
+                }
+                return removed;
+            }
+            case "ZRANGE":
+                return zrange(args);
+            case "ZRANGEBYSCORE":
+                return zrangeByScore(args, false);
+            case "ZREVRANGEBYSCORE":
+                return zrangeByScore(args, true);
+            case "ZREMRANGEBYSCORE": {
+                String key = key(args[1]);
+                ZSet zset = getZSet(key, false);
+                long removed = 0;
+                if (zset != null) {
+                    ScoreBound min = ScoreBound.parse(args[2]);
+                    ScoreBound max = ScoreBound.parse(args[3]);
+                    Iterator<ZEntry> iterator = zset.ordered.iterator();
+                    while (iterator.hasNext()) {
+                        ZEntry entry = iterator.next();
+                        if (min.below(entry.score)) {
+                            continue;
+                        }
+                        if (max.above(entry.score)) {
+                            break;
+                        }
+                        iterator.remove();
+                        zset.scores.remove(entry.member);
+                        removed++;
+                    }
+                    afterZRemove(key, zset, removed);
+                }
+                return removed;
+            }
+            case "XADD":
+                return xadd(args);
+            case "XLEN": {
+                Stream stream = getStream(key(args[1]), false);
+                return stream == null ? 0L : (long) stream.entries.size();
+            }
+            case "XRANGE":
+                return xrange(args);
+            case "XTRIM": {
+                String key = key(args[1]);
+                Stream stream = getStream(key, false);
+                if (!"MAXLEN".equals(commandName(args[2]))) {
+                    throw new RespError("ERR syntax error");
+                }
+                int i = 3;
+                if ("~".equals(text(args[i])) || "=".equals(text(args[i]))) {
+                    i++;
+                }
+                long trimmed = stream == null ? 0 : stream.trim(number(args[i]));
+                if (trimmed > 0) {
+                    touch(key);
+                }
+                return trimmed;
+            }
+            case "XGROUP":
+                return xgroup(args);
+            case "XINFO":
+                return xinfo(args);
+            case "XREADGROUP":
+                return xreadgroup(args);
+            case "XACK": {
+                Stream stream = getStream(key(args[1]), false);
+                StreamGroup group = stream == null ? null : stream.groups.get(key(args[2]));
+                long acked = 0;
+                if (group != null) {
+                    for (int i = 3; i < args.length; i++) {
+                        if (group.pending.remove(StreamId.parse(args[i], 0)) != null) {
+                            acked++;
+                        }
+                    }
+                }
+                return acked;
+            }
+            case "SCAN": {
+                // 一次返回全部匹配的key,游标总是0
+                String pattern = "*";
+                for (int i = 2; i + 1 < args.length; i += 2) {
+                    if ("MATCH".equals(commandName(args[i]))) {
+                        pattern = key(args[i + 1]);
+                    }
+                }
+                List<Object> keys = new ArrayList<>();
+                for (String key : new ArrayList<>(data.keySet())) {
+                    if (globMatch(pattern, 0, key, 0) && lookup(key) != null) {
+                        keys.add(bytes(key));
+                    }
+                }
+                return Arrays.asList(bytes("0"), keys);
+            }
+            case "PUBLISH":
+                return publish(args[1], args[2]);
+            case "EVAL":
+                return eval(load(text(args[1])), args);
+            case "EVALSHA": {
+                LuaValue script = scripts.get(text(args[1]).toLowerCase());
+                if (script == null) {
+                    throw new RespError("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                return eval(script, args);
+            }
+            case "SCRIPT":
+                return script(args);
+            default:
+                throw new RespError("ERR unknown command '" + command.toLowerCase() + "'");
+        }
+    }
+
+    private Object set(byte[][] args) {
+        String key = key(args[1]);
+        Long expireAt = null;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < args.length; i++) {
+            String option = commandName(args[i]);
+            if ("EX".equals(option)) {
+                expireAt = System.currentTimeMillis() + number(args[++i]) * 1000;
+            } else if ("PX".equals(option)) {
+                expireAt = System.currentTimeMillis() + number(args[++i]);
+            } else if ("NX".equals(option)) {
+                nx = true;
+            } else if ("XX".equals(option)) {
+                xx = true;
+            } else {
+                throw new RespError("ERR syntax error");
+            }
+        }
+        boolean exists = lookup(key) != null;
+        if ((nx && exists) || (xx && !exists)) {
+            return null;
+        }
+        put(key, args[2]);
+        if (expireAt != null) {
+            expires.put(key, expireAt);
+        } else {
+            expires.remove(key);
+        }
+        return OK;
+    }
+
+    private long incrBy(String key, long increment) {
+        byte[] value = getString(key);
+        long current;
+        try {
+            current = value == null ? 0 : number(value);
+        } catch (NumberFormatException e) {
+            throw new RespError("ERR value is not an integer or out of range");
+        }
+        long updated = current + increment;
+        data.put(key, bytes(String.valueOf(updated)));
+        touch(key);
+        return updated;
+    }
+
+    private long expireAt(String key, long expireAtMillis) {
+        if (lookup(key) == null) {
+            return 0L;
+        }
+        if (expireAtMillis <= System.currentTimeMillis()) {
+            remove(key);
+        } else {
+            expires.put(key, expireAtMillis);
+            touch(key);
+        }
+        return 1L;
+    }
+
+    private Object zadd(byte[][] args) {
+        String key = key(args[1]);
+        boolean nx = false;
+        boolean xx = false;
+        int i = 2;
+        for (; i < args.length; i++) {
+            String option = commandName(args[i]);
+            if ("NX".equals(option)) {
+                nx = true;
+            } else if ("XX".equals(option)) {
+                xx = true;
+            } else {
+                break;
+            }
+        }
+        ZSet zset = getZSet(key, !xx);
+        if (zset == null) {
+            return 0L;
+        }
+        long added = 0;
+        boolean changed = false;
+        for (; i + 1 < args.length; i += 2) {
+            double score = ScoreBound.parse(args[i]).value;
+            String member = key(args[i + 1]);
+            boolean exists = zset.scores.containsKey(member);
+            if ((nx && exists) || (xx && !exists)) {
+                continue;
+            }
+            zset.put(member, score);
+            changed = true;
+            if (!exists) {
+                added++;
+            }
+        }
+        if (zset.scores.isEmpty()) {
+            data.remove(key);
+        }
+        if (changed) {
+            touch(key);
+        }
+        return added;
+    }
+
+    private void afterZRemove(String key, ZSet zset, long removed) {
+        if (zset.scores.isEmpty()) {
+            remove(key);
+        } else if (removed > 0) {
+            touch(key);
+        }
+    }
+
+    private Object zrange(byte[][] args) {
+        ZSet zset = getZSet(key(args[1]), false);
+        boolean withScores = args.length > 4 && "WITHSCORES".equals(commandName(args[4]));
+        List<Object> result = new ArrayList<>();
+        if (zset == null) {
+            return result;
+        }
+        int size = zset.scores.size();
+        long start = number(args[2]);
+        long stop = number(args[3]);
+        if (start < 0) {
+            start = Math.max(0, size + start);
+        }
+        if (stop < 0) {
+            stop = size + stop;
+        }
+        stop = Math.min(stop, size - 1);
+        int index = 0;
+        for (ZEntry entry : zset.ordered) {
+            if (index > stop) {
+                break;
+            }
+            if (index >= start) {
+                result.add(bytes(entry.member));
+                if (withScores) {
+                    result.add(bytes(formatScore(entry.score)));
+                }
+            }
+            index++;
+        }
+        return result;
+    }
+
+    private Object zrangeByScore(byte[][] args, boolean reverse) {
+        ZSet zset = getZSet(key(args[1]), false);
+        ScoreBound min = ScoreBound.parse(args[reverse ? 3 : 2]);
+        ScoreBound max = ScoreBound.parse(args[reverse ? 2 : 3]);
+        boolean withScores = false;
+        long offset = 0;
+        long count = -1;
+        for (int i = 4; i < args.length; i++) {
+            String option = commandName(args[i]);
+            if ("WITHSCORES".equals(option)) {
+                withScores = true;
+            } else if ("LIMIT".equals(option)) {
+                offset = number(args[++i]);
+                count = number(args[++i]);
+            } else {
+                throw new RespError("ERR syntax error");
+            }
+        }
+        List<Object> result = new ArrayList<>();
+        if (zset == null) {
+            return result;
+        }
+        Iterator<ZEntry> iterator = reverse ? zset.ordered.descendingIterator() : zset.ordered.iterator();
+        while (iterator.hasNext() && count != 0) {
+            ZEntry entry = iterator.next();
+            if (min.below(entry.score) || max.above(entry.score)) {
+                continue;
+            }
+            if (offset > 0) {
+                offset--;
+                continue;
+            }
+            result.add(bytes(entry.member));
+            if (withScores) {
+                result.add(bytes(formatScore(entry.score)));
+            }
+            count--;
+        }
+        return result;
+    }
+
+    private Object xadd(byte[][] args) {
+        String key = key(args[1]);
+        int i = 2;
+        boolean noMkStream = false;
+        long maxLen = -1;
+        for (; i < args.length; i++) {
+            String option = commandName(args[i]);
+            if ("NOMKSTREAM".equals(option)) {
+                noMkStream = true;
+            } else if ("MAXLEN".equals(option)) {
+                if ("~".equals(text(args[i + 1])) || "=".equals(text(args[i + 1]))) {
+                    i++;
+                }
+                maxLen = number(args[++i]);
+            } else {
+                break;
+            }
+        }
+        if (i + 3 > args.length || (args.length - i - 1) % 2 != 0) {
+            throw new RespError("ERR wrong number of arguments for 'xadd' command");
+        }
+        Stream stream = getStream(key, !noMkStream);
+        if (stream == null) {
+            return null;
+        }
+        StreamId id;
+        if ("*".equals(text(args[i]))) {
+            long now = System.currentTimeMillis();
+            id = now > stream.lastId.ms ? new StreamId(now, 0) : new StreamId(stream.lastId.ms, stream.lastId.seq + 1);
+        } else {
+            id = StreamId.parse(args[i], 0);
+            if (id.compareTo(stream.lastId) <= 0) {
+                throw new RespError("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+            }
+        }
+        stream.entries.put(id, Arrays.asList(Arrays.copyOfRange(args, i + 1, args.length)));
+        stream.lastId = id;
+        if (maxLen >= 0) {
+            stream.trim(maxLen);
+        }
+        touch(key);
+        return bytes(id.toString());
+    }
+
+    private Object xrange(byte[][] args) {
+        Stream stream = getStream(key(args[1]), false);
+        StreamId start = "-".equals(text(args[2])) ? StreamId.MIN : StreamId.parse(args[2], 0);
+        StreamId end = "+".equals(text(args[3])) ? StreamId.MAX : StreamId.parse(args[3], Long.MAX_VALUE);
+        long count = args.length > 5 && "COUNT".equals(commandName(args[4])) ? number(args[5]) : Long.MAX_VALUE;
+        List<Object> result = new ArrayList<>();
+        if (stream == null || start.compareTo(end) > 0) {
+            return result;
+        }
+        for (Map.Entry<StreamId, List<byte[]>> entry : stream.entries.subMap(start, true, end, true).entrySet()) {
+            if (result.size() >= count) {
+                break;
+            }
+            result.add(streamEntry(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    private static List<Object> streamEntry(StreamId id, List<byte[]> fields) {
+        return Arrays.asList(bytes(id.toString()), new ArrayList<Object>(fields));
+    }
+
+    private Object xgroup(byte[][] args) {
+        String subcommand = commandName(args[1]);
+        String key = key(args[2]);
+        String name = key(args[3]);
+        switch (subcommand) {
+            case "CREATE": {
+                boolean mkStream = args.length > 5 && "MKSTREAM".equals(commandName(args[5]));
+                Stream stream = getStream(key, mkStream);
+                if (stream == null) {
+                    throw new RespError("ERR The XGROUP subcommand requires the key to exist. "
+                        + "Note that for CREATE you may want to use the MKSTREAM option to create an empty stream automatically.");
+                }
+                if (stream.groups.containsKey(name)) {
+                    throw new RespError("BUSYGROUP Consumer Group name already exists");
+                }
+                StreamGroup group = new StreamGroup();
+                group.lastDelivered = "$".equals(text(args[4])) ? stream.lastId : StreamId.parse(args[4], 0);
+                stream.groups.put(name, group);
+                touch(key);
+                return OK;
+            }
+            case "SETID": {
+                StreamGroup group = group(key, name, "XGROUP");
+                Stream stream = getStream(key, false);
+                group.lastDelivered = "$".equals(text(args[4])) ? stream.lastId : StreamId.parse(args[4], 0);
+                touch(key);
+                return OK;
+            }
+            case "DESTROY": {
+                Stream stream = getStream(key, false);
+                if (stream == null || stream.groups.remove(name) == null) {
+                    return 0L;
+                }
+                touch(key);
+                return 1L;
+            }
+            default:
+                throw new RespError("ERR unknown XGROUP subcommand '" + subcommand.toLowerCase() + "'");
+        }
+    }
+
+    private StreamGroup group(String key, String name, String command) {
+        Stream stream = getStream(key, false);
+        StreamGroup group = stream == null ? null : stream.groups.get(name);
+        if (group == null) {
+            throw new RespError("NOGROUP No such key '" + key + "' or consumer group '" + name + "' in " + command);
+        }
+        return group;
+    }
+
+    private Object xinfo(byte[][] args) {
+        if (!"GROUPS".equals(commandName(args[1]))) {
+            throw new RespError("ERR unknown XINFO subcommand '" + text(args[1]).toLowerCase() + "'");
+        }
+        Stream stream = getStream(key(args[2]), false);
+        if (stream == null) {
+            throw new RespError("ERR no such key");
+        }
+        List<Object> result = new ArrayList<>();
+        for (Map.Entry<String, StreamGroup> entry : stream.groups.entrySet()) {
+            StreamGroup group = entry.getValue();
+            result.add(Arrays.asList(bytes("name"), bytes(entry.getKey()),
+                bytes("consumers"), (long) group.consumers.size(),
+                bytes("pending"), (long) group.pending.size(),
+                bytes("last-delivered-id"), bytes(group.lastDelivered.toString())));
+        }
+        return result;
+    }
+
+    private Object xreadgroup(byte[][] args) {
+        if (args.length < 4 || !"GROUP".equals(commandName(args[1]))) {
+            throw new RespError("ERR syntax error");
+        }
+        String name = key(args[2]);
+        String consumer = key(args[3]);
+        long count = Long.MAX_VALUE;
+        boolean noAck = false;
+        int i = 4;
+        for (; i < args.length; i++) {
+            String option = commandName(args[i]);
+            if ("COUNT".equals(option)) {
+                count = number(args[++i]);
+            } else if ("BLOCK".equals(option)) {
+                i++;
+            } else if ("NOACK".equals(option)) {
+                noAck = true;
+            } else if ("STREAMS".equals(option)) {
+                i++;
+                break;
+            } else {
+                throw new RespError("ERR syntax error");
+            }
+        }
+        int streams = (args.length - i) / 2;
+        if (streams == 0 || (args.length - i) % 2 != 0) {
+            throw new RespError("ERR Unbalanced 'xreadgroup' list of streams: for each stream key an ID or '>' must be specified.");
+        }
+        List<Object> result = new ArrayList<>();
+        for (int s = 0; s < streams; s++) {
+            String key = key(args[i + s]);
+            StreamGroup group = group(key, name, "XREADGROUP with GROUP option");
+            Stream stream = getStream(key, false);
+            group.consumers.add(consumer);
+            List<Object> entries = new ArrayList<>();
+            if (">".equals(text(args[i + streams + s]))) {
+                // 读取新消息,前进消费组位置并加入待确认列表
+                for (Map.Entry<StreamId, List<byte[]>> entry : stream.entries.tailMap(group.lastDelivered, false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    entries.add(streamEntry(entry.getKey(), entry.getValue()));
+                    group.lastDelivered = entry.getKey();
+                    if (!noAck) {
+                        group.pending.put(entry.getKey(), consumer);
+                    }
+                }
+                if (!entries.isEmpty()) {
+                    touch(key);
+                }
+            } else {
+                // 读取该消费者待确认列表中的消息,已被删除的消息内容为nil
+                StreamId from = StreamId.parse(args[i + streams + s], 0);
+                for (Map.Entry<StreamId, String> entry : group.pending.tailMap(from, false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    if (consumer.equals(entry.getValue())) {
+                        List<byte[]> fields = stream.entries.get(entry.getKey());
+                        entries.add(fields == null ? Arrays.asList(bytes(entry.getKey().toString()), null)
+                            : streamEntry(entry.getKey(), fields));
+                    }
+                }
+            }
+            if (!entries.isEmpty() || !">".equals(text(args[i + streams + s]))) {
+                result.add(Arrays.asList(args[i + s], entries));
+            }
+        }
+        return result.isEmpty() ? NULL_ARRAY : result;
+    }
+
+    /**
+     * stream,消息按id排序
+     */
+    private static class Stream {
+        private final TreeMap<StreamId, List<byte[]>> entries = new TreeMap<>();
+        private final Map<String, StreamGroup> groups = new LinkedHashMap<>();
+        private StreamId lastId = StreamId.MIN;
+
+        /**
+         * 删除最早的消息直到最多保留maxLen条
+         * @return 删除的消息数
+         */
+        private long trim(long maxLen) {
+            long trimmed = 0;
+            while (entries.size() > maxLen) {
+                entries.pollFirstEntry();
+                trimmed++;
+            }
+            return trimmed;
+        }
+    }
+
+    /**
+     * 消费组,待确认列表为 消息id -> 消费者
+     */
+    private static class StreamGroup {
+        private StreamId lastDelivered = StreamId.MIN;
+        private final TreeMap<StreamId, String> pending = new TreeMap<>();
+        private final Set<String> consumers = new TreeSet<>();
+    }
+
+    private static class StreamId implements Comparable<StreamId> {
+        private static final StreamId MIN = new StreamId(0, 0);
+        private static final StreamId MAX = new StreamId(Long.MAX_VALUE, Long.MAX_VALUE);
+        private final long ms;
+        private final long seq;
+
+        private StreamId(long ms, long seq) {
+            this.ms = ms;
+            this.seq = seq;
+        }
+
+        /**
+         * @param defaultSeq 只有毫秒部分时的序号
+         */
+        private static StreamId parse(byte[] arg, long defaultSeq) {
+            String text = text(arg);
+            int dash = text.indexOf('-');
+            try {
+                return dash < 0 ? new StreamId(Long.parseLong(text), defaultSeq)
+                    : new StreamId(Long.parseLong(text.substring(0, dash)), Long.parseLong(text.substring(dash + 1)));
+            } catch (NumberFormatException e) {
+                throw new RespError("ERR Invalid stream ID specified as stream command argument");
+            }
+        }
+
+        @Override
+        public int compareTo(StreamId o) {
+            int c = Long.compare(ms, o.ms);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StreamId && compareTo((StreamId) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(ms) * 31 + Long.hashCode(seq);
+        }
+
+        @Override
+        public String toString() {
+            return ms + "-" + seq;
+        }
+    }
+
+    private static String formatScore(double score) {
+        if (score == Math.rint(score) && Math.abs(score) < 1e17) {
+            return String.valueOf((long) score);
+        }
+        return String.valueOf(score);
+    }
+
+    /**
+     * 有序集合,按(分数, 成员)排序
+     */
+    private static class ZSet {
+        private final Map<String, Double> scores = new HashMap<>();
+        private final TreeSet<ZEntry> ordered = new TreeSet<>();
+
+        private void put(String member, double score) {
+            Double old = scores.put(member, score);
+            if (old != null) {
+                ordered.remove(new ZEntry(old, member));
+            }
+            ordered.add(new ZEntry(score, member));
+        }
+
+        private boolean remove(String member) {
+            Double old = scores.remove(member);
+            if (old == null) {
+                return false;
+            }
+            ordered.remove(new ZEntry(old, member));
+            return true;
+        }
+    }
+
+    private static class ZEntry implements Comparable<ZEntry> {
+        private final double score;
+        private final String member;
+
+        private ZEntry(double score, String member) {
+            this.score = score;
+            this.member = member;
+        }
+
+        @Override
+        public int compareTo(ZEntry o) {
+            int c = Double.compare(score, o.score);
+            return c != 0 ? c : member.compareTo(o.member);
+        }
+    }
+
+    /**
+     * 分数区间的边界,支持-inf/+inf和(开区间
+     */
+    private static class ScoreBound {
+        private final double value;
+        private final boolean exclusive;
+
+        private ScoreBound(double value, boolean exclusive) {
+            this.value = value;
+            this.exclusive = exclusive;
+        }
+
+        private static ScoreBound parse(byte[] arg) {
+            String text = text(arg);
+            boolean exclusive = text.startsWith("(");
+            if (exclusive) {
+                text = text.substring(1);
+            }
+            switch (text.toLowerCase()) {
+                case "-inf":
+                    return new ScoreBound(Double.NEGATIVE_INFINITY, exclusive);
+                case "+inf":
+                case "inf":
+                    return new ScoreBound(Double.POSITIVE_INFINITY, exclusive);
+                default:
+                    return new ScoreBound(Double.parseDouble(text), exclusive);
+            }
+        }
+
+        /**
+         * 作为下界时,score是否在区间之外
+         */
+        private boolean below(double score) {
+            return exclusive ? score <= value : score < value;
+        }
+
+        /**
+         * 作为上界时,score是否在区间之外
+         */
+        private boolean above(double score) {
+            return exclusive ? score >= value : score > value;
+        }
+    }
+
+    private Object subscribe(Connection connection, String command, byte[][] args) {
+        boolean pattern = "PSUBSCRIBE".equals(command);
+        Map<String, Set<Connection>> targets = pattern ? patterns : channels;
+        Set<String> subscribed = pattern ? connection.subscribedPatterns : connection.subscribedChannels;
+        List<Object> replies = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            String name = key(args[i]);
+            targets.computeIfAbsent(name, n -> new CopyOnWriteArraySet<>()).add(connection);
+            subscribed.add(name);
+            replies.add(Arrays.asList(bytes(command.toLowerCase()), args[i],
+                (long) (connection.subscribedChannels.size() + connection.subscribedPatterns.size())));
+        }
+        return new MultiReply(replies);
+    }
+
+    private Object unsubscribeAll(Connection connection, String command, byte[][] args) {
+        boolean pattern = "PUNSUBSCRIBE".equals(command);
+        Map<String, Set<Connection>> targets = pattern ? patterns : channels;
+        Set<String> subscribed = pattern ? connection.subscribedPatterns : connection.subscribedChannels;
+        List<String> names = new ArrayList<>();
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                names.add(key(args[i]));
+            }
+        } else {
+            names.addAll(subscribed);
+        }
+        List<Object> replies = new ArrayList<>();
+        for (String name : names) {
+            subscribed.remove(name);
+            unsubscribe(targets, name, connection);
+            replies.add(Arrays.asList(bytes(command.toLowerCase()), bytes(name),
+                (long) (connection.subscribedChannels.size() + connection.subscribedPatterns.size())));
+        }
+        if (replies.isEmpty()) {
+            replies.add(Arrays.asList(bytes(command.toLowerCase()), null, 0L));
+        }
+        return new MultiReply(replies);
+    }
+
+    private static void unsubscribe(Map<String, Set<Connection>> targets, String name, Connection connection) {
+        Set<Connection> subscribers = targets.get(name);
+        if (subscribers != null) {
+            subscribers.remove(connection);
+        }
+    }
+
+    private long publish(byte[] channel, byte[] message) {
+        long receivers = 0;
+        Set<Connection> subscribers = channels.get(key(channel));
+        if (subscribers != null) {
+            for (Connection connection : subscribers) {
+                connection.push(Arrays.asList(bytes("message"), channel, message));
+                receivers++;
+            }
+        }
+        String channelName = key(channel);
+        for (Map.Entry<String, Set<Connection>> entry : patterns.entrySet()) {
+            if (entry.getValue().isEmpty() || !globMatch(entry.getKey(), 0, channelName, 0)) {
+                continue;
+            }
+            for (Connection connection : entry.getValue()) {
+                connection.push(Arrays.asList(bytes("pmessage"), bytes(entry.getKey()), channel, message));
+                receivers++;
+            }
+        }
+        return receivers;
+    }
+
+    /**
+     * glob匹配,支持*、?和\转义
+     */
+    private static boolean globMatch(String pattern, int p, String text, int t) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            if (c == '*') {
+                for (int i = t; i <= text.length(); i++) {
+                    if (globMatch(pattern, p + 1, text, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            boolean escaped = c == '\\' && p + 1 < pattern.length();
+            if (escaped) {
+                c = pattern.charAt(++p);
+            }
+            if (t >= text.length() || ((escaped || c != '?') && c != text.charAt(t))) {
+                return false;
+            }
+            p++;
+            t++;
+        }
+        return t == text.length();
+    }
+
+    private void initLua() {
+        LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall(false));
+        redis.set("pcall", new RedisCall(true));
+        // 命令在锁内串行执行,没有复制,按效果复制的声明直接返回
+        redis.set("replicate_commands", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs varargs) {
+                return LuaValue.TRUE;
+            }
+        });
+        globals.set("redis", redis);
+        // redis使用lua 5.1,unpack为全局函数
+        globals.set("unpack", globals.get("table").get("unpack"));
+    }
+
+    private Object script(byte[][] args) {
+        String subcommand = commandName(args[1]);
+        switch (subcommand) {
+            case "LOAD":
+                load(text(args[2]));
+                return bytes(sha1(text(args[2])));
+            case "EXISTS": {
+                List<Object> result = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    result.add(scripts.containsKey(text(args[i]).toLowerCase()) ? 1L : 0L);
+                }
+                return result;
+            }
+            case "FLUSH":
+                scripts.clear();
+                return OK;
+            default:
+                throw new RespError("ERR unknown SCRIPT subcommand");
+        }
+    }
+
+    private LuaValue load(String source) {
+        String sha = sha1(source);
+        LuaValue script = scripts.get(sha);
+        if (script == null) {
+            try {
+                script = globals.load(source, "@user_script");
+            } catch (LuaError e) {
+                throw new RespError("ERR Error compiling script " + e.getMessage());
+            }
+            scripts.put(sha, script);
+        }
+        return script;
+    }
+
+    private Object eval(LuaValue script, byte[][] args) {
+        int numKeys = (int) number(args[2]);
+        LuaTable keys = new LuaTable();
+        LuaTable argv = new LuaTable();
+        for (int i = 0; i < numKeys; i++) {
+            keys.set(i + 1, LuaString.valueOf(args[3 + i]));
+        }
+        for (int i = 3 + numKeys; i < args.length; i++) {
+            argv.set(i - 2 - numKeys, LuaString.valueOf(args[i]));
+        }
+        globals.set("KEYS", keys);
+        globals.set("ARGV", argv);
+        try {
+            return toReply(script.call());
+        } catch (LuaError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RespError) {
+                throw (RespError) cause;
+            }
+            throw new RespError("ERR Error running script: " + e.getMessage());
+        }
+    }
+
+    /**
+     * lua返回值转换为回复,与redis的转换规则一致
+     */
+    private static Object toReply(LuaValue value) {
+        switch (value.type()) {
+            case LuaValue.TNUMBER:
+                return (long) value.todouble();
+            case LuaValue.TSTRING:
+                return toBytes(value.checkstring());
+            case LuaValue.TBOOLEAN:
+                return value.toboolean() ? 1L : null;
+            case LuaValue.TTABLE: {
+                LuaValue err = value.get("err");
+                if (!err.isnil()) {
+                    return new RespError(err.tojstring());
+                }
+                LuaValue ok = value.get("ok");
+                if (!ok.isnil()) {
+                    return ok.tojstring();
+                }
+                List<Object> result = new ArrayList<>();
+                for (int i = 1; !value.get(i).isnil(); i++) {
+                    result.add(toReply(value.get(i)));
+                }
+                return result;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 回复转换为lua值,与redis的转换规则一致
+     */
+    private static LuaValue toLua(Object reply) {
+        if (reply == null || reply == NULL_ARRAY) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long) {
+            return LuaValue.valueOf((double) (Long) reply);
+        }
+        if (reply instanceof byte[]) {
+            return LuaString.valueOf((byte[]) reply);
+        }
+        if (reply instanceof String) {
+            LuaTable status = new LuaTable();
+            status.set("ok", LuaValue.valueOf((String) reply));
+            return status;
+        }
+        if (reply instanceof RespError) {
+            LuaTable error = new LuaTable();
+            error.set("err", LuaValue.valueOf(((RespError) reply).getMessage()));
+            return error;
+        }
+        List<?> values = (List<?>) reply;
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, toLua(values.get(i)));
+        }
+        return table;
+    }
+
+    private static byte[] toBytes(LuaString value) {
+        byte[] bytes = new byte[value.rawlen()];
+        value.copyInto(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * redis.call / redis.pcall
+     */
+    private class RedisCall extends VarArgFunction {
+        private final boolean protectedCall;
+
+        private RedisCall(boolean protectedCall) {
+            this.protectedCall = protectedCall;
+        }
+
+        @Override
+        public Varargs invoke(Varargs varargs) {
+            byte[][] args = new byte[varargs.narg()][];
+            for (int i = 0; i < args.length; i++) {
+                LuaValue arg = varargs.arg(i + 1);
+                if (arg.type() == LuaValue.TNUMBER) {
+                    args[i] = bytes(formatScore(arg.todouble()));
+                } else if (arg.type() == LuaValue.TSTRING) {
+                    args[i] = toBytes(arg.checkstring());
+                } else {
+                    throw new LuaError("Lua redis() command arguments must be strings or integers");
+                }
+            }
+            Object reply;
+            try {
+                reply = execute(commandName(args[0]), args);
+            } catch (RespError e) {
+                if (!protectedCall) {
+                    throw new LuaError(e);
+                }
+                reply = e;
+            }
+            return toLua(reply);
+        }
+    }
+
+    private static String sha1(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 错误回复
+     */
+    private static class RespError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RespError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * 订阅命令的多个回复,依次写出
+     */
+    private static class MultiReply {
+        private final List<Object> replies;
+
+        private MultiReply(List<Object> replies) {
+            this.replies = replies;
+        }
+    }
+
+    private static void writeReply(ByteArrayOutputStream out, Object reply) {
+        if (reply == null) {
+            writeLine(out, "$-1");
+        } else if (reply == NULL_ARRAY) {
+            writeLine(out, "*-1");
+        } else if (reply instanceof String) {
+            writeLine(out, "+" + reply);
+        } else if (reply instanceof RespError) {
+            writeLine(out, "-" + ((RespError) reply).getMessage());
+        } else if (reply instanceof Long) {
+            writeLine(out, ":" + reply);
+        } else if (reply instanceof byte[]) {
+            byte[] bytes = (byte[]) reply;
+            writeLine(out, "$" + bytes.length);
+            out.write(bytes, 0, bytes.length);
+            out.write(CRLF, 0, 2);
+        } else if (reply instanceof MultiReply) {
+            for (Object single : ((MultiReply) reply).replies) {
+                writeReply(out, single);
+            }
+        } else {
+            List<?> values = (List<?>) reply;
+            writeLine(out, "*" + values.size());
+            for (Object value : values) {
+                writeReply(out, value);
+            }
+        }
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+        out.write(CRLF, 0, 2);
+    }
+}
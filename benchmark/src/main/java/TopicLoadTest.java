@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 主题负载/长稳测试
+ * 多个生产方线程按目标速率发布大小随机的消息,多个订阅方线程(同一订阅方的多个实例)读取,
+ * 每个统计周期输出发布/读取速率、发布失败率、端到端延迟分位数、积压和最早未读消息的时长.
+ * 端到端延迟从计划发送时间开始计算,发布落后于目标速率时排队的时间也计入延迟
+ * 可以连接真实的redis,也可以在进程内启动RespStandInServer
+ *
+ * 运行: mvn -f benchmark/pom.xml compile exec:java -Dexec.mainClass=TopicLoadTest -Dexec.args="--rate 5000 --duration 60"
+ * 参数:
+ *   --redis host:port      连接redis,不指定时启动进程内的RespStandInServer
+ *   --password 密码
+ *   --latency 微秒         RespStandInServer每次回复前的延迟,默认0
+ *   --engine STRING        主题存储引擎
+ *   --multiplexed          使用多路复用客户端
+ *   --producers 4          生产方线程数
+ *   --consumers 4          订阅方线程数
+ *   --rate 1000            目标发布速率(条/秒),0表示不限速
+ *   --min-size 100 --max-size 1000   消息内容长度范围(字节)
+ *   --batch 100            订阅方每次读取的最大消息数
+ *   --duration 60          运行时间(秒),0表示一直运行
+ *   --interval 5           统计周期(秒)
+ */
+public class TopicLoadTest {
+    /**
+     * 消息内容开头记录计划发送时间(System.nanoTime() - ORIGIN),固定19位
+     */
+    private static final int TIMESTAMP_LENGTH = 19;
+    private static final long ORIGIN = System.nanoTime();
+    private static final String SUBSCRIBER = "load";
+
+    private final Map<String, String> options;
+    private final String topic = "load-" + System.currentTimeMillis();
+    private final TopicEngine engine;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    /**
+     * 当前统计周期的端到端延迟,每个周期替换
+     */
+    private volatile LatencyHistogram interval = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private volatile boolean running = true;
+
+    private TopicLoadTest(Map<String, String> options) {
+        this.options = options;
+        this.engine = TopicEngine.valueOf(option("engine", "STRING"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("unknown argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        new TopicLoadTest(options).run();
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    private void run() throws Exception {
+        RespStandInServer server = connect();
+        int producers = intOption("producers", 4);
+        int consumers = intOption("consumers", 4);
+        int rate = intOption("rate", 1000);
+        long duration = TimeUnit.SECONDS.toMillis(intOption("duration", 60));
+        long reportInterval = TimeUnit.SECONDS.toMillis(intOption("interval", 5));
+
+        // 订阅方先注册,读取之后发布的全部消息
+        new Consumer(topic, SUBSCRIBER, engine).unreadMessages();
+        MetricsSampler sampler = new MetricsSampler(reportInterval);
+        sampler.register(topic, engine, SUBSCRIBER);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            threads.add(start("load-consumer-" + i, this::consume));
+        }
+        for (int i = 0; i < producers; i++) {
+            double producerRate = rate <= 0 ? 0 : (double) rate / producers;
+            threads.add(start("load-producer-" + i, () -> produce(producerRate)));
+        }
+
+        System.out.printf("topic=%s engine=%s producers=%d consumers=%d rate=%s size=%d~%d%n", topic, engine,
+            producers, consumers, rate <= 0 ? "unlimited" : rate + "/s", intOption("min-size", 100), intOption("max-size", 1000));
+        System.out.printf("%8s %10s %8s %10s %10s %10s %10s %10s %10s %12s%n", "time(s)", "pub/s", "fail%",
+            "con/s", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "lag", "oldest(ms)");
+        long start = System.currentTimeMillis();
+        long lastPublished = 0;
+        long lastFailed = 0;
+        long lastConsumed = 0;
+        long lastReport = start;
+        while (duration <= 0 || System.currentTimeMillis() - start < duration) {
+            Thread.sleep(reportInterval);
+            long now = System.currentTimeMillis();
+            HistogramSnapshot latency = interval.snapshot();
+            interval = new LatencyHistogram();
+            long pub = published.sum();
+            long fail = failed.sum();
+            long con = consumed.sum();
+            List<TopicStats> stats = sampler.sample();
+            double seconds = (now - lastReport) / 1000.0;
+            long attempts = pub - lastPublished + fail - lastFailed;
+            System.out.printf("%8d %10.0f %8.2f %10.0f %10.2f %10.2f %10.2f %10.2f %10s %12s%n",
+                (now - start) / 1000, (pub - lastPublished) / seconds,
+                attempts == 0 ? 0 : (fail - lastFailed) * 100.0 / attempts, (con - lastConsumed) / seconds,
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                latency.getValueAtPercentile(99.9) / 1e6, latency.getMaxNanos() / 1e6,
+                stats.isEmpty() ? "-" : String.valueOf(stats.get(0).getMaxLag()),
+                stats.isEmpty() ? "-" : String.valueOf(stats.get(0).getOldestUnconsumedAgeMillis()));
+            lastPublished = pub;
+            lastFailed = fail;
+            lastConsumed = con;
+            lastReport = now;
+        }
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        System.out.println();
+        System.out.println("published=" + published.sum() + " failed=" + failed.sum() + " consumed=" + consumed.sum());
+        System.out.println("end-to-end " + total.snapshot());
+        System.out.print(Instrumentation.snapshot());
+        if (server != null) {
+            server.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * 配置RedisCache,未指定--redis时启动进程内的RespStandInServer
+     * @return 启动的RespStandInServer,连接redis时返回null
+     */
+    private RespStandInServer connect() throws Exception {
+        RedisCache config = new RedisCache();
+        config.setMultiplexed(options.containsKey("multiplexed"));
+        config.setMaxActive(intOption("producers", 4) + intOption("consumers", 4) + 8);
+        if (engine == TopicEngine.MEMORY) {
+            return null;
+        }
+        String redis = options.get("redis");
+        if (redis != null) {
+            String[] hostAndPort = redis.split(":");
+            config.setADDR(hostAndPort[0]);
+            config.setPORT(hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 6379);
+            config.setAUTH(options.get("password"));
+            return null;
+        }
+        RespStandInServer server = new RespStandInServer(0, Long.parseLong(option("latency", "0")));
+        config.setADDR("127.0.0.1");
+        config.setPORT(server.getPort());
+        return server;
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 按目标速率发布,落后于计划时立即发送直到追上
+     * @param rate 每秒发布的消息数,0表示不限速
+     */
+    private void produce(double rate) {
+        Producer producer = new Producer(topic, engine);
+        int minSize = Math.max(TIMESTAMP_LENGTH, intOption("min-size", 100));
+        int maxSize = Math.max(minSize, intOption("max-size", 1000));
+        StringBuilder filler = new StringBuilder(maxSize);
+        while (filler.length() < maxSize) {
+            filler.append("0123456789abcdefghijklmnopqrstuvwxyz");
+        }
+        long periodNanos = rate <= 0 ? 0 : (long) (1e9 / rate);
+        long next = System.nanoTime();
+        RedisMessageModel message = new RedisMessageModel();
+        message.setTopic(topic);
+        while (running) {
+            if (periodNanos > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            } else {
+                next = System.nanoTime();
+            }
+            int size = ThreadLocalRandom.current().nextInt(minSize, maxSize + 1);
+            message.setContent(String.format("%0" + TIMESTAMP_LENGTH + "d", next - ORIGIN) + filler.substring(0, size - TIMESTAMP_LENGTH));
+            if (producer.publish(message)) {
+                published.increment();
+            } else {
+                failed.increment();
+            }
+            next += periodNanos;
+        }
+    }
+
+    /**
+     * 批量读取,没有可读消息时等待发布通知
+     */
+    private void consume() {
+        Consumer consumer = new Consumer(topic, SUBSCRIBER, engine);
+        int batch = intOption("batch", 100);
+        while (running) {
+            long sequence = consumer.publishSequence();
+            List<RedisMessageModel> messages = consumer.consume(batch);
+            if (messages.isEmpty()) {
+                try {
+                    consumer.awaitPublish(sequence, 100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            long now = System.nanoTime();
+            LatencyHistogram current = interval;
+            for (RedisMessageModel message : messages) {
+                long latency = now - ORIGIN - Long.parseLong(message.getContent().substring(0, TIMESTAMP_LENGTH));
+                current.record(latency);
+                total.record(latency);
+            }
+            consumed.add(messages.size());
+        }
+    }
+}
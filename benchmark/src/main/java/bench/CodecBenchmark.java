@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息编解码: 二进制 对比 JSON文本 对比 压缩
+ * 运行: java -jar benchmark/target/benchmarks.jar CodecBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"BINARY", "JSON_TEXT", "COMPRESSED"})
+    private String codec;
+
+    @Param({"64", "4096"})
+    private int payloadBytes;
+
+    private CodecWorkload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = (CodecWorkload) Class.forName("MessageCodecWorkload").getDeclaredConstructor().newInstance();
+        workload.setup(codec, payloadBytes);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return workload.encode();
+    }
+
+    @Benchmark
+    public Object decode() {
+        return workload.decode();
+    }
+}
@@ -0,0 +1,20 @@
+package bench;
+
+/**
+ * 消息编解码的压测负载,由默认包中的MessageCodecWorkload实现(见KeyWorkload)
+ */
+public interface CodecWorkload {
+
+    /**
+     * @param codec BINARY, JSON_TEXT 或 COMPRESSED(二进制编码,超过256字节时压缩)
+     * @param payloadBytes 消息内容的长度
+     */
+    void setup(String codec, int payloadBytes);
+
+    byte[] encode();
+
+    /**
+     * 解码setup时编码好的消息
+     */
+    Object decode();
+}
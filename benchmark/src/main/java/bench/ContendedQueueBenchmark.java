@@ -0,0 +1,74 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个生产方和同一订阅方的多个实例竞争同一个主题:发布竞争消息总数,读取竞争订阅方索引.
+ * 吞吐量为每秒的发布/读取次数,结束时打印的埋点中consumer.watchConflicts和consumer.commitConflicts为读取冲突次数
+ * 运行: java -jar benchmark/target/benchmarks.jar ContendedQueueBenchmark -p engine=STRING,HASH
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedQueueBenchmark {
+    private static final int CONSUME_BATCH = 10;
+
+    @Param({"STRING", "HASH"})
+    private String engine;
+
+    @Param({"false", "true"})
+    private boolean multiplexed;
+
+    @Param({"0"})
+    private long latencyMicros;
+
+    @Param({"256"})
+    private int payloadBytes;
+
+    private QueueWorkload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = (QueueWorkload) Class.forName("RedisQueueWorkload").getDeclaredConstructor().newInstance();
+        workload.setup(engine, multiplexed, latencyMicros, payloadBytes);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println(workload.report());
+        workload.tearDown();
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(4)
+    public boolean publish() {
+        return workload.publish();
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(4)
+    public int consume() {
+        return workload.consume(CONSUME_BATCH);
+    }
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * key生成: MessageFormat + String拼接 对比 预先编码的byte[]前缀
+ * 运行: mvn -f benchmark/pom.xml package && java -jar benchmark/target/benchmarks.jar KeyGeneration -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyGenerationBenchmark {
+
+    /**
+     * 一次批量读取的消息数
+     */
+    @Param({"1", "100"})
+    private int count;
+
+    private KeyWorkload workload;
+    private long from = 1000000;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = (KeyWorkload) Class.forName("RedisQueueKeyWorkload").getDeclaredConstructor().newInstance();
+    }
+
+    @Benchmark
+    public byte[][] legacyMessageKeys() {
+        return workload.legacyKeys(from++, count);
+    }
+
+    @Benchmark
+    public byte[][] messageKeys() {
+        return workload.keys(from++, count);
+    }
+
+    @Benchmark
+    public byte[] legacyFullKey() {
+        return workload.legacyFullKey();
+    }
+
+    @Benchmark
+    public byte[] fullKey() {
+        return workload.fullKey();
+    }
+}
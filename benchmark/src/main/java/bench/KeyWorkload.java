@@ -0,0 +1,28 @@
+package bench;
+
+/**
+ * key生成的压测负载.JMH不支持默认包中的压测类,而主工程的类都在默认包中,
+ * 因此压测类只依赖该接口,由默认包中的实现类调用主工程
+ */
+public interface KeyWorkload {
+
+    /**
+     * 优化前的路径: 每个key通过MessageFormat生成完整key再编码为byte[]
+     */
+    byte[][] legacyKeys(long from, int count);
+
+    /**
+     * 当前路径: RedisQueue预先编码的key前缀加数字id
+     */
+    byte[][] keys(long from, int count);
+
+    /**
+     * 优化前的完整key: MessageFormat生成后编码为byte[]
+     */
+    byte[] legacyFullKey();
+
+    /**
+     * 当前的完整key: 构造时编码好的byte[]
+     */
+    byte[] fullKey();
+}
@@ -0,0 +1,92 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程发布和读取,redis引擎连接进程内的RespStandInServer,不需要安装redis
+ * 读取压测每次先发布同样数量的消息,结果包括发布的耗时,与对应的发布压测相减得到读取的耗时
+ * 运行: mvn -f benchmark/pom.xml package && java -jar benchmark/target/benchmarks.jar QueueBenchmark -p latencyMicros=0,200
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueueBenchmark {
+    private static final int BATCH = 100;
+
+    @Param({"STRING", "HASH", "STREAM", "MEMORY"})
+    private String engine;
+
+    @Param({"false", "true"})
+    private boolean multiplexed;
+
+    /**
+     * 模拟的网络往返延迟(微秒)
+     */
+    @Param({"0"})
+    private long latencyMicros;
+
+    @Param({"256"})
+    private int payloadBytes;
+
+    private QueueWorkload workload;
+
+    @Setup
+    public void setup() throws Exception {
+        workload = (QueueWorkload) Class.forName("RedisQueueWorkload").getDeclaredConstructor().newInstance();
+        workload.setup(engine, multiplexed, latencyMicros, payloadBytes);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println(workload.report());
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return workload.publish();
+    }
+
+    /**
+     * 每条消息的平均耗时
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int publishAll() {
+        return workload.publishAll(BATCH);
+    }
+
+    @Benchmark
+    public int publishThenConsume() {
+        workload.publish();
+        return workload.consume(1);
+    }
+
+    /**
+     * 每条消息的平均耗时
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int publishAllThenConsumeBatch() {
+        workload.publishAll(BATCH);
+        return workload.consume(BATCH);
+    }
+}
@@ -0,0 +1,38 @@
+package bench;
+
+/**
+ * 发布/读取的压测负载,由默认包中的RedisQueueWorkload实现(见KeyWorkload)
+ * 同一个负载可被多个线程同时调用,模拟多个生产方和订阅方竞争同一个主题
+ */
+public interface QueueWorkload {
+
+    /**
+     * 创建主题、生产方和订阅方,redis引擎使用进程内的RespStandInServer
+     * @param engine 主题存储引擎,TopicEngine的名称
+     * @param multiplexed 是否使用多路复用客户端
+     * @param latencyMicros RespStandInServer每次回复前的延迟
+     * @param payloadBytes 消息内容的长度
+     */
+    void setup(String engine, boolean multiplexed, long latencyMicros, int payloadBytes) throws Exception;
+
+    boolean publish();
+
+    /**
+     * 批量发布
+     * @return 发布成功的消息数
+     */
+    int publishAll(int count);
+
+    /**
+     * 批量读取
+     * @return 读取到的消息数
+     */
+    int consume(int maxMessages);
+
+    /**
+     * 埋点快照,压测结束时打印
+     */
+    String report();
+
+    void tearDown() throws Exception;
+}
@@ -0,0 +1,211 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AckConsumerTest {
+
+    static AckConsumer consumer(String topic) {
+        AckConsumer consumer = new AckConsumer(topic, "s", TopicEngine.MEMORY);
+        consumer.setCommitBatch(1000);
+        consumer.setCommitIntervalMillis(Long.MAX_VALUE / 2);
+        return consumer;
+    }
+
+    /**
+     * 确认不连续时索引只前进到连续已确认的最大id,超时未确认的消息重新投递
+     */
+    @Test(timeout = 30000)
+    public void commitsOnlyContiguousAcksAndRedeliversTimedOut() throws Exception {
+        String topic = "ack-contiguous-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AckConsumer consumer = consumer(topic);
+        consumer.setVisibilityTimeoutMillis(50);
+        assertTrue(consumer.poll(10).isEmpty());
+        for (int i = 1; i <= 3; i++) {
+            ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m" + i));
+        }
+
+        List<AckConsumer.Delivery> deliveries = consumer.poll(10);
+        assertEquals(3, deliveries.size());
+        consumer.ack(deliveries.get(0));
+        consumer.ack(deliveries.get(2));
+        consumer.flush();
+        assertEquals(1, (long) storage.offset("s"));
+        assertEquals(1, consumer.inFlight());
+
+        Thread.sleep(60);
+        List<AckConsumer.Delivery> redelivered = consumer.poll(10);
+        assertEquals(1, redelivered.size());
+        assertEquals("m2", redelivered.get(0).getMessage().getContent());
+        assertEquals(2, redelivered.get(0).getAttempts());
+        consumer.ack(redelivered.get(0));
+        consumer.flush();
+        assertEquals(3, (long) storage.offset("s"));
+        assertEquals(0, consumer.inFlight());
+    }
+
+    /**
+     * 无法解码的消息计数后直接确认,不能在已读取的消息中留下空缺阻塞提交
+     */
+    @Test(timeout = 30000)
+    public void undecodableMessagesAreAckedWithoutGap() {
+        String topic = "ack-poison-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AckConsumer consumer = consumer(topic);
+        assertTrue(consumer.poll(10).isEmpty());
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m1"));
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.truncated());
+        ParallelConsumerTest.publish(storage, "{not json".getBytes(StandardCharsets.UTF_8));
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m4"));
+        long decodeErrors = Consumer.DECODE_ERRORS.sum();
+
+        List<AckConsumer.Delivery> deliveries = consumer.poll(10);
+        assertEquals(2, deliveries.size());
+        assertEquals("m1", deliveries.get(0).getMessage().getContent());
+        assertEquals("m4", deliveries.get(1).getMessage().getContent());
+        assertEquals(2, Consumer.DECODE_ERRORS.sum() - decodeErrors);
+        for (AckConsumer.Delivery delivery : deliveries) {
+            consumer.ack(delivery);
+        }
+        consumer.flush();
+        assertEquals(4, (long) storage.offset("s"));
+        assertEquals(0, consumer.inFlight());
+
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m5"));
+        assertEquals(5, consumer.poll(10).get(0).getId());
+    }
+
+    /**
+     * 阻塞消费一次读取一批消息逐条处理,不能每条消息读取一次
+     */
+    @Test(timeout = 30000)
+    public void consumePollsInBatches() {
+        String topic = "ack-batch-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AtomicInteger polls = new AtomicInteger();
+        AckConsumer consumer = new AckConsumer(topic, "s", TopicEngine.MEMORY) {
+            @Override
+            public List<Delivery> poll(int maxMessages) {
+                polls.incrementAndGet();
+                return super.poll(maxMessages);
+            }
+        };
+        consumer.setCommitBatch(5);
+        assertTrue(consumer.poll(10).isEmpty());
+        for (int i = 1; i <= 10; i++) {
+            ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m" + i));
+        }
+        polls.set(0);
+
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        consumer.consume(message -> handled.add(message.getContent()), 100);
+        assertEquals(10, handled.size());
+        assertEquals("m10", handled.get(9));
+        // 两批各5条,之后空闲期间按提交间隔重新读取
+        assertTrue("polls: " + polls.get(), polls.get() <= 4);
+        assertEquals(10, (long) storage.offset("s"));
+    }
+
+    static RetryPolicy retryPolicy(int maxAttempts, long backoffMillis) {
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setMaxAttempts(maxAttempts);
+        retryPolicy.setInitialBackoffMillis(backoffMillis);
+        retryPolicy.setMultiplier(1);
+        retryPolicy.setJitter(0);
+        return retryPolicy;
+    }
+
+    /**
+     * 处理失败按退避时间重试,达到最多投递次数后发布到死信主题并确认
+     */
+    @Test(timeout = 30000)
+    public void retriesThenDeadLetters() {
+        String topic = "ack-retry-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        QueueStorage deadLetters = TopicEngine.MEMORY.createStorage(topic + "-dlq");
+        AckConsumer consumer = new AckConsumer(topic, "s", TopicEngine.MEMORY);
+        consumer.setRetryPolicy(retryPolicy(3, 20));
+        consumer.setDeadLetterTopic(topic + "-dlq");
+        assertTrue(consumer.poll(10).isEmpty());
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("poison"));
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("ok"));
+        long retries = AckConsumer.RETRIES.sum();
+        long deadLettered = AckConsumer.DEAD_LETTERS.sum();
+
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        consumer.consume(message -> {
+            handled.add(message.getContent());
+            if (message.getContent().equals("poison")) {
+                throw new IllegalStateException("always fails");
+            }
+        }, 300);
+
+        assertEquals(Arrays.asList("poison", "ok", "poison", "poison"), handled);
+        assertEquals(2, AckConsumer.RETRIES.sum() - retries);
+        assertEquals(1, AckConsumer.DEAD_LETTERS.sum() - deadLettered);
+        assertEquals(1, deadLetters.size());
+        assertEquals(2, (long) storage.offset("s"));
+        assertEquals(0, consumer.inFlight());
+    }
+
+    /**
+     * 重试到期在共用的定时器线程执行,不能等待AckConsumer的锁,否则一个订阅方的redis往返阻塞所有订阅方的重试
+     */
+    @Test(timeout = 30000)
+    public void releaseDoesNotWaitForConsumerLock() throws Exception {
+        String topic = "ack-release-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AckConsumer busy = new AckConsumer(topic, "busy", TopicEngine.MEMORY);
+        AckConsumer other = new AckConsumer(topic, "other", TopicEngine.MEMORY);
+        busy.setRetryPolicy(retryPolicy(5, 100));
+        other.setRetryPolicy(retryPolicy(5, 200));
+        busy.poll(10);
+        other.poll(10);
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m1"));
+        AckConsumer.Delivery busyDelivery = busy.poll(10).get(0);
+        AckConsumer.Delivery otherDelivery = other.poll(10).get(0);
+
+        busy.retry(busyDelivery);
+        other.retry(otherDelivery);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch unlock = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            busy.lock.lock();
+            try {
+                locked.countDown();
+                unlock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                busy.lock.unlock();
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            // busy的重试先到期,other的重试不能被阻塞
+            long deadline = System.currentTimeMillis() + 5000;
+            List<AckConsumer.Delivery> redelivered;
+            do {
+                Thread.sleep(20);
+                redelivered = other.poll(10);
+            } while (redelivered.isEmpty() && System.currentTimeMillis() < deadline);
+            assertFalse("retry timer blocked by another consumer's lock", redelivered.isEmpty());
+            assertEquals(2, redelivered.get(0).getAttempts());
+        } finally {
+            unlock.countDown();
+            holder.join();
+        }
+        assertEquals(2, busy.poll(10).get(0).getAttempts());
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSenderTest {
+
+    @Test
+    public void sendsBatchesWithContiguousIds() throws Exception {
+        MemoryQueueStorage storage = MemoryQueueStorage.of("async-batch-" + System.nanoTime());
+        AsyncSender sender = new AsyncSender(storage, "async-batch", 16, 50, 1 << 20, 1000);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            futures.add(sender.send(new byte[]{(byte) i}, 0));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(40, storage.size());
+        assertEquals(39, storage.range(40, 1).get(0)[0]);
+        sender.close();
+    }
+
+    /**
+     * 关闭与发送并发时,每条消息的结果都必须完成(发送成功或"sender closed")
+     */
+    @Test(timeout = 60000)
+    public void everyFutureCompletesWhenClosingConcurrently() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            MemoryQueueStorage storage = MemoryQueueStorage.of("async-close-" + round + "-" + System.nanoTime());
+            AsyncSender sender = new AsyncSender(storage, "async-close", 8, 1, 1 << 20, 1000);
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            CountDownLatch started = new CountDownLatch(4);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 200; i++) {
+                        CompletableFuture<Long> future = sender.send(new byte[]{1}, 0);
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            started.await();
+            sender.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long sent = 0;
+            for (CompletableFuture<Long> future : futures) {
+                assertTrue("future never completed", awaitDone(future));
+                if (!future.isCompletedExceptionally()) {
+                    sent++;
+                }
+            }
+            assertEquals(800, futures.size());
+            assertEquals(storage.size(), sent);
+        }
+    }
+
+    private static boolean awaitDone(CompletableFuture<Long> future) {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return future.isDone();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,154 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionCodecTest {
+
+    static final Codec<byte[]> RAW = new Codec<byte[]>() {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    static byte[] repetitive(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + i % 7);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void roundTripAboveAndBelowThreshold() {
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor(), 1024);
+        byte[] small = repetitive(100);
+        assertArrayEquals(small, codec.encode(small));
+        assertArrayEquals(small, codec.decode(codec.encode(small)));
+
+        byte[] large = repetitive(64 * 1024);
+        byte[] encoded = codec.encode(large);
+        assertEquals(CompressionCodec.COMPRESSED_MARKER, encoded[0]);
+        assertTrue(encoded.length < large.length);
+        assertArrayEquals(large, codec.decode(encoded));
+        assertEquals(1, codec.metrics().getCompressed());
+        assertEquals(1, codec.metrics().getDecompressed());
+    }
+
+    /**
+     * 生产方构造使用默认阈值压缩,只解压的构造不压缩
+     */
+    @Test
+    public void defaultThreshold() {
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor());
+        byte[] below = repetitive(CompressionCodec.DEFAULT_THRESHOLD - 1);
+        byte[] atThreshold = repetitive(CompressionCodec.DEFAULT_THRESHOLD);
+        assertArrayEquals(below, codec.encode(below));
+        assertEquals(CompressionCodec.COMPRESSED_MARKER, codec.encode(atThreshold)[0]);
+        assertArrayEquals(atThreshold, new CompressionCodec<>(RAW).encode(atThreshold));
+    }
+
+    @Test
+    public void messagesRoundTrip() {
+        CompressionCodec<RedisMessageModel> codec = new CompressionCodec<>(MessageCodec.BINARY, new DeflateCompressor(), 64);
+        RedisMessageModel message = MessageCodecTest.message(new String(repetitive(4096), StandardCharsets.UTF_8));
+        byte[] encoded = codec.encode(message);
+        assertEquals(CompressionCodec.COMPRESSED_MARKER, encoded[0]);
+        MessageCodecTest.assertSameMessage(message, codec.decode(encoded));
+        // 未压缩的消息原样解码
+        MessageCodecTest.assertSameMessage(message, codec.decode(MessageCodec.BINARY.encode(message)));
+    }
+
+    @Test
+    public void incompressibleDataIsStoredAsIs() {
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor(), 16);
+        byte[] random = new byte[4096];
+        new java.util.Random(1).nextBytes(random);
+        random[0] = 0;
+        assertArrayEquals(random, codec.encode(random));
+        assertEquals(1, codec.metrics().getIncompressible());
+    }
+
+    /**
+     * 消息头中的原始长度不可信,过大或为负时不分配内存直接失败
+     */
+    @Test
+    public void corruptOriginalLengthIsRejected() {
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor(), 1024);
+        byte[] encoded = codec.encode(repetitive(8192));
+        assertThrows(codec, withLength(encoded, Integer.MAX_VALUE));
+        assertThrows(codec, withLength(encoded, -1));
+        assertThrows(codec, withLength(encoded, 0));
+        // 不超过上限但远大于压缩数据可能解压出的长度
+        assertThrows(codec, withLength(encoded, CompressionCodec.MAX_ORIGINAL_LENGTH));
+        assertThrows(codec, withLength(encoded, 8191));
+    }
+
+    @Test
+    public void deflateRejectsLengthBeyondMaximumRatio() {
+        try {
+            new DeflateCompressor().decompress(new byte[10], 0, 10, 100 * 1024 * 1024);
+            fail("accepted impossible original length");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedOrUnknownDataIsRejected() {
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor(), 1024);
+        byte[] encoded = codec.encode(repetitive(8192));
+        assertThrows(codec, Arrays.copyOf(encoded, encoded.length / 2));
+        byte[] unknown = encoded.clone();
+        unknown[1] = (byte) 0xEE;
+        assertThrows(codec, unknown);
+        byte[] corrupt = encoded.clone();
+        for (int i = 6; i < corrupt.length; i++) {
+            corrupt[i] ^= 0x5A;
+        }
+        assertThrows(codec, corrupt);
+    }
+
+    /**
+     * 各实例的统计同时累加到全局埋点,订阅方内部的默认解码也可查看
+     */
+    @Test
+    public void metricsAreRegisteredWithInstrumentation() {
+        long compressed = Instrumentation.counter("codec.compressed").sum();
+        long decompressions = Instrumentation.histogram("codec.decompress").snapshot().getCount();
+        CompressionCodec<byte[]> codec = new CompressionCodec<>(RAW, new DeflateCompressor(), 1024);
+        codec.decode(codec.encode(repetitive(8192)));
+        new CompressionCodec<>(RAW).decode(codec.encode(repetitive(8192)));
+        assertEquals(2, Instrumentation.counter("codec.compressed").sum() - compressed);
+        assertEquals(2, Instrumentation.histogram("codec.decompress").snapshot().getCount() - decompressions);
+        assertNotEquals(0, Instrumentation.counter("codec.originalBytes").sum());
+    }
+
+    private static byte[] withLength(byte[] encoded, int originalLength) {
+        byte[] bytes = encoded.clone();
+        bytes[2] = (byte) (originalLength >>> 24);
+        bytes[3] = (byte) (originalLength >>> 16);
+        bytes[4] = (byte) (originalLength >>> 8);
+        bytes[5] = (byte) originalLength;
+        return bytes;
+    }
+
+    private static void assertThrows(CompressionCodec<byte[]> codec, byte[] bytes) {
+        try {
+            byte[] decoded = codec.decode(bytes);
+            fail("decoded malformed input of " + decoded.length + " bytes");
+        } catch (RuntimeException expected) {
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+public class ConsumerContainerTest {
+
+    /**
+     * 读取失败后按退避时间重试,不能挂起等待下一次发布通知
+     */
+    @Test(timeout = 30000)
+    public void pollFailureRetriesWithoutPublish() throws Exception {
+        String topic = "container-failure-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AtomicInteger failures = new AtomicInteger(2);
+        Consumer consumer = new Consumer(topic, "s", TopicEngine.MEMORY) {
+            @Override
+            protected List<RedisMessageModel> poll(int maxMessages) {
+                if (failures.getAndDecrement() > 0) {
+                    return null;
+                }
+                return super.poll(maxMessages);
+            }
+        };
+        consumer.consume(1);
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m1"));
+
+        CountDownLatch handled = new CountDownLatch(1);
+        ConsumerContainer container = new ConsumerContainer(1, false);
+        container.subscribe(consumer, message -> handled.countDown());
+        try {
+            assertTrue(handled.await(3, TimeUnit.SECONDS));
+        } finally {
+            container.shutdown(1000);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConsumerTest {
+
+    /**
+     * 读取失败不能当作没有消息等待发布通知,否则已积压的消息要等到下次发布才被读取
+     */
+    @Test(timeout = 30000)
+    public void pollFailureRetriesWithoutPublish() {
+        String topic = "consumer-failure-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        AtomicInteger failures = new AtomicInteger(2);
+        Consumer consumer = new Consumer(topic, "s", TopicEngine.MEMORY) {
+            @Override
+            protected List<RedisMessageModel> poll(int maxMessages) {
+                if (failures.getAndDecrement() > 0) {
+                    POLL_ERRORS.increment();
+                    return null;
+                }
+                return super.poll(maxMessages);
+            }
+        };
+        consumer.consume(1);
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m1"));
+
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        long start = System.currentTimeMillis();
+        consumer.consume(message -> handled.add(message.getContent()), 3000);
+        assertEquals(Collections.singletonList("m1"), handled);
+        // 两次退避(100+200毫秒)后读取到消息,之后空闲3秒返回
+        assertEquals(3300, System.currentTimeMillis() - start, 1000);
+    }
+
+    /**
+     * 读取最后一条消息时无法解码的消息返回null,不抛出解码异常
+     */
+    @Test
+    public void readReturnsNullForUndecodableMessage() {
+        String topic = "consumer-read-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        Consumer consumer = new Consumer(topic, "s", TopicEngine.MEMORY);
+        consumer.consume(1);
+        ParallelConsumerTest.publish(storage, "{not json".getBytes(StandardCharsets.UTF_8));
+        long decodeErrors = Consumer.DECODE_ERRORS.sum();
+        assertNull(consumer.read());
+        assertEquals(1, Consumer.DECODE_ERRORS.sum() - decodeErrors);
+    }
+}
@@ -0,0 +1,152 @@
+import org.junit.Test;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryQueueStorageTest {
+    private static final byte[] MESSAGE = {1};
+
+    @Test
+    public void rangeReturnsPublishedMessagesInOrder() {
+        MemoryQueueStorage storage = MemoryQueueStorage.of("memory-order-" + System.nanoTime(), 8);
+        for (int i = 1; i <= 5; i++) {
+            storage.append(Collections.singletonList(new byte[]{(byte) i}), 0);
+        }
+        List<byte[]> values = storage.range(2, 10);
+        assertEquals(4, values.size());
+        assertEquals(2, values.get(0)[0]);
+        assertEquals(5, values.get(3)[0]);
+    }
+
+    @Test
+    public void overwrittenMessagesAreExpired() {
+        MemoryQueueStorage storage = MemoryQueueStorage.of("memory-overwrite-" + System.nanoTime(), 4);
+        for (int i = 1; i <= 10; i++) {
+            storage.append(Collections.singletonList(new byte[]{(byte) i}), 0);
+        }
+        List<byte[]> values = storage.range(5, 6);
+        assertEquals(6, values.size());
+        assertNull(values.get(0));
+        assertNull(values.get(1));
+        assertEquals(7, values.get(2)[0]);
+        assertEquals(10, values.get(5)[0]);
+    }
+
+    /**
+     * 生产方写入槽位时被挂起,缓冲区回绕后的下一轮消息写入同一槽位,先预留的生产方不能把槽位序号改回旧值
+     */
+    @Test(timeout = 10000)
+    public void slowWriterDoesNotOverwriteNewerLap() throws Exception {
+        MemoryQueueStorage storage = MemoryQueueStorage.of("memory-lap-" + System.nanoTime(), 2);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        // 读取消息内容时挂起,此时id 1已预留
+        List<byte[]> slow = new AbstractList<byte[]>() {
+            @Override
+            public byte[] get(int index) {
+                writing.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new byte[]{1};
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        Thread slowWriter = new Thread(() -> storage.append(slow, 0));
+        slowWriter.start();
+        writing.await();
+        // id 2, 3, 其中id 3与id 1使用同一槽位
+        Thread fastWriter = new Thread(() -> storage.append(Arrays.asList(new byte[]{2}, new byte[]{3}), 0));
+        fastWriter.start();
+        fastWriter.join(200);
+        resume.countDown();
+        slowWriter.join();
+        fastWriter.join();
+
+        assertEquals(3, storage.size());
+        List<byte[]> values = storage.range(1, 3);
+        assertEquals(3, values.size());
+        assertNull(values.get(0));
+        assertEquals(2, values.get(1)[0]);
+        assertEquals(3, values.get(2)[0]);
+    }
+
+    /**
+     * 容量很小时多个生产方写入同一槽位的不同轮次,订阅方必须能读到最后一条消息,不能卡在"已预留未写入"
+     */
+    @Test(timeout = 60000)
+    public void concurrentWritersAcrossWraparoundNeverStallReaders() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            MemoryQueueStorage storage = MemoryQueueStorage.of("memory-wrap-" + round + "-" + System.nanoTime(), 2);
+            int writers = 8;
+            int perWriter = 2000;
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perWriter; i++) {
+                        storage.append(i % 3 == 0 ? Arrays.asList(MESSAGE, MESSAGE, MESSAGE)
+                            : Collections.singletonList(MESSAGE), 0);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            long[] read = {0};
+            Thread reader = new Thread(() -> {
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+                while (System.currentTimeMillis() < deadline) {
+                    long size = storage.size();
+                    boolean done = threads.stream().noneMatch(Thread::isAlive);
+                    if (done && read[0] == storage.size()) {
+                        return;
+                    }
+                    int count = (int) Math.min(size - read[0], 64);
+                    if (count > 0) {
+                        read[0] += storage.range(read[0] + 1, count).size();
+                    }
+                }
+            });
+            reader.start();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            reader.join();
+
+            long size = storage.size();
+            long expected = 0;
+            for (int i = 0; i < perWriter; i++) {
+                expected += i % 3 == 0 ? 3 : 1;
+            }
+            assertEquals(writers * expected, size);
+            assertEquals("reader stalled at " + read[0], size, read[0]);
+            List<byte[]> last = storage.range(size - 1, 2);
+            assertEquals(2, last.size());
+            assertNotNull(last.get(0));
+            assertNotNull(last.get(1));
+            assertTrue(storage.range(size + 1, 1).isEmpty());
+        }
+    }
+}
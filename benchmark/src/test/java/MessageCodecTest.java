@@ -0,0 +1,154 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageCodecTest {
+
+    static RedisMessageModel message(String content) {
+        RedisMessageModel message = new RedisMessageModel();
+        message.setId(42);
+        message.setCreateTime(new Date(1500000000123L));
+        message.setUpdateTime(new Date(1500000000456L));
+        message.setContent(content);
+        message.setTopic("topic");
+        message.setExtraInfo("key-1");
+        return message;
+    }
+
+    static void assertSameMessage(RedisMessageModel expected, RedisMessageModel actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getCreateTime(), actual.getCreateTime());
+        assertEquals(expected.getUpdateTime(), actual.getUpdateTime());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getTopic(), actual.getTopic());
+        assertEquals(expected.getExtraInfo(), actual.getExtraInfo());
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        RedisMessageModel message = message("ascii é 中文 😀");
+        assertSameMessage(message, MessageCodec.BINARY.decode(MessageCodec.BINARY.encode(message)));
+    }
+
+    @Test
+    public void binaryRoundTripWithNullFields() {
+        RedisMessageModel message = new RedisMessageModel();
+        message.setContent("");
+        RedisMessageModel decoded = MessageCodec.BINARY.decode(MessageCodec.BINARY.encode(message));
+        assertEquals("", decoded.getContent());
+        assertNull(decoded.getId());
+        assertNull(decoded.getCreateTime());
+        assertNull(decoded.getTopic());
+    }
+
+    @Test
+    public void longContentUsesMultiByteLength() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            content.append((char) ('a' + i % 26));
+        }
+        RedisMessageModel message = message(content.toString());
+        assertSameMessage(message, MessageCodec.BINARY.decode(MessageCodec.BINARY.encode(message)));
+    }
+
+    @Test
+    public void unpairedSurrogateEncodedAsQuestionMark() {
+        RedisMessageModel message = message("a\uD83Db");
+        assertEquals("a?b", MessageCodec.BINARY.decode(MessageCodec.BINARY.encode(message)).getContent());
+        assertEquals("a?b", MessageCodec.BINARY.decode(MessageCodec.JSON_TEXT.encode(message)).getContent());
+    }
+
+    /**
+     * 新版本订阅方能读取JSON编码(旧版本生产方和默认生产方)的消息
+     */
+    @Test
+    public void decodesJson() {
+        RedisMessageModel message = message("json");
+        assertSameMessage(message, MessageCodec.BINARY.decode(MessageCodec.JSON_TEXT.encode(message)));
+        assertSameMessage(message, new CompressionCodec<>(MessageCodec.BINARY).decode(MessageCodec.JSON_TEXT.encode(message)));
+    }
+
+    @Test
+    public void producerDefaultsToJson() throws Exception {
+        String topic = "codec-default-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        new Producer(topic, TopicEngine.MEMORY).publish(message("default"));
+        byte[] value = storage.range(storage.size(), 1).get(0);
+        assertEquals('{', value[0]);
+    }
+
+    @Test
+    public void emptyInputDecodesToNull() {
+        assertNull(MessageCodec.BINARY.decode(null));
+        assertNull(MessageCodec.BINARY.decode(new byte[0]));
+    }
+
+    @Test
+    public void malformedInputThrows() {
+        byte[] encoded = MessageCodec.BINARY.encode(message("truncated content"));
+        assertThrows(Arrays.copyOf(encoded, encoded.length - 5));
+        assertThrows(new byte[]{MessageCodec.BINARY_MARKER});
+        assertThrows("{\"content\":".getBytes(StandardCharsets.UTF_8));
+        assertThrows("not json".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 主题中的java序列化数据不能被反序列化
+     */
+    @Test
+    public void javaSerializedPayloadIsNotDeserialized() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message("serialized"));
+        }
+        assertEquals((byte) 0xAC, bytes.toByteArray()[0]);
+        assertThrows(bytes.toByteArray());
+    }
+
+    /**
+     * 同一批中无法解码的消息被跳过,其他消息正常返回
+     */
+    @Test
+    public void consumerSkipsUndecodableMessages() {
+        String topic = "codec-poison-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        Consumer consumer = new Consumer(topic, "s", TopicEngine.MEMORY);
+        consumer.unreadMessages();
+        long decodeErrors = Consumer.DECODE_ERRORS.sum();
+        storage.append(Collections.singletonList(MessageCodec.BINARY.encode(message("m1"))), 0);
+        storage.append(Collections.singletonList(new byte[]{MessageCodec.BINARY_MARKER, 1 << 3, 0x7F}), 0);
+        storage.append(Collections.singletonList("{broken".getBytes(StandardCharsets.UTF_8)), 0);
+        storage.append(Collections.singletonList(MessageCodec.JSON_TEXT.encode(message("m4"))), 0);
+
+        List<RedisMessageModel> messages = consumer.consume(10);
+        assertEquals(2, messages.size());
+        assertEquals("m1", messages.get(0).getContent());
+        assertEquals("m4", messages.get(1).getContent());
+        assertEquals(2, Consumer.DECODE_ERRORS.sum() - decodeErrors);
+        assertTrue(consumer.consume(10).isEmpty());
+
+        // 整批都无法解码时继续读取后续消息
+        storage.append(Collections.singletonList("{broken".getBytes(StandardCharsets.UTF_8)), 0);
+        storage.append(Collections.singletonList(MessageCodec.BINARY.encode(message("m6"))), 0);
+        assertEquals("m6", consumer.consume().getContent());
+    }
+
+    private static void assertThrows(byte[] bytes) {
+        try {
+            RedisMessageModel message = MessageCodec.BINARY.decode(bytes);
+            fail("decoded malformed input: " + message);
+        } catch (RuntimeException expected) {
+        }
+    }
+}
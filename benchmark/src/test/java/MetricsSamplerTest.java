@@ -0,0 +1,74 @@
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsSamplerTest {
+
+    /**
+     * 采样不注册订阅方,尚未注册的订阅方不出现在统计中
+     */
+    @Test
+    public void missingSubscriberIsAbsentAndNotInitialized() {
+        String topic = "metrics-absent-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        storage.append(Collections.singletonList(new byte[]{1}), 0);
+        MetricsSampler sampler = new MetricsSampler(1000);
+        sampler.register(topic, TopicEngine.MEMORY, "ghost");
+
+        TopicStats stats = stats(sampler.sample(), topic);
+        assertEquals(1, stats.getSize());
+        assertTrue(stats.getSubscribers().isEmpty());
+        assertNull(storage.peekOffset("ghost"));
+
+        storage.offset("ghost");
+        storage.append(Collections.singletonList(new byte[]{2}), 0);
+        stats = stats(sampler.sample(), topic);
+        assertEquals(1, stats.getSubscribers().size());
+        assertEquals("ghost", stats.getSubscribers().get(0).getSubscriber());
+        assertEquals(0, stats.getSubscribers().get(0).getOffset());
+        assertEquals(2, stats.getSubscribers().get(0).getLag());
+    }
+
+    /**
+     * 已不在统计中的订阅方(已注销)的MBean被移除,其他主题的MBean不受影响
+     */
+    @Test
+    public void jmxUnregistersMissingSubscribers() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        JmxMetricsRegistry registry = new JmxMetricsRegistry(server);
+        registry.update(topicStats("t1", "a", "b"));
+        registry.update(topicStats("t2", "a"));
+        assertEquals(3, server.queryNames(new ObjectName("redisMq:type=Subscriber,*"), null).size());
+
+        registry.update(topicStats("t1", "b"));
+        assertEquals(2, server.queryNames(new ObjectName("redisMq:type=Subscriber,*"), null).size());
+        assertTrue(server.isRegistered(new ObjectName("redisMq:type=Subscriber,topic=\"t1\",subscriber=\"b\"")));
+        assertTrue(server.isRegistered(new ObjectName("redisMq:type=Subscriber,topic=\"t2\",subscriber=\"a\"")));
+    }
+
+    private static TopicStats topicStats(String topic, String... subscribers) {
+        List<SubscriberStats> stats = new ArrayList<>();
+        for (String subscriber : subscribers) {
+            stats.add(new SubscriberStats(topic, subscriber, 0, 0, 0, 0));
+        }
+        return new TopicStats(topic, System.currentTimeMillis(), 0, 0, stats);
+    }
+
+    private static TopicStats stats(List<TopicStats> sample, String topic) {
+        for (TopicStats stats : sample) {
+            if (stats.getTopic().equals(topic)) {
+                return stats;
+            }
+        }
+        throw new AssertionError("topic not sampled: " + topic);
+    }
+}
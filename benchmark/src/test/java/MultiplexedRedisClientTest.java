@@ -0,0 +1,66 @@
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiplexedRedisClientTest {
+
+    static byte[][] command(String... args) {
+        byte[][] bytes = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            bytes[i] = SafeEncoder.encode(args[i]);
+        }
+        return bytes;
+    }
+
+    @Test(timeout = 30000)
+    public void pipelinesCommands() throws Exception {
+        try (RespStandInServer server = new RespStandInServer(0, 0)) {
+            MultiplexedRedisClient client = new MultiplexedRedisClient("127.0.0.1", server.getPort(), null, 2000, 2);
+            assertEquals("OK", client.executeAndWait(2000, command("SET", "k", "v")));
+            assertArrayEquals(SafeEncoder.encode("v"), (byte[]) client.executeAndWait(2000, command("GET", "k")));
+            client.close();
+            assertTrue(client.isClosed());
+        }
+    }
+
+    /**
+     * 连接异常只使当前命令失败,IO线程不退出
+     */
+    @Test(timeout = 30000)
+    public void connectFailureDoesNotKillIoThread() throws Exception {
+        MultiplexedRedisClient client = new MultiplexedRedisClient("no-such-host.invalid", 6379, null, 2000, 1);
+        try {
+            client.executeAndWait(2000, command("PING"));
+            fail("connected to unresolvable host");
+        } catch (JedisConnectionException expected) {
+        }
+        Thread.sleep(100);
+        assertFalse(client.isClosed());
+        client.close();
+    }
+
+    /**
+     * 已关闭的客户端不再缓存,下次获取时重新创建
+     */
+    @Test(timeout = 30000)
+    public void redisCacheRecreatesClosedClient() throws Exception {
+        try (RespStandInServer server = new RespStandInServer(0, 0)) {
+            RedisCache config = new RedisCache();
+            config.setADDR("127.0.0.1");
+            config.setPORT(server.getPort());
+            MultiplexedRedisClient dead = RedisCache.getMultiplexedClient();
+            dead.close();
+            MultiplexedRedisClient client = RedisCache.getMultiplexedClient();
+            assertNotSame(dead, client);
+            assertEquals("PONG", client.executeAndWait(2000, command("PING")));
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelConsumerTest {
+
+    static byte[] message(String content) {
+        RedisMessageModel message = new RedisMessageModel();
+        message.setContent(content);
+        return MessageCodec.BINARY.encode(message);
+    }
+
+    /**
+     * 截断的二进制消息
+     */
+    static byte[] truncated() {
+        return new byte[]{MessageCodec.BINARY_MARKER, 1 << 3, 0x7F, 'a'};
+    }
+
+    static void publish(QueueStorage storage, byte[] value) {
+        storage.append(Collections.singletonList(value), 0);
+    }
+
+    @Test(timeout = 30000)
+    public void undecodableMessagesAreSkippedAndCommitted() {
+        String topic = "parallel-poison-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        storage.offset("s");
+        for (int i = 1; i <= 20; i++) {
+            publish(storage, i == 5 ? truncated() : i == 9 ? "{not json".getBytes(StandardCharsets.UTF_8) : message("m" + i));
+        }
+        long decodeErrors = Consumer.DECODE_ERRORS.sum();
+        Set<String> handled = ConcurrentHashMap.newKeySet();
+        ParallelConsumer consumer = new ParallelConsumer(topic, "s", TopicEngine.MEMORY, 4);
+        consumer.setFetchSize(3);
+        consumer.consume(message -> handled.add(message.getContent()), 300);
+
+        assertEquals(18, handled.size());
+        assertTrue(handled.contains("m20"));
+        assertEquals(20, (long) storage.offset("s"));
+        assertEquals(2, Consumer.DECODE_ERRORS.sum() - decodeErrors);
+    }
+
+    /**
+     * 其他客户端修改订阅方索引后,从新的索引继续读取,不能把索引改回已分发的位置
+     */
+    @Test(timeout = 30000)
+    public void commitConflictResyncsFromStoredOffset() {
+        String topic = "parallel-conflict-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.MEMORY.createStorage(topic);
+        storage.offset("s");
+        for (int i = 1; i <= 60; i++) {
+            publish(storage, message("m" + i));
+        }
+        List<String> handled = Collections.synchronizedList(new ArrayList<>());
+        List<Long> offsets = Collections.synchronizedList(new ArrayList<>());
+        ParallelConsumer consumer = new ParallelConsumer(topic, "s", TopicEngine.MEMORY, 1);
+        consumer.setFetchSize(5);
+        // 限制已分发的消息数,修改索引时m30还未分发
+        consumer.setMaxInFlight(5);
+        consumer.consume(message -> {
+            handled.add(message.getContent());
+            if (message.getContent().equals("m3")) {
+                long offset;
+                do {
+                    offset = storage.offset("s");
+                } while (!storage.commit("s", offset, 50));
+            }
+            offsets.add(storage.offset("s"));
+        }, 300);
+
+        assertEquals(60, (long) storage.offset("s"));
+        assertFalse(handled.contains("m30"));
+        for (int i = 51; i <= 60; i++) {
+            assertTrue(handled.contains("m" + i));
+        }
+        int jumped = handled.indexOf("m3");
+        for (int i = jumped; i < offsets.size(); i++) {
+            assertTrue("offset moved backwards: " + offsets, offsets.get(i) >= 50);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedConsumerTest {
+
+    /**
+     * 实例数多于分区数时分配不到分区的实例读取不到消息,不能抛出异常
+     */
+    @Test
+    public void memberWithoutPartitionsReadsNothing() {
+        int[] partitions = PartitionedConsumer.assign(2, 3, 2);
+        assertEquals(0, partitions.length);
+        PartitionedConsumer consumer = new PartitionedConsumer("partitioned-empty-" + System.nanoTime(), "s",
+            TopicEngine.MEMORY, partitions);
+        assertTrue(consumer.consume(10).isEmpty());
+        assertNull(consumer.consume());
+        assertEquals(0, consumer.unreadMessages());
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetchBufferTest {
+
+    /**
+     * 提交索引不持有缓冲区的锁,redis往返期间后台线程继续预读
+     */
+    @Test(timeout = 30000)
+    public void prefetchContinuesWhileCommitting() throws Exception {
+        String topic = "prefetch-commit-" + System.nanoTime();
+        QueueStorage memory = TopicEngine.MEMORY.createStorage(topic);
+        ParallelConsumerTest.publish(memory, ParallelConsumerTest.message("m1"));
+        assertEquals(0, (long) memory.offset("s"));
+        for (int i = 2; i <= 4; i++) {
+            ParallelConsumerTest.publish(memory, ParallelConsumerTest.message("m" + i));
+        }
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueueStorage storage = new BlockingCommitStorage(memory, committing, release);
+        PrefetchBuffer buffer = new PrefetchBuffer(storage, "s", 2, 0);
+        try {
+            buffer.await(0, 5000);
+            long sequence = buffer.sequence();
+            assertEquals(1, sequence);
+            AtomicReference<List<byte[]>> taken = new AtomicReference<>();
+            Thread taker = new Thread(() -> taken.set(buffer.take(2)));
+            taker.start();
+            assertTrue(committing.await(5, TimeUnit.SECONDS));
+            // 取出后缓冲区为空,提交未完成时后台线程预读后续两条消息
+            buffer.await(sequence, 5000);
+            assertTrue("prefetch blocked by commit", buffer.sequence() > sequence);
+            release.countDown();
+            taker.join();
+            assertEquals(2, taken.get().size());
+            assertEquals("m1", MessageCodec.BINARY.decode(taken.get().get(0)).getContent());
+
+            List<byte[]> values = buffer.take(2);
+            assertEquals(2, values.size());
+            assertEquals("m3", MessageCodec.BINARY.decode(values.get(0)).getContent());
+            assertEquals(4, (long) memory.offset("s"));
+        } finally {
+            release.countDown();
+            buffer.close();
+        }
+    }
+
+    /**
+     * 第一次提交阻塞直到release
+     */
+    private static class BlockingCommitStorage implements QueueStorage {
+        private final QueueStorage storage;
+        private final CountDownLatch committing;
+        private final CountDownLatch release;
+
+        BlockingCommitStorage(QueueStorage storage, CountDownLatch committing, CountDownLatch release) {
+            this.storage = storage;
+            this.committing = committing;
+            this.release = release;
+        }
+
+        @Override
+        public Long append(List<byte[]> messages, int seconds) {
+            return storage.append(messages, seconds);
+        }
+
+        @Override
+        public long size() {
+            return storage.size();
+        }
+
+        @Override
+        public List<byte[]> range(long from, int count) {
+            return storage.range(from, count);
+        }
+
+        @Override
+        public Long offset(String subscriber) {
+            return storage.offset(subscriber);
+        }
+
+        @Override
+        public Long peekOffset(String subscriber) {
+            return storage.peekOffset(subscriber);
+        }
+
+        @Override
+        public boolean commit(String subscriber, long expected, long update) {
+            committing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return storage.commit(subscriber, expected, update);
+        }
+
+        @Override
+        public long publishSequence() {
+            return storage.publishSequence();
+        }
+
+        @Override
+        public void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+            storage.awaitPublish(sequence, timeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedisCacheTest {
+    @BeforeClass
+    public static void startServer() throws Exception {
+        TestRedis.start();
+    }
+
+    /**
+     * 连接池操作按发送的命令数记录redis往返,设置过期时间的SET只发送一个SETEX
+     */
+    @Test
+    public void roundTripsCountCommandsSent() {
+        String key = "round-trips-" + System.nanoTime();
+        long roundTrips = Instrumentation.roundTrips();
+        assertEquals("OK", RedisCache.set("redisMq", "test", key, "v", 60));
+        assertEquals(1, Instrumentation.roundTrips() - roundTrips);
+        assertEquals("v", RedisCache.get("redisMq", "test", key));
+        assertEquals(2, Instrumentation.roundTrips() - roundTrips);
+        // HSET之后单独设置过期时间
+        RedisCache.hset("redisMq", "test", key + "-hash", "f", "v", 60);
+        assertEquals(4, Instrumentation.roundTrips() - roundTrips);
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RedisQueueTest {
+    @BeforeClass
+    public static void startServer() throws Exception {
+        TestRedis.start();
+    }
+
+    @Test
+    public void standaloneKeysHaveNoHashTag() {
+        RedisQueue queue = new RedisQueue("hash-tag", Producer.TOPIC_COUNT_CACHETYPE);
+        assertTrue(queue.fullKey().startsWith("redisMq:hash-tag:"));
+    }
+
+    /**
+     * 主题名中的glob特殊字符原样匹配,不能遍历到其他主题的key
+     */
+    @Test
+    public void scanKeysEscapesGlobCharacters() {
+        String suffix = "-" + System.nanoTime();
+        String topic = "scan*?[x]\\" + suffix;
+        new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, "s").set("1", 0);
+        new RedisQueue("scanother?x]\\" + suffix, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, "s").set("1", 0);
+        new RedisQueue("scan*-x]\\" + suffix, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, "s").set("1", 0);
+
+        RedisQueue queue = new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE);
+        assertEquals(Collections.singletonList(queue.keyPrefix() + "s"), queue.scanKeys());
+    }
+
+    /**
+     * 已生成key之后不能切换到集群模式,否则已创建的存储和新创建的存储使用不同的key
+     */
+    @Test
+    public void clusterModeCannotChangeAfterKeysAreCreated() {
+        new RedisQueue("cluster-switch", Producer.TOPIC_COUNT_CACHETYPE);
+        RedisCache config = new RedisCache();
+        try {
+            config.setClusterNodes("127.0.0.1:7000,127.0.0.1:7001");
+            fail("switched to cluster mode after keys were created");
+        } catch (IllegalStateException expected) {
+        }
+        assertFalse(RedisCache.isCluster());
+        // 不改变模式的配置更新仍然允许
+        config.setClusterNodes(" ");
+        assertFalse(RedisCache.isCluster());
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RedisStreamQueueStorageTest {
+    @BeforeClass
+    public static void startServer() throws Exception {
+        TestRedis.start();
+    }
+
+    private static List<String> contents(List<byte[]> values) {
+        List<String> contents = new ArrayList<>();
+        for (byte[] value : values) {
+            contents.add(MessageCodec.BINARY.decode(value).getContent());
+        }
+        return contents;
+    }
+
+    private static byte[] streamKey(String topic) {
+        return new RedisQueue(topic, RedisStreamQueueStorage.TOPIC_STREAM_CACHETYPE).fullKeyBytes();
+    }
+
+    /**
+     * 消费组的字段值,XINFO GROUPS的回复为 字段,值 交替排列
+     */
+    @SuppressWarnings("unchecked")
+    private static Object groupInfo(String topic, String group, String field) throws Exception {
+        byte[] key = streamKey(topic);
+        for (Object info : (List<Object>) RedisCache.sendCommand(key, SafeEncoder.encode("XINFO"), SafeEncoder.encode("GROUPS"), key)) {
+            List<Object> fields = (List<Object>) info;
+            if (group.equals(SafeEncoder.encode((byte[]) fields.get(1)))) {
+                for (int i = 0; i < fields.size(); i += 2) {
+                    if (field.equals(SafeEncoder.encode((byte[]) fields.get(i)))) {
+                        return fields.get(i + 1);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test(timeout = 30000)
+    public void pollReadsAndAcksThroughConsumerGroup() throws Exception {
+        String topic = "stream-poll-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.STREAM.createStorage(topic);
+        assertEquals(0, (long) storage.offset("s"));
+        for (int i = 1; i <= 5; i++) {
+            ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m" + i));
+        }
+        assertEquals(Arrays.asList("m1", "m2", "m3"), contents(storage.poll("s", 3)));
+        assertEquals(Arrays.asList("m4", "m5"), contents(storage.poll("s", 3)));
+        assertTrue(storage.poll("s", 3).isEmpty());
+        assertEquals(5, (long) storage.offset("s"));
+        assertEquals(5, (long) storage.peekOffset("s"));
+        assertEquals(0L, groupInfo(topic, "s", "pending"));
+    }
+
+    /**
+     * 新订阅方第一次读取时创建消费组,只读取最后一条消息
+     */
+    @Test(timeout = 30000)
+    public void pollCreatesGroupForNewSubscriber() {
+        String topic = "stream-new-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.STREAM.createStorage(topic);
+        for (int i = 1; i <= 3; i++) {
+            ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m" + i));
+        }
+        assertNull(storage.peekOffset("s"));
+        assertEquals(Collections.singletonList("m3"), contents(storage.poll("s", 10)));
+        assertEquals(3, (long) storage.peekOffset("s"));
+    }
+
+    /**
+     * 停止读取的消费组不阻止裁剪,恢复后从保留的消息继续读取
+     */
+    @Test(timeout = 30000)
+    public void stalledGroupDoesNotPinStream() throws Exception {
+        String topic = "stream-trim-" + System.nanoTime();
+        RedisStreamQueueStorage storage = new RedisStreamQueueStorage(topic);
+        storage.setMaxLen(5);
+        storage.offset("slow");
+        for (int i = 1; i <= 20; i++) {
+            ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m" + i));
+        }
+        byte[] key = streamKey(topic);
+        assertEquals(5L, RedisCache.sendCommand(key, SafeEncoder.encode("XLEN"), key));
+        List<byte[]> values = storage.range(1, 20);
+        for (int i = 0; i < 15; i++) {
+            assertNull("message " + (i + 1), values.get(i));
+        }
+        assertNotNull(values.get(15));
+        assertEquals(Arrays.asList("m16", "m17", "m18", "m19", "m20"), contents(storage.poll("slow", 100)));
+    }
+
+    @Test(timeout = 30000)
+    public void appendExpiresStream() throws Exception {
+        String topic = "stream-expire-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.STREAM.createStorage(topic);
+        byte[] key = streamKey(topic);
+        ParallelConsumerTest.publish(storage, ParallelConsumerTest.message("m1"));
+        assertEquals(-1L, RedisCache.sendCommand(key, SafeEncoder.encode("TTL"), key));
+        storage.append(Collections.singletonList(ParallelConsumerTest.message("m2")), 100);
+        long ttl = (Long) RedisCache.sendCommand(key, SafeEncoder.encode("TTL"), key);
+        assertTrue("ttl " + ttl, ttl > 0 && ttl <= 100);
+    }
+
+    /**
+     * 读取失败时订阅方索引返回null,读取返回null
+     */
+    @Test(timeout = 30000)
+    public void offsetIsNullOnError() {
+        String topic = "stream-error-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.STREAM.createStorage(topic);
+        new RedisQueue(topic, RedisStreamQueueStorage.TOPIC_STREAM_CACHETYPE).set("not a stream", 0);
+        assertNull(storage.offset("s"));
+        assertNull(storage.poll("s", 10));
+        assertNull(storage.range(1, 10));
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RetentionManagerTest {
+    @BeforeClass
+    public static void startServer() throws Exception {
+        TestRedis.start();
+    }
+
+    static void publish(String topic, TopicEngine engine, int count) {
+        Producer producer = new Producer(topic, engine);
+        for (int i = 1; i <= count; i++) {
+            RedisMessageModel message = new RedisMessageModel();
+            message.setContent("m" + i);
+            producer.publish(message, 0);
+        }
+    }
+
+    /**
+     * 只有订阅方索引、不在有序集合中的订阅方(升级前注册)未读取的消息不能被删除
+     */
+    @Test(timeout = 30000)
+    public void keepsMessagesOfSubscriberMissingFromOffsets() {
+        for (TopicEngine engine : new TopicEngine[]{TopicEngine.STRING, TopicEngine.HASH}) {
+            String topic = "retention-legacy-" + engine + "-" + System.nanoTime();
+            QueueStorage storage = engine.createStorage(topic);
+            storage.offset("current");
+            publish(topic, engine, 10);
+            new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, "legacy").set("3", 0);
+            assertEquals(10, new Consumer(topic, "current", engine).consume(100).size());
+
+            RetentionManager retention = new RetentionManager(0, 1000);
+            retention.register(topic, engine);
+            assertEquals(3, retention.compact());
+            List<byte[]> values = storage.range(1, 10);
+            for (int i = 0; i < 3; i++) {
+                assertNull(engine + " message " + (i + 1), values.get(i));
+            }
+            for (int i = 3; i < 10; i++) {
+                assertNotNull(engine + " message " + (i + 1), values.get(i));
+            }
+
+            // 补齐后按有序集合中的索引整理
+            assertEquals(7, new Consumer(topic, "legacy", engine).consume(100).size());
+            assertEquals(7, retention.compact());
+        }
+    }
+
+    /**
+     * 事务读取时订阅方索引有序集合与订阅方索引同时更新
+     */
+    @Test(timeout = 30000)
+    public void pollUpdatesOffsetsInTransaction() {
+        String topic = "retention-poll-" + System.nanoTime();
+        QueueStorage storage = TopicEngine.STRING.createStorage(topic);
+        storage.offset("s");
+        publish(topic, TopicEngine.STRING, 5);
+        assertEquals(5, storage.poll("s", 3).size() + storage.poll("s", 3).size());
+        RedisQueue offsets = new RedisQueue(topic, RetentionManager.TOPIC_OFFSETS_CACHETYPE);
+        assertEquals(5, offsets.zscore("s"), 0);
+    }
+}
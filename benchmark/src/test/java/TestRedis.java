@@ -0,0 +1,20 @@
+/**
+ * 测试共用的redis替身.RedisCache的连接池在首次使用时按ADDR/PORT创建,之后不再改变,
+ * 同一JVM中的测试类需使用同一个服务,服务随JVM退出
+ */
+final class TestRedis {
+    private static RespStandInServer server;
+
+    private TestRedis() {
+    }
+
+    static synchronized void start() throws Exception {
+        if (server != null) {
+            return;
+        }
+        server = new RespStandInServer(0, 0);
+        RedisCache config = new RedisCache();
+        config.setADDR("127.0.0.1");
+        config.setPORT(server.getPort());
+    }
+}
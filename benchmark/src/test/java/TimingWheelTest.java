@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimingWheelTest {
+
+    @Test(timeout = 30000)
+    public void runsTasksAfterDelayIncludingLaterRounds() throws Exception {
+        TimingWheel wheel = new TimingWheel(5, 8);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.currentTimeMillis();
+        // 120毫秒超过一圈(8格 * 5毫秒)
+        wheel.schedule(() -> { order.add(3); done.countDown(); }, 120);
+        wheel.schedule(() -> { order.add(1); done.countDown(); }, 0);
+        wheel.schedule(() -> { order.add(2); done.countDown(); }, 30);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2, 3), order);
+        assertTrue(System.currentTimeMillis() - start >= 120);
+        wheel.close();
+    }
+
+    /**
+     * 关闭后不能重新启动,否则按新的起始时间和旧的格子计算到期时间
+     */
+    @Test(timeout = 30000)
+    public void closeIsTerminal() throws Exception {
+        TimingWheel wheel = new TimingWheel(5, 8);
+        CountDownLatch ran = new CountDownLatch(1);
+        wheel.schedule(ran::countDown, 0);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        wheel.close();
+        try {
+            wheel.schedule(() -> { }, 0);
+            fail("scheduled on a closed timing wheel");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,458 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 至少一次投递的订阅方
+ * 读取消息不前进订阅方索引,消息确认(ack)后索引只前进到连续已确认的最大id,
+ * 每确认commitBatch条或距上次提交commitIntervalMillis时才提交一次,可靠性不需要每条消息一次redis往返.
+ * 投递后visibilityTimeoutMillis内未确认的消息重新投递;进程崩溃时未提交的消息由新实例从订阅方索引之后重新读取.
+ * 消息可能重复投递,处理需要幂等.同一个订阅方同一时间只能由一个AckConsumer读取,需要水平扩展时使用分区主题.
+ * 设置RetryPolicy后处理失败的消息按指数退避在时间轮上定时重新投递,不阻塞后续消息的处理;
+ * 投递maxAttempts次仍失败时发布到死信主题后确认,未设置死信主题时继续按visibilityTimeoutMillis重新投递.
+ * 状态由ReentrantLock保护(持锁期间有redis往返),虚拟线程等待时不会占用载体线程
+ */
+public class AckConsumer {
+    protected static final LongAdder REDELIVERIES = Instrumentation.counter("consumer.redeliveries");
+    protected static final LongAdder RETRIES = Instrumentation.counter("consumer.retries");
+    protected static final LongAdder DEAD_LETTERS = Instrumentation.counter("consumer.deadLetters");
+    /**
+     * 所有AckConsumer共用的重试定时器,精度10毫秒,一圈约5秒
+     */
+    private static final TimingWheel RETRY_WHEEL = new TimingWheel(10, 512);
+
+    private final QueueStorage storage;
+    private final String subscriber;
+    private final TopicEngine engine;
+    protected final ReentrantLock lock = new ReentrantLock();
+    private Codec<RedisMessageModel> codec = new CompressionCodec<>(MessageCodec.BINARY);
+    /**
+     * 投递后未确认的消息重新投递的时间(毫秒)
+     */
+    private long visibilityTimeoutMillis = 30 * 1000;
+    /**
+     * 连续已确认的消息数达到该值时提交
+     */
+    private int commitBatch = 100;
+    /**
+     * 有已确认未提交的消息时,最长的提交间隔(毫秒)
+     */
+    private long commitIntervalMillis = 1000;
+    /**
+     * 已读取未确认的最大消息数,达到后只重新投递超时的消息
+     */
+    private int maxInFlight = 1000;
+    /**
+     * 处理失败的重试策略,为null时失败的消息按visibilityTimeoutMillis重新投递
+     */
+    private RetryPolicy retryPolicy;
+    /**
+     * 死信主题的生产方,与原主题使用相同的消息格式
+     */
+    private Producer deadLetterProducer;
+
+    /**
+     * 已读取的消息id -> 投递状态,按id排序
+     */
+    private final TreeMap<Long, Delivery> inFlight = new TreeMap<>();
+    /**
+     * 已提交的订阅方索引,首次读取时初始化
+     */
+    private long committed = Long.MIN_VALUE;
+    /**
+     * 连续已确认的最大id
+     */
+    private long acknowledged;
+    /**
+     * 已读取的最大id
+     */
+    private long readPosition;
+    private long lastCommitMillis;
+
+    public AckConsumer(String topic, String subscriber) {
+        this(topic, subscriber, TopicEngine.STRING);
+    }
+
+    public AckConsumer(String topic, String subscriber, TopicEngine engine) {
+        this.storage = engine.createStorage(topic);
+        this.subscriber = subscriber;
+        this.engine = engine;
+    }
+
+    /**
+     * 读取消息,先重新投递超时未确认的消息,再读取新消息
+     * @param maxMessages 最多投递的消息数
+     * @return 投递的消息,没有可投递的消息时返回空列表
+     */
+    public List<Delivery> poll(int maxMessages) {
+        lock.lock();
+        try {
+            return pollLocked(maxMessages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Delivery> pollLocked(int maxMessages) {
+        long now = System.currentTimeMillis();
+        if (committed == Long.MIN_VALUE) {
+            Long offset = storage.offset(subscriber);
+            if (offset == null) {
+                return Collections.emptyList();// 读取订阅方索引失败,下次读取时重试
+            }
+            committed = acknowledged = readPosition = offset;
+            lastCommitMillis = now;
+        }
+        maybeCommit(now);
+        List<Delivery> deliveries = null;
+        for (Delivery delivery : inFlight.values()) {
+            if (deliveries != null && deliveries.size() >= maxMessages) {
+                break;
+            }
+            if (!delivery.acked && !delivery.retrying && delivery.deliveredAt + visibilityTimeoutMillis <= now) {
+                delivery.deliveredAt = now;
+                delivery.attempts++;
+                REDELIVERIES.increment();
+                deliveries = add(deliveries, delivery);
+            }
+        }
+        int remaining = Math.min(maxMessages - (deliveries == null ? 0 : deliveries.size()), maxInFlight - inFlight.size());
+        if (remaining > 0) {
+            int count = (int) Math.min(storage.size() - readPosition, remaining);
+            List<byte[]> values = count > 0 ? storage.range(readPosition + 1, count) : null;
+            if (values != null) {
+                for (byte[] value : values) {
+                    long id = readPosition + 1;
+                    RedisMessageModel message = value == null ? null : decode(value);
+                    Delivery delivery = new Delivery(id, message, now);
+                    // 已过期和无法解码的消息直接确认,不阻塞后续消息的提交
+                    delivery.acked = message == null;
+                    inFlight.put(id, delivery);
+                    readPosition = id;
+                    if (message != null) {
+                        deliveries = add(deliveries, delivery);
+                    }
+                }
+                Consumer.CONSUMED_MESSAGES.add(values.size());
+                advance();
+            }
+        }
+        return deliveries == null ? Collections.emptyList() : deliveries;
+    }
+
+    /**
+     * 解码消息,失败返回null
+     */
+    private RedisMessageModel decode(byte[] value) {
+        RedisMessageModel message = null;
+        try {
+            message = codec.decode(value);
+        } catch (Exception e) {
+        }
+        if (message == null) {
+            Consumer.DECODE_ERRORS.increment();
+        }
+        return message;
+    }
+
+    private static List<Delivery> add(List<Delivery> deliveries, Delivery delivery) {
+        if (deliveries == null) {
+            deliveries = new ArrayList<>();
+        }
+        deliveries.add(delivery);
+        return deliveries;
+    }
+
+    /**
+     * 确认消息已处理完成
+     */
+    public void ack(Delivery delivery) {
+        ack(delivery.id);
+    }
+
+    public void ack(long id) {
+        lock.lock();
+        try {
+            Delivery delivery = inFlight.get(id);
+            if (delivery == null) {
+                return;
+            }
+            delivery.acked = true;
+            advance();
+            maybeCommit(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 处理失败,消息在下次读取时立即重新投递
+     */
+    public void nack(Delivery delivery) {
+        lock.lock();
+        try {
+            if (inFlight.get(delivery.id) == delivery && !delivery.acked) {
+                delivery.deliveredAt = Long.MIN_VALUE / 2;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 处理失败,按重试策略在退避时间后重新投递;已达到最多投递次数时发布到死信主题并确认.
+     * 未设置重试策略时等同于不确认,visibilityTimeoutMillis后重新投递
+     */
+    public void retry(Delivery delivery) {
+        if (retryPolicy == null) {
+            return;
+        }
+        if (retryPolicy.canRetry(delivery.attempts)) {
+            long backoff = retryPolicy.backoffMillis(delivery.attempts);
+            lock.lock();
+            try {
+                if (inFlight.get(delivery.id) != delivery || delivery.acked || delivery.retrying) {
+                    return;
+                }
+                delivery.retryAt = System.currentTimeMillis() + backoff;
+                delivery.retrying = true;
+            } finally {
+                lock.unlock();
+            }
+            RETRIES.increment();
+            RETRY_WHEEL.schedule(() -> release(delivery), backoff);
+            return;
+        }
+        // 死信发布失败时不确认,之后继续重新投递
+        if (deadLetterProducer != null && deadLetterProducer.publish(delivery.message)) {
+            DEAD_LETTERS.increment();
+            ack(delivery);
+        }
+    }
+
+    /**
+     * 退避时间到期,下次读取时重新投递.
+     * 在共用的定时器线程执行,不获取AckConsumer的锁(poll/ack持锁期间有redis往返),只修改volatile的投递状态,
+     * 先写deliveredAt再清除retrying,读取到retrying为false时一定能看到新的deliveredAt
+     */
+    private static void release(Delivery delivery) {
+        if (delivery.retrying) {
+            delivery.deliveredAt = Long.MIN_VALUE / 2;
+            delivery.retrying = false;
+        }
+    }
+
+    /**
+     * 最早的重试时间,没有等待重试的消息时返回Long.MAX_VALUE
+     */
+    private long nextRetryMillis() {
+        lock.lock();
+        try {
+            long next = Long.MAX_VALUE;
+            for (Delivery delivery : inFlight.values()) {
+                if (delivery.retrying) {
+                    next = Math.min(next, delivery.retryAt);
+                }
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除最前面连续已确认的消息
+     */
+    private void advance() {
+        Iterator<Map.Entry<Long, Delivery>> iterator = inFlight.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Delivery> entry = iterator.next();
+            if (!entry.getValue().acked || entry.getKey() != acknowledged + 1) {
+                break;
+            }
+            acknowledged = entry.getKey();
+            iterator.remove();
+        }
+    }
+
+    private void maybeCommit(long now) {
+        if (acknowledged > committed
+            && (acknowledged - committed >= commitBatch || now - lastCommitMillis >= commitIntervalMillis)) {
+            commit(now);
+        }
+    }
+
+    private void commit(long now) {
+        lastCommitMillis = now;
+        if (storage.commit(subscriber, committed, acknowledged)) {
+            committed = acknowledged;
+            return;
+        }
+        // 索引已被其他客户端修改,以存储中的索引为准,丢弃之前的消息
+        Consumer.COMMIT_CONFLICTS.increment();
+        Long offset = storage.offset(subscriber);
+        if (offset == null) {
+            return;// 读取失败,下次提交时重试
+        }
+        committed = offset;
+        acknowledged = Math.max(acknowledged, committed);
+        readPosition = Math.max(readPosition, committed);
+        inFlight.headMap(committed, true).clear();
+    }
+
+    /**
+     * 立即提交已确认的消息
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (committed != Long.MIN_VALUE && acknowledged > committed) {
+                commit(System.currentTimeMillis());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞消费,处理成功后确认,处理抛出异常的消息按重试策略重新投递(见retry).
+     * 每次读取min(commitBatch, maxInFlight)条消息后逐条处理,不需要每条消息一次读取的redis往返.
+     * 没有可投递的消息时等待生产方的发布通知,连续idleTimeout毫秒没有新消息时提交并返回
+     * @param callback 处理消息
+     * @param idleTimeout 最长空闲时间(毫秒),小于等于0表示一直阻塞直到线程被中断
+     */
+    public void consume(Callback callback, long idleTimeout) {
+        long idleSince = System.currentTimeMillis();
+        Deque<Delivery> pending = new ArrayDeque<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long sequence = storage.publishSequence();
+                if (pending.isEmpty()) {
+                    pending.addAll(poll(Math.max(Math.min(commitBatch, maxInFlight), 1)));
+                }
+                if (!pending.isEmpty()) {
+                    Delivery delivery = pending.poll();
+                    try {
+                        callback.handle(delivery.message);
+                        ack(delivery);
+                    } catch (Exception e) {
+                        retry(delivery);
+                    }
+                    idleSince = System.currentTimeMillis();
+                    continue;
+                }
+                long remaining = idleTimeout > 0 ? idleSince + idleTimeout - System.currentTimeMillis() : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    return;
+                }
+                // 有未确认的消息时需按时重新投递和提交,最长等待不超过提交间隔和最早的重试时间
+                long wait = Math.min(remaining, commitIntervalMillis);
+                long nextRetry = nextRetryMillis();
+                if (nextRetry != Long.MAX_VALUE) {
+                    wait = Math.max(Math.min(wait, nextRetry - System.currentTimeMillis() + 1), 1);
+                }
+                storage.awaitPublish(sequence, wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flush();
+        }
+    }
+
+    /**
+     * 已读取未确认的消息数
+     */
+    public int inFlight() {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Delivery delivery : inFlight.values()) {
+                if (!delivery.acked) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        this.codec = codec;
+    }
+
+    public void setVisibilityTimeoutMillis(long visibilityTimeoutMillis) {
+        this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+    }
+
+    public void setCommitBatch(int commitBatch) {
+        this.commitBatch = commitBatch;
+    }
+
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * 死信主题,使用与原主题相同的存储引擎
+     */
+    public void setDeadLetterTopic(String deadLetterTopic) {
+        this.deadLetterProducer = deadLetterTopic == null ? null : new Producer(deadLetterTopic, engine);
+    }
+
+    /**
+     * 一次投递.状态由持有AckConsumer锁(lock)的线程修改,重试到期时由定时器线程不加锁修改,字段均为volatile
+     */
+    public static class Delivery {
+        private final long id;
+        private final RedisMessageModel message;
+        private volatile long deliveredAt;
+        /**
+         * 投递次数,首次投递为1
+         */
+        private volatile int attempts = 1;
+        private volatile boolean acked;
+        /**
+         * 等待重试,退避期间不按visibilityTimeoutMillis重新投递
+         */
+        private volatile boolean retrying;
+        private volatile long retryAt;
+
+        private Delivery(long id, RedisMessageModel message, long deliveredAt) {
+            this.id = id;
+            this.message = message;
+            this.deliveredAt = deliveredAt;
+        }
+
+        /**
+         * 消息id
+         */
+        public long getId() {
+            return id;
+        }
+
+        public RedisMessageModel getMessage() {
+            return message;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
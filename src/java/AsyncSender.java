@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步发送器.调用方只负责序列化和入队,后台线程按主题累积消息,
+ * 达到batchSize条或等待lingerMillis后一次原子写入(一次网络往返)
+ * 缓冲区按编码后的消息长度(字节数)限制大小,缓冲区满时调用方最多阻塞maxBlockMillis,超时则发布失败
+ */
+public class AsyncSender {
+    /**
+     * 发送线程检查关闭状态的间隔
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final QueueStorage storage;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final long maxBlockMillis;
+    private final int bufferMemory;
+    /**
+     * 缓冲区剩余容量(字节数)
+     */
+    private final Semaphore available;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    protected AsyncSender(QueueStorage storage, String topic, int batchSize, long lingerMillis,
+                          int bufferMemory, long maxBlockMillis) {
+        this.storage = storage;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.bufferMemory = bufferMemory;
+        this.maxBlockMillis = maxBlockMillis;
+        this.available = new Semaphore(bufferMemory);
+        this.thread = new Thread(this::run, "redisMq-sender-" + topic);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 消息入队
+     * @param message 编码后的消息
+     * @param seconds 过期时间
+     * @return 消息id,缓冲区满超时、发送器已关闭或写入失败时异常完成
+     */
+    protected CompletableFuture<Long> send(byte[] message, int seconds) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        int size = message.length;
+        if (size > bufferMemory) {
+            future.completeExceptionally(new IllegalArgumentException(
+                "message size " + size + " exceeds buffer memory " + bufferMemory));
+            return future;
+        }
+        try {
+            if (!available.tryAcquire(size, maxBlockMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new IllegalStateException(
+                    "send buffer full, blocked " + maxBlockMillis + "ms"));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (closed) {
+            available.release(size);
+            future.completeExceptionally(new IllegalStateException("sender closed"));
+            return future;
+        }
+        Record record = new Record(message, seconds, future);
+        queue.add(record);
+        // 入队前close()可能已经清空了队列,由取出该消息的一方负责完成
+        if (closed && queue.remove(record)) {
+            available.release(size);
+            future.completeExceptionally(new IllegalStateException("sender closed"));
+        }
+        return future;
+    }
+
+    /**
+     * 关闭发送器,发送缓冲区中剩余的消息后返回
+     */
+    protected void close() {
+        closed = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 关闭过程中入队的消息不再发送
+        Record record;
+        while ((record = queue.poll()) != null) {
+            available.release(record.message.length);
+            record.future.completeExceptionally(new IllegalStateException("sender closed"));
+        }
+    }
+
+    private void run() {
+        List<Record> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                Record first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                // 等待更多消息直到达到批量大小或linger超时,关闭时不再等待
+                long deadline = System.currentTimeMillis() + lingerMillis;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0 || closed) {
+                        break;
+                    }
+                    Record next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                closed = true;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批消息,过期时间相同的连续消息一次写入
+     */
+    private void flush(List<Record> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from + 1;
+            while (to < batch.size() && batch.get(to).seconds == batch.get(from).seconds) {
+                to++;
+            }
+            List<Record> records = batch.subList(from, to);
+            List<byte[]> messages = new ArrayList<>(records.size());
+            int bytes = 0;
+            for (Record record : records) {
+                messages.add(record.message);
+                bytes += record.message.length;
+            }
+            Long lastMessageId = null;
+            long startNanos = System.nanoTime();
+            long roundTrips = Instrumentation.roundTrips();
+            try {
+                lastMessageId = storage.append(messages, batch.get(from).seconds);
+            } catch (Exception e) {
+            }
+            Producer.PUBLISH_LATENCY.recordSince(startNanos);
+            Producer.PUBLISH_ROUND_TRIPS.add(Instrumentation.roundTrips() - roundTrips);
+            if (lastMessageId != null) {
+                Producer.PUBLISHED_MESSAGES.add(messages.size());
+            }
+            available.release(bytes);
+            for (int i = 0; i < records.size(); i++) {
+                if (lastMessageId == null) {
+                    records.get(i).future.completeExceptionally(new IllegalStateException("publish failed"));
+                } else {
+                    records.get(i).future.complete(lastMessageId - (records.size() - 1 - i));
+                }
+            }
+            from = to;
+        }
+    }
+
+    private static class Record {
+        private final byte[] message;
+        private final int seconds;
+        private final CompletableFuture<Long> future;
+
+        private Record(byte[] message, int seconds, CompletableFuture<Long> future) {
+            this.message = message;
+            this.seconds = seconds;
+            this.future = future;
+        }
+    }
+}
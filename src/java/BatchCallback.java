@@ -0,0 +1,10 @@
+import java.util.List;
+
+@FunctionalInterface
+public interface BatchCallback {
+    /**
+     * 批量处理消息
+     * @param messages
+     */
+    void handle(List<RedisMessageModel> messages);
+}
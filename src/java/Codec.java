@@ -0,0 +1,21 @@
+/**
+ * 对象编解码,消息和缓存对象通过jedis的byte[]接口直接读写编码结果
+ * @param <T> 对象类型
+ */
+public interface Codec<T> {
+
+    /**
+     * 编码
+     * @param value 对象
+     * @return
+     */
+    byte[] encode(T value);
+
+    /**
+     * 解码.数据来自redis不可信,调用方需处理异常
+     * @param bytes 编码结果
+     * @return 解码结果,bytes为null或空时返回null
+     * @throws RuntimeException 数据不是该编码的格式或已损坏
+     */
+    T decode(byte[] bytes);
+}
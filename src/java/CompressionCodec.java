@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 压缩编解码,包装消息编码
+ * 编码结果不小于threshold字节时压缩,压缩结果自描述: 压缩标记(1字节) 算法id(1字节) 原始长度(4字节) 压缩数据.
+ * 解码按首字节识别,未压缩的数据直接交给被包装的编码解码,因此压缩和未压缩的消息可以混合在同一主题中,
+ * 订阅方不需要知道生产方是否开启压缩.压缩数据格式错误(未注册的算法、非法的原始长度)时解码抛出异常,与Codec.decode一致
+ * @param <T> 对象类型
+ */
+public class CompressionCodec<T> implements Codec<T> {
+    /**
+     * 压缩标记,0xC1不是合法的UTF-8首字节,不会与JSON、二进制消息格式或java序列化数据冲突
+     */
+    protected static final byte COMPRESSED_MARKER = (byte) 0xC1;
+    private static final int HEADER_LENGTH = 6;
+    /**
+     * 默认压缩阈值,小于该长度的消息压缩收益不足以抵消耗时
+     */
+    protected static final int DEFAULT_THRESHOLD = 4 * 1024;
+    /**
+     * 解压后的最大长度,原始长度来自消息头,不可信,超过时不分配内存直接解码失败
+     */
+    protected static final int MAX_ORIGINAL_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * 算法id -> 压缩算法,解码时使用.注册和解码在不同线程,使用AtomicReferenceArray保证可见性
+     */
+    private static final AtomicReferenceArray<Compressor> COMPRESSORS = new AtomicReferenceArray<>(256);
+
+    static {
+        register(new DeflateCompressor());
+    }
+
+    private final Codec<T> codec;
+    private final Compressor compressor;
+    private final int threshold;
+    private final CompressionMetrics metrics = new CompressionMetrics();
+
+    /**
+     * 只解压不压缩(阈值为Integer.MAX_VALUE),用于订阅方
+     * @param codec 被包装的编码
+     */
+    public CompressionCodec(Codec<T> codec) {
+        this(codec, COMPRESSORS.get(DeflateCompressor.ID), Integer.MAX_VALUE);
+    }
+
+    /**
+     * 编码结果不小于DEFAULT_THRESHOLD字节时压缩,用于生产方
+     * @param codec 被包装的编码
+     * @param compressor 压缩算法
+     */
+    public CompressionCodec(Codec<T> codec, Compressor compressor) {
+        this(codec, compressor, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param codec 被包装的编码
+     * @param compressor 压缩算法
+     * @param threshold 编码结果不小于该字节数时压缩
+     */
+    public CompressionCodec(Codec<T> codec, Compressor compressor, int threshold) {
+        this.codec = codec;
+        this.compressor = compressor;
+        this.threshold = threshold;
+        register(compressor);
+    }
+
+    /**
+     * 注册压缩算法,订阅方需注册生产方使用的所有算法.Deflate已默认注册
+     * @param compressor 压缩算法
+     */
+    public static void register(Compressor compressor) {
+        COMPRESSORS.set(compressor.id() & 0xFF, compressor);
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        byte[] bytes = codec.encode(value);
+        if (bytes == null || bytes.length < threshold) {
+            return bytes;
+        }
+        long start = System.nanoTime();
+        // 压缩结果不小于原始数据时不压缩
+        byte[] compressed = new byte[bytes.length];
+        int length = compressor.compress(bytes, compressed, HEADER_LENGTH);
+        if (length < 0 || HEADER_LENGTH + length >= bytes.length) {
+            metrics.recordIncompressible(System.nanoTime() - start);
+            return bytes;
+        }
+        compressed[0] = COMPRESSED_MARKER;
+        compressed[1] = compressor.id();
+        compressed[2] = (byte) (bytes.length >>> 24);
+        compressed[3] = (byte) (bytes.length >>> 16);
+        compressed[4] = (byte) (bytes.length >>> 8);
+        compressed[5] = (byte) bytes.length;
+        metrics.recordCompress(bytes.length, HEADER_LENGTH + length, System.nanoTime() - start);
+        return Arrays.copyOf(compressed, HEADER_LENGTH + length);
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH || bytes[0] != COMPRESSED_MARKER) {
+            return codec.decode(bytes);
+        }
+        long start = System.nanoTime();
+        Compressor decompressor = COMPRESSORS.get(bytes[1] & 0xFF);
+        if (decompressor == null) {
+            throw new IllegalStateException("unknown compressor id " + (bytes[1] & 0xFF));
+        }
+        int originalLength = ((bytes[2] & 0xFF) << 24) | ((bytes[3] & 0xFF) << 16) | ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
+        if (originalLength <= 0 || originalLength > MAX_ORIGINAL_LENGTH) {
+            throw new IllegalArgumentException("invalid original length " + originalLength);
+        }
+        byte[] original = decompressor.decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, originalLength);
+        metrics.recordDecompress(System.nanoTime() - start);
+        return codec.decode(original);
+    }
+
+    /**
+     * 压缩比和耗时统计
+     * @return
+     */
+    public CompressionMetrics metrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压缩统计,多线程累加无锁.
+ * 每个CompressionCodec单独统计,同时累加到Instrumentation的codec.*埋点,
+ * 订阅方内部默认的解码(无法取得实例)通过Instrumentation.snapshot()查看
+ */
+public class CompressionMetrics {
+    private static final LatencyHistogram COMPRESS_LATENCY = Instrumentation.histogram("codec.compress");
+    private static final LatencyHistogram DECOMPRESS_LATENCY = Instrumentation.histogram("codec.decompress");
+    private static final LongAdder TOTAL_COMPRESSED = Instrumentation.counter("codec.compressed");
+    private static final LongAdder TOTAL_INCOMPRESSIBLE = Instrumentation.counter("codec.incompressible");
+    private static final LongAdder TOTAL_ORIGINAL_BYTES = Instrumentation.counter("codec.originalBytes");
+    private static final LongAdder TOTAL_COMPRESSED_BYTES = Instrumentation.counter("codec.compressedBytes");
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder incompressible = new LongAdder();
+    private final LongAdder originalBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    protected void recordCompress(int originalLength, int compressedLength, long nanos) {
+        compressed.increment();
+        originalBytes.add(originalLength);
+        compressedBytes.add(compressedLength);
+        compressNanos.add(nanos);
+        TOTAL_COMPRESSED.increment();
+        TOTAL_ORIGINAL_BYTES.add(originalLength);
+        TOTAL_COMPRESSED_BYTES.add(compressedLength);
+        COMPRESS_LATENCY.record(nanos);
+    }
+
+    protected void recordIncompressible(long nanos) {
+        incompressible.increment();
+        compressNanos.add(nanos);
+        TOTAL_INCOMPRESSIBLE.increment();
+        COMPRESS_LATENCY.record(nanos);
+    }
+
+    protected void recordDecompress(long nanos) {
+        decompressed.increment();
+        decompressNanos.add(nanos);
+        DECOMPRESS_LATENCY.record(nanos);
+    }
+
+    /**
+     * 已压缩的消息数
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * 超过阈值但压缩后没有变小、以原始数据发送的消息数
+     */
+    public long getIncompressible() {
+        return incompressible.sum();
+    }
+
+    public long getOriginalBytes() {
+        return originalBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * 压缩比,压缩后字节数 / 压缩前字节数,没有压缩过的消息时返回1
+     */
+    public double getRatio() {
+        long original = originalBytes.sum();
+        return original == 0 ? 1 : (double) compressedBytes.sum() / original;
+    }
+
+    /**
+     * 平均每条消息的压缩耗时(微秒),包括压缩后没有变小的消息
+     */
+    public double getAvgCompressMicros() {
+        long count = compressed.sum() + incompressible.sum();
+        return count == 0 ? 0 : compressNanos.sum() / 1000.0 / count;
+    }
+
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    /**
+     * 平均每条消息的解压耗时(微秒)
+     */
+    public double getAvgDecompressMicros() {
+        long count = decompressed.sum();
+        return count == 0 ? 0 : decompressNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("compressed=%d incompressible=%d ratio=%.3f avgCompress=%.1fus decompressed=%d avgDecompress=%.1fus",
+            getCompressed(), getIncompressible(), getRatio(), getAvgCompressMicros(), getDecompressed(), getAvgDecompressMicros());
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * 压缩算法.压缩结果中记录算法id,解码时按id选择算法,见{@link CompressionCodec#register(Compressor)}
+ */
+public interface Compressor {
+
+    /**
+     * 算法id,1~127保留给内置算法
+     * @return
+     */
+    byte id();
+
+    /**
+     * 压缩src并写入dst的offset之后
+     * @param src 原始数据
+     * @param dst 压缩结果
+     * @param offset dst中的起始位置
+     * @return 压缩后的长度,dst剩余空间不足(压缩后没有变小)返回-1
+     */
+    int compress(byte[] src, byte[] dst, int offset);
+
+    /**
+     * 解压
+     * @param src 压缩数据
+     * @param offset 压缩数据在src中的起始位置
+     * @param length 压缩数据长度
+     * @param originalLength 原始数据长度
+     * @return 原始数据
+     */
+    byte[] decompress(byte[] src, int offset, int length, int originalLength);
+}
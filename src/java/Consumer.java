@@ -1,9 +1,13 @@
 import com.alibaba.fastjson.JSON;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 订阅方
+ * 读取时即前进索引,处理失败或进程崩溃会丢失消息,需要至少一次投递时使用AckConsumer
  */
 public class Consumer {
 
@@ -13,22 +17,53 @@ public class Consumer {
      */
     protected static final int DEFALUT_EXPIRETIME = 0;
     /**
-     * 主题总数
+     * 埋点,见Instrumentation
      */
-    private RedisQueue countRedisQueue;
+    protected static final LatencyHistogram POLL_LATENCY = Instrumentation.histogram("consumer.poll");
+    protected static final LongAdder CONSUMED_MESSAGES = Instrumentation.counter("consumer.messages");
+    protected static final LongAdder POLL_ROUND_TRIPS = Instrumentation.counter("consumer.roundTrips");
+    protected static final LongAdder WATCH_CONFLICTS = Instrumentation.counter("consumer.watchConflicts");
+    protected static final LongAdder COMMIT_CONFLICTS = Instrumentation.counter("consumer.commitConflicts");
     /**
-     * 主题消息
+     * 无法解码的消息数,这些消息被跳过
      */
-    private RedisQueue messageRedisQueue;
+    protected static final LongAdder DECODE_ERRORS = Instrumentation.counter("consumer.decodeErrors");
     /**
-     * 当前主题订阅者
+     * 读取失败(redis不可用等)的次数
      */
-    private RedisQueue subscribersRedisQueue;
+    protected static final LongAdder POLL_ERRORS = Instrumentation.counter("consumer.pollErrors");
+    /**
+     * 等待发布通知的最长时间,通知丢失(如通知连接半开)时最迟按该间隔重新读取
+     */
+    protected static final long MAX_AWAIT_MILLIS = 5000;
+    /**
+     * 读取失败后首次重试的等待时间,连续失败时加倍,最长MAX_AWAIT_MILLIS
+     */
+    protected static final long ERROR_BACKOFF_MILLIS = 100;
+    /**
+     * 主题存储
+     */
+    private QueueStorage storage;
+    /**
+     * 订阅方
+     */
+    private String subscriber;
+    /**
+     * 消息解码,默认按格式标记识别二进制、JSON和压缩后的消息
+     */
+    private Codec<RedisMessageModel> codec = new CompressionCodec<>(MessageCodec.BINARY);
+    /**
+     * 预读缓冲区,未开启预读时为null
+     */
+    private volatile PrefetchBuffer prefetchBuffer;
 
     public Consumer(String topic, String subscriber) {
-        this.countRedisQueue = new RedisQueue(topic, Producer.TOPIC_COUNT_CACHETYPE);
-        this.messageRedisQueue = new RedisQueue(topic, Producer.TOPIC_MESSAGE_CACHETYPE);
-        this.subscribersRedisQueue = new RedisQueue(topic, TOPIC_SUBSCRIBERS_CACHETYPE, subscriber);
+        this(topic, subscriber, TopicEngine.STRING);
+    }
+
+    public Consumer(String topic, String subscriber, TopicEngine engine) {
+        this.storage = engine.createStorage(topic);
+        this.subscriber = subscriber;
     }
 
     public void consume(Callback callback) {
@@ -44,81 +79,229 @@ public class Consumer {
         } while(message != null);
     }
 
+    /**
+     * 阻塞消费.没有可读消息时挂起等待生产方的发布通知,有新消息立即被唤醒,
+     * 每次最多等待MAX_AWAIT_MILLIS后重新读取,读取失败时按退避时间重试,
+     * 连续idleTimeout毫秒没有新消息时返回
+     * @param callback 处理消息
+     * @param idleTimeout 最长空闲时间(毫秒),小于等于0表示一直阻塞直到线程被中断
+     */
+    public void consume(Callback callback, long idleTimeout) {
+        long idleSince = System.currentTimeMillis();
+        int failures = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            // 先记录通知次数再读取,读取之后发布的消息一定会唤醒等待
+            long sequence = publishSequence();
+            List<RedisMessageModel> messages = poll(1);
+            if (!UtilCompare.isEmpty(messages)) {
+                failures = 0;
+                try {
+                    callback.handle(messages.get(0));
+                } catch (Exception e) {
+                }
+                idleSince = System.currentTimeMillis();
+                continue;
+            }
+            long remaining = idleTimeout > 0 ? idleSince + idleTimeout - System.currentTimeMillis() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return;
+            }
+            try {
+                if (messages == null) {
+                    // 读取失败不能当作没有消息等待通知,否则积压的消息要等到下次发布才被读取
+                    Thread.sleep(Math.min(errorBackoffMillis(++failures), remaining));
+                } else {
+                    failures = 0;
+                    awaitPublish(sequence, Math.min(remaining, MAX_AWAIT_MILLIS));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 读取失败后重试前的等待时间
+     * @param failures 连续失败次数,从1开始
+     * @return
+     */
+    protected static long errorBackoffMillis(int failures) {
+        return Math.min(ERROR_BACKOFF_MILLIS << Math.min(failures - 1, 10), MAX_AWAIT_MILLIS);
+    }
+
+    /**
+     * 批量消费,每批最多batchSize条消息,直到没有可读消息
+     * @param callback 批量处理消息
+     * @param batchSize 每批最大消息数
+     */
+    public void consumeBatch(BatchCallback callback, int batchSize) {
+        List<RedisMessageModel> messages = null;
+        do {
+            messages = consume(batchSize);
+            if (!messages.isEmpty()) {
+                try {
+                    callback.handle(messages);
+                } catch (Exception e) {
+                }
+            }
+        } while(!messages.isEmpty());
+    }
+
     public RedisMessageModel consume() {
         return readUntilEnd();
     }
 
     /**
-     * 读取队列中的消息.保证在集群环境下能正确并发读取消息
-     * 1.保证watch到客户端索引自增+1之间的操作是原子操作
-     *
-     * @return
+     * 批量读取消息
+     * @param maxMessages 最多读取的消息数
+     * @return 读取到的消息,没有可读消息时返回空列表
+     */
+    public List<RedisMessageModel> consume(int maxMessages) {
+        List<RedisMessageModel> messages = readBatch(maxMessages);
+        return messages == null ? Collections.emptyList() : messages;
+    }
+
+    /**
+     * 批量读取消息,区分读取失败和没有可读消息
+     * @param maxMessages 最多读取的消息数
+     * @return 读取到的消息,没有可读消息时返回空列表,读取失败返回null
      */
+    protected List<RedisMessageModel> poll(int maxMessages) {
+        List<RedisMessageModel> messages;
+        try {
+            messages = readBatch(maxMessages);
+        } catch (Exception e) {
+            messages = null;
+        }
+        if (messages == null) {
+            POLL_ERRORS.increment();
+        }
+        return messages;
+    }
+
     private RedisMessageModel readUntilEnd() {
-        return RedisQueue.execOnSameRedisConn(redisTransaction -> {
-            while (true) {
-                redisTransaction.watch(subscribersRedisQueue);
-                if (unreadMessages() > 0) {
-                    String message = read();
-                    if (UtilCompare.isEmpty(goNext(redisTransaction))) {
-                        continue;// 自增失败重新读取
-                    }
-                    if (message == null) {
-                        continue;// 读取失败重新读取
-                    }
-                    return JSON.parseObject(message, RedisMessageModel.class);
-                }
+        List<RedisMessageModel> messages = readBatch(1);
+        return UtilCompare.isEmpty(messages) ? null : messages.get(0);
+    }
+
+    /**
+     * 批量读取队列中的消息并前进订阅方索引
+     * @param maxMessages 最多读取的消息数
+     * @return
+     */
+    private List<RedisMessageModel> readBatch(int maxMessages) {
+        while (true) {
+            PrefetchBuffer prefetchBuffer = this.prefetchBuffer;
+            long startNanos = System.nanoTime();
+            long roundTrips = Instrumentation.roundTrips();
+            List<byte[]> values = prefetchBuffer != null
+                ? prefetchBuffer.take(maxMessages) : storage.poll(subscriber, maxMessages);
+            POLL_LATENCY.recordSince(startNanos);
+            POLL_ROUND_TRIPS.add(Instrumentation.roundTrips() - roundTrips);
+            if (values == null) {
                 return null;
             }
-        });
+            CONSUMED_MESSAGES.add(values.size());
+            List<RedisMessageModel> messages = new ArrayList<>(values.size());
+            for (byte[] value : values) {
+                // 索引已前进,无法解码的消息跳过,不影响同一批的其他消息
+                RedisMessageModel message = null;
+                try {
+                    message = codec.decode(value);
+                } catch (Exception e) {
+                }
+                if (message == null) {
+                    DECODE_ERRORS.increment();
+                } else {
+                    messages.add(message);
+                }
+            }
+            // 整批都无法解码时继续读取,返回空列表只表示没有可读消息
+            if (!messages.isEmpty() || values.isEmpty()) {
+                return messages;
+            }
+        }
     }
 
     /**
-     * 客户端消息索引+1
-     * @param redisTransaction
+     * 当前收到的发布通知次数,读取前记录,没有可读消息时作为awaitPublish的参数
      * @return
      */
-    private List<Object> goNext(RedisQueue.RedisTransaction redisTransaction) {
-        redisTransaction.multi();
-        redisTransaction.incr(subscribersRedisQueue);
-        return redisTransaction.exec();
+    protected long publishSequence() {
+        PrefetchBuffer prefetchBuffer = this.prefetchBuffer;
+        return prefetchBuffer != null ? prefetchBuffer.sequence() : storage.publishSequence();
     }
 
     /**
-     * 获取当前订阅方读取的最后一条消息的位置
-     * @return
+     * 等待生产方的发布通知,等待期间不占用redis连接
+     * @param sequence 读取前记录的通知次数
+     * @param timeoutMillis 最长等待时间
+     * @throws InterruptedException
      */
-    private int getLastReadMessage() {
-        String lastMessageRead = subscribersRedisQueue.get();
-        // 如果是新注册上来的consumer，只读取最后一条消息
-        // TODO 配置新注册的consumer是读取最后一条还是全部消息
-        if (UtilCompare.isEmpty(lastMessageRead)) {
-            int lowest = getTopicSize() - 1;
-            subscribersRedisQueue.set(String.valueOf(lowest), DEFALUT_EXPIRETIME);
-            return lowest;
+    protected void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+        PrefetchBuffer prefetchBuffer = this.prefetchBuffer;
+        if (prefetchBuffer != null) {
+            prefetchBuffer.await(sequence, timeoutMillis);
+        } else {
+            storage.awaitPublish(sequence, timeoutMillis);
         }
-        return Integer.valueOf(lastMessageRead);
+    }
+
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        this.codec = codec;
     }
 
     /**
-     * 消息总数量
-     * @return
+     * 开启预读,缓冲区中的消息数不超过一半时继续预读
+     * @param prefetch 预读的最大消息数,小于等于0表示关闭预读
+     */
+    public void setPrefetch(int prefetch) {
+        setPrefetch(prefetch, prefetch / 2);
+    }
+
+    /**
+     * 开启预读.后台线程预读订阅方索引之后的消息,消息交给调用方时才前进订阅方索引
+     * @param prefetch 预读的最大消息数,小于等于0表示关闭预读
+     * @param lowWatermark 缓冲区中的消息数不超过该值时继续预读
      */
-    private int getTopicSize() {
-        String stopicSize = countRedisQueue.get();
-        int topicSize = 0;
-        if (stopicSize != null) {
-            topicSize = Integer.valueOf(stopicSize);
+    public synchronized void setPrefetch(int prefetch, int lowWatermark) {
+        close();
+        if (prefetch > 0) {
+            prefetchBuffer = new PrefetchBuffer(storage, subscriber, prefetch, lowWatermark);
+        }
+    }
+
+    /**
+     * 停止预读,已预读未取出的消息不会前进订阅方索引
+     */
+    public synchronized void close() {
+        if (prefetchBuffer != null) {
+            prefetchBuffer.close();
+            prefetchBuffer = null;
         }
-        return topicSize;
     }
 
     /**
      * 读取最后一条消息
-     * @return
+     * @return 消息的JSON,与消息的编码格式无关,没有可读消息或无法解码时返回null
      */
     public String read() {
-        return messageRedisQueue.cat(getLastReadMessage() + 1).get();
+        Long offset = storage.offset(subscriber);
+        List<byte[]> values = offset == null ? null : storage.range(offset + 1, 1);
+        if (UtilCompare.isEmpty(values) || values.get(0) == null) {
+            return null;
+        }
+        RedisMessageModel message = null;
+        try {
+            message = codec.decode(values.get(0));
+        } catch (Exception e) {
+        }
+        if (message == null) {
+            DECODE_ERRORS.increment();
+            return null;
+        }
+        return JSON.toJSONString(message);
     }
 
     /**
@@ -126,6 +309,7 @@ public class Consumer {
      * @return
      */
     public int unreadMessages() {
-        return getTopicSize() - getLastReadMessage();
+        Long offset = storage.offset(subscriber);
+        return offset == null ? 0 : (int) (storage.size() - offset);
     }
 }
@@ -0,0 +1,165 @@
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 订阅方容器,用于同一个服务订阅大量(数千个)低流量主题
+ * 每个订阅在独立的任务中循环:读取消息 -> 处理 -> 没有可读消息时等待发布通知,
+ * 每次最多等待Consumer.MAX_AWAIT_MILLIS(通知连接半开时也能读取到消息),读取失败时按退避时间重试.
+ * 运行在JDK21及以上时任务使用虚拟线程,否则使用平台线程.
+ * 1.等待发布通知不占用redis连接,所有主题共享一个模式订阅连接(见TopicNotifier)
+ * 2.同时访问redis的订阅数由maxConcurrentPolls限制,避免耗尽连接池(MAX_ACTIVE)
+ * 3.等待使用ReentrantLock而不是synchronized,虚拟线程等待时不会占用载体线程
+ */
+public class ConsumerContainer {
+    /**
+     * 默认同时访问redis的订阅数,需小于连接池最大连接数
+     */
+    protected static final int DEFAULT_MAX_CONCURRENT_POLLS = 64;
+    /**
+     * 默认每次读取的最大消息数
+     */
+    protected static final int DEFAULT_FETCH_SIZE = 100;
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    /**
+     * 访问redis的许可
+     */
+    private final Semaphore polls;
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    public ConsumerContainer() {
+        this(DEFAULT_MAX_CONCURRENT_POLLS, true);
+    }
+
+    /**
+     * @param maxConcurrentPolls 同时访问redis的订阅数
+     * @param virtualThreads 是否使用虚拟线程,当前JDK不支持时使用平台线程
+     */
+    public ConsumerContainer(int maxConcurrentPolls, boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtualExecutor != null;
+        this.executor = virtualExecutor != null ? virtualExecutor : Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "redisMq-consumer-" + subscriptions.get());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.polls = new Semaphore(maxConcurrentPolls);
+    }
+
+    /**
+     * JDK21的Executors.newVirtualThreadPerTaskExecutor,当前JDK没有该方法时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public void subscribe(String topic, String subscriber, Callback callback) {
+        subscribe(topic, subscriber, TopicEngine.STRING, callback);
+    }
+
+    /**
+     * 订阅主题,消息在订阅自己的线程中按顺序处理,直到容器关闭
+     * @param topic 主题
+     * @param subscriber 订阅方
+     * @param engine 主题存储引擎
+     * @param callback 处理消息
+     */
+    public void subscribe(String topic, String subscriber, TopicEngine engine, Callback callback) {
+        subscribe(new Consumer(topic, subscriber, engine), callback);
+    }
+
+    protected void subscribe(Consumer consumer, Callback callback) {
+        subscriptions.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                run(consumer, callback);
+            } finally {
+                subscriptions.decrementAndGet();
+            }
+        });
+    }
+
+    private void run(Consumer consumer, Callback callback) {
+        Thread thread = Thread.currentThread();
+        int failures = 0;
+        while (!thread.isInterrupted()) {
+            // 先记录通知次数再读取,读取之后发布的消息一定会唤醒等待
+            long sequence = consumer.publishSequence();
+            List<RedisMessageModel> messages;
+            try {
+                polls.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                messages = consumer.poll(fetchSize);
+            } finally {
+                polls.release();
+            }
+            if (!UtilCompare.isEmpty(messages)) {
+                failures = 0;
+                for (RedisMessageModel message : messages) {
+                    try {
+                        callback.handle(message);
+                    } catch (Exception e) {
+                    }
+                }
+                continue;
+            }
+            try {
+                if (messages == null) {
+                    // 读取失败不能当作没有消息等待通知,否则积压的消息要等到下次发布才被读取
+                    Thread.sleep(Consumer.errorBackoffMillis(++failures));
+                } else {
+                    failures = 0;
+                    consumer.awaitPublish(sequence, Consumer.MAX_AWAIT_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 关闭容器,中断所有订阅并等待正在处理的消息完成
+     * @param timeoutMillis 最长等待时间
+     * @return 所有订阅是否已退出
+     */
+    public boolean shutdown(long timeoutMillis) {
+        executor.shutdownNow();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 当前运行中的订阅数
+     * @return
+     */
+    public int subscriptions() {
+        return subscriptions.get();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+}
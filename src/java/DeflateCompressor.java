@@ -0,0 +1,72 @@
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JDK Deflater压缩,不依赖第三方库.Deflater/Inflater创建成本较高且占用堆外内存,按线程复用
+ */
+public class DeflateCompressor implements Compressor {
+    protected static final byte ID = 1;
+    /**
+     * deflate的最大压缩比约为1032:1,原始长度超过压缩数据长度的该倍数说明数据已损坏
+     */
+    private static final int MAX_EXPANSION = 1032;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateCompressor() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level 压缩级别 0~9
+     */
+    public DeflateCompressor(int level) {
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int compress(byte[] src, byte[] dst, int offset) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(src);
+        deflater.finish();
+        int length = deflater.deflate(dst, offset, dst.length - offset);
+        return deflater.finished() ? length : -1;
+    }
+
+    @Override
+    public byte[] decompress(byte[] src, int offset, int length, int originalLength) {
+        if (originalLength < 0 || originalLength > (long) length * MAX_EXPANSION + 64) {
+            throw new IllegalArgumentException("corrupted deflate data, original length " + originalLength
+                + " for " + length + " compressed bytes");
+        }
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src, offset, length);
+        byte[] bytes = new byte[originalLength];
+        try {
+            int n = 0;
+            while (n < originalLength && !inflater.finished()) {
+                int inflated = inflater.inflate(bytes, n, originalLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            // 消息头中的长度小于实际长度时不能截断返回
+            if (n != originalLength || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new IllegalArgumentException("corrupted deflate data, expected " + originalLength + " bytes, got " + n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupted deflate data", e);
+        }
+        return bytes;
+    }
+}
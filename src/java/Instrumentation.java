@@ -0,0 +1,80 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内置埋点,按名称保存延迟分布和计数,通过snapshot()读取:
+ * redis.命令 / redis.multiplexed.命令   每次RedisCache操作的耗时(连接池 / 多路复用客户端)
+ * redis.transaction                    execOnSameRedisConn占用连接的总耗时
+ * redis.errors.connection/redirection/other   RedisCache中吞掉的异常
+ * producer.publish / consumer.poll     每次写入(一批消息)/每次读取的耗时
+ * producer.messages, producer.roundTrips, consumer.messages, consumer.roundTrips   消息数和期间的redis往返次数
+ * consumer.watchConflicts              WATCH的key被修改导致事务取消、重新读取的次数
+ * consumer.commitConflicts             订阅方索引比较更新失败的次数
+ * consumer.decodeErrors                无法解码被跳过(AckConsumer为直接确认)的消息数
+ * consumer.pollErrors                  读取失败(redis不可用等)的次数,阻塞消费时按退避时间重试
+ * codec.compress / codec.decompress    每条消息的压缩/解压耗时,所有CompressionCodec合计
+ * codec.compressed, codec.incompressible, codec.originalBytes, codec.compressedBytes   压缩的消息数和字节数
+ * 记录不加锁、不分配对象.redis往返次数按线程计数,每个RedisCache操作计一次(事务中按WATCH/MGET/EXEC计)
+ */
+public class Instrumentation {
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    /**
+     * 当前线程的redis往返次数
+     */
+    private static final ThreadLocal<long[]> ROUND_TRIPS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private Instrumentation() {
+    }
+
+    /**
+     * 名称对应的延迟分布,首次使用时创建
+     */
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = HISTOGRAMS.get(name);
+        return histogram != null ? histogram : HISTOGRAMS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * 名称对应的计数,首次使用时创建
+     */
+    public static LongAdder counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter : COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * 记录一次redis往返
+     * @param histogram 操作的延迟分布
+     * @param startNanos 操作开始时的System.nanoTime()
+     */
+    protected static void recordRedis(LatencyHistogram histogram, long startNanos) {
+        histogram.recordSince(startNanos);
+        roundTrip();
+    }
+
+    protected static void roundTrip() {
+        ROUND_TRIPS.get()[0]++;
+    }
+
+    /**
+     * 当前线程累计的redis往返次数,操作前后相减得到操作期间的往返次数
+     */
+    protected static long roundTrips() {
+        return ROUND_TRIPS.get()[0];
+    }
+
+    public static InstrumentationSnapshot snapshot() {
+        Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new InstrumentationSnapshot(histograms, counters);
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Map;
+
+/**
+ * 埋点快照,见Instrumentation
+ */
+public class InstrumentationSnapshot {
+    private final Map<String, HistogramSnapshot> histograms;
+    private final Map<String, Long> counters;
+
+    protected InstrumentationSnapshot(Map<String, HistogramSnapshot> histograms, Map<String, Long> counters) {
+        this.histograms = histograms;
+        this.counters = counters;
+    }
+
+    /**
+     * 名称 -> 延迟分布,按名称排序
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * 名称 -> 计数,按名称排序
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return 没有记录时返回null
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return 没有记录时返回0
+     */
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * 每条消息平均的redis往返次数
+     * @param prefix producer或consumer
+     */
+    public double getRoundTripsPerMessage(String prefix) {
+        long messages = getCounter(prefix + ".messages");
+        return messages == 0 ? 0 : (double) getCounter(prefix + ".roundTrips") / messages;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, HistogramSnapshot> entry : histograms.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
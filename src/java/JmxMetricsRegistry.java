@@ -0,0 +1,160 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以JMX MBean输出统计,每个主题和每个订阅方一个MBean:
+ * redisMq:type=Topic,topic="主题"
+ * redisMq:type=Subscriber,topic="主题",subscriber="订阅方"
+ * MBean的属性为最近一次采样的值,不在最近一次采样中的订阅方(已注销)的MBean被移除
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    private static final String DOMAIN = "redisMq";
+
+    private final MBeanServer server;
+    private final Map<ObjectName, TopicBean> topicBeans = new ConcurrentHashMap<>();
+    private final Map<ObjectName, SubscriberBean> subscriberBeans = new ConcurrentHashMap<>();
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(MBeanServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void update(TopicStats stats) {
+        try {
+            String quoted = ObjectName.quote(stats.getTopic());
+            ObjectName name = new ObjectName(DOMAIN + ":type=Topic,topic=" + quoted);
+            TopicBean topicBean = topicBeans.get(name);
+            if (topicBean == null) {
+                topicBean = new TopicBean();
+                topicBean.stats = stats;
+                register(name, topicBean);
+                topicBeans.put(name, topicBean);
+            }
+            topicBean.stats = stats;
+            Set<ObjectName> current = new HashSet<>();
+            for (SubscriberStats subscriber : stats.getSubscribers()) {
+                name = new ObjectName(DOMAIN + ":type=Subscriber,topic=" + quoted
+                    + ",subscriber=" + ObjectName.quote(subscriber.getSubscriber()));
+                current.add(name);
+                SubscriberBean subscriberBean = subscriberBeans.get(name);
+                if (subscriberBean == null) {
+                    subscriberBean = new SubscriberBean();
+                    subscriberBean.stats = subscriber;
+                    register(name, subscriberBean);
+                    subscriberBeans.put(name, subscriberBean);
+                }
+                subscriberBean.stats = subscriber;
+            }
+            unregister(subscriberBeans.keySet().iterator(), quoted, current);
+        } catch (JMException e) {
+        }
+    }
+
+    @Override
+    public void remove(String topic) {
+        String quoted = ObjectName.quote(topic);
+        unregister(topicBeans.keySet().iterator(), quoted, Collections.emptySet());
+        unregister(subscriberBeans.keySet().iterator(), quoted, Collections.emptySet());
+    }
+
+    private void register(ObjectName name, Object bean) throws JMException {
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(bean, name);
+    }
+
+    /**
+     * 移除主题下除keep之外的MBean
+     */
+    private void unregister(Iterator<ObjectName> names, String quotedTopic, Set<ObjectName> keep) {
+        while (names.hasNext()) {
+            ObjectName name = names.next();
+            if (quotedTopic.equals(name.getKeyProperty("topic")) && !keep.contains(name)) {
+                names.remove();
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 注册后不变的MBean,属性读取最近一次的快照
+     */
+    private static class TopicBean implements TopicStatsMXBean {
+        private volatile TopicStats stats;
+
+        @Override
+        public String getTopic() {
+            return stats.getTopic();
+        }
+
+        @Override
+        public long getSize() {
+            return stats.getSize();
+        }
+
+        @Override
+        public double getPublishRate() {
+            return stats.getPublishRate();
+        }
+
+        @Override
+        public long getMaxLag() {
+            return stats.getMaxLag();
+        }
+
+        @Override
+        public long getOldestUnconsumedAgeMillis() {
+            return stats.getOldestUnconsumedAgeMillis();
+        }
+    }
+
+    private static class SubscriberBean implements SubscriberStatsMXBean {
+        private volatile SubscriberStats stats;
+
+        @Override
+        public String getTopic() {
+            return stats.getTopic();
+        }
+
+        @Override
+        public String getSubscriber() {
+            return stats.getSubscriber();
+        }
+
+        @Override
+        public long getOffset() {
+            return stats.getOffset();
+        }
+
+        @Override
+        public long getLag() {
+            return stats.getLag();
+        }
+
+        @Override
+        public double getConsumeRate() {
+            return stats.getConsumeRate();
+        }
+
+        @Override
+        public long getOldestUnconsumedAgeMillis() {
+            return stats.getOldestUnconsumedAgeMillis();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于JVM内存环形缓冲区的主题存储,适用于生产方和订阅方在同一个JVM中的主题,以及不依赖redis的测试和压测.
+ * 参照Disruptor的序号设计,读写均无锁:
+ * 1.生产方通过cursor自增预留连续的消息id,id对应槽位 id & mask
+ * 2.写入槽位前先将槽位序号CAS为-id,写入后置为id;订阅方读取前后槽位序号均为id才认为读取有效.
+ *   槽位正在被其他生产方写入时等待,槽位中已是更新的消息(缓冲区回绕后后续消息先写入)时跳过,
+ *   保证槽位序号只增不减
+ * 3.槽位序号小于id说明消息已预留但尚未写入,大于id(或正在写入更新的消息)说明消息已被覆盖(视为已过期)
+ * 同一个JVM中每个主题只有一个存储实例,消息不过期,缓冲区写满后覆盖最早的消息
+ */
+public class MemoryQueueStorage implements QueueStorage {
+    /**
+     * 默认缓冲区容量,必须是2的幂
+     */
+    protected static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final Map<String, MemoryQueueStorage> TOPICS = new ConcurrentHashMap<>();
+
+    private final int mask;
+    private final AtomicReferenceArray<byte[]> messages;
+    /**
+     * 槽位序号,即槽位中消息的id
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * 已预留的最后一条消息id
+     */
+    private final AtomicLong cursor = new AtomicLong();
+    /**
+     * 订阅方 -> 读取的最后一条消息id
+     */
+    private final Map<String, AtomicLong> offsets = new ConcurrentHashMap<>();
+    private final AtomicLong publishSequence = new AtomicLong();
+    /**
+     * 等待发布通知的订阅方数量,没有等待者时发布不加锁
+     */
+    private final AtomicLong waiters = new AtomicLong();
+    /**
+     * 使用ReentrantLock而不是synchronized,虚拟线程等待时不会占用载体线程
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+
+    private MemoryQueueStorage(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.messages = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * 获取主题对应的存储实例
+     * @param topic 主题
+     * @return
+     */
+    protected static MemoryQueueStorage of(String topic) {
+        return of(topic, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 获取主题对应的存储实例,容量只在首次创建时生效
+     * @param topic 主题
+     * @param capacity 缓冲区容量,必须是2的幂
+     * @return
+     */
+    protected static MemoryQueueStorage of(String topic, int capacity) {
+        return TOPICS.computeIfAbsent(topic, t -> new MemoryQueueStorage(capacity));
+    }
+
+    @Override
+    public Long append(List<byte[]> messages, int seconds) {
+        int n = messages.size();
+        long last = cursor.addAndGet(n);
+        long first = last - n + 1;
+        for (int i = 0; i < n; i++) {
+            long id = first + i;
+            int slot = (int) id & mask;
+            while (true) {
+                long sequence = sequences.get(slot);
+                if (sequence < 0) {
+                    Thread.yield();// 其他生产方正在写入该槽位
+                    continue;
+                }
+                if (sequence >= id) {
+                    break;// 已被后续消息覆盖
+                }
+                if (sequences.compareAndSet(slot, sequence, -id)) {
+                    this.messages.set(slot, messages.get(i));
+                    sequences.set(slot, id);
+                    break;
+                }
+            }
+        }
+        publishSequence.incrementAndGet();
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public long size() {
+        return cursor.get();
+    }
+
+    @Override
+    public List<byte[]> range(long from, int count) {
+        List<byte[]> values = new ArrayList<>(count);
+        for (long id = from; id < from + count; id++) {
+            int slot = (int) id & mask;
+            long sequence = sequences.get(slot);
+            if (sequence < -id) {
+                values.add(null);// 正在被后续消息覆盖
+                continue;
+            }
+            if (sequence < id) {
+                break;// 已预留但尚未写入
+            }
+            byte[] value = messages.get(slot);
+            // 读取期间被覆盖的消息视为已过期
+            values.add(sequence == id && sequences.get(slot) == id ? value : null);
+        }
+        return values;
+    }
+
+    @Override
+    public Long offset(String subscriber) {
+        // 如果是新注册上来的consumer，只读取最后一条消息
+        return offsets.computeIfAbsent(subscriber, s -> new AtomicLong(cursor.get() - 1)).get();
+    }
+
+    @Override
+    public Long peekOffset(String subscriber) {
+        AtomicLong offset = offsets.get(subscriber);
+        return offset == null ? null : offset.get();
+    }
+
+    @Override
+    public boolean commit(String subscriber, long expected, long update) {
+        offset(subscriber);
+        return offsets.get(subscriber).compareAndSet(expected, update);
+    }
+
+    @Override
+    public long publishSequence() {
+        return publishSequence.get();
+    }
+
+    @Override
+    public void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        waiters.incrementAndGet();
+        lock.lock();
+        try {
+            while (publishSequence.get() == sequence && nanos > 0) {
+                nanos = published.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+            waiters.decrementAndGet();
+        }
+    }
+}
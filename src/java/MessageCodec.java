@@ -0,0 +1,225 @@
+import com.alibaba.fastjson.JSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * 消息编解码
+ * 二进制格式: 格式标记(1字节) 字段标记(1字节,按位表示字段非null) id(4字节) createTime(8字节) updateTime(8字节)
+ *           content topic extraInfo(变长长度 + UTF-8),为null的字段不写入,Date按毫秒时间戳写入.
+ * 解码按首字节识别格式,兼容历史数据: 格式标记为二进制格式,其他按JSON解析.
+ * 不支持java序列化数据,主题中的数据不可信,反序列化任意类存在安全风险
+ */
+public class MessageCodec implements Codec<RedisMessageModel> {
+    /**
+     * 二进制格式标记,不会是JSON的首字节
+     */
+    protected static final byte BINARY_MARKER = (byte) 0xB1;
+
+    private static final int ID = 1;
+    private static final int CREATE_TIME = 1 << 1;
+    private static final int UPDATE_TIME = 1 << 2;
+    private static final int CONTENT = 1 << 3;
+    private static final int TOPIC = 1 << 4;
+    private static final int EXTRA_INFO = 1 << 5;
+
+    /**
+     * 二进制编码,旧版本订阅方无法读取,所有订阅方升级后才能在生产方使用
+     */
+    public static final MessageCodec BINARY = new MessageCodec(true);
+    /**
+     * JSON编码,与旧版本订阅方兼容,生产方默认使用
+     */
+    public static final MessageCodec JSON_TEXT = new MessageCodec(false);
+
+    private final boolean binary;
+
+    private MessageCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public byte[] encode(RedisMessageModel message) {
+        if (!binary) {
+            // 与旧版本一致,不成对的代理字符按'?'编码(JSON.toJSONBytes会抛出异常)
+            return JSON.toJSONString(message).getBytes(StandardCharsets.UTF_8);
+        }
+        int flags = 0;
+        int size = 2;
+        if (message.getId() != null) {
+            flags |= ID;
+            size += 4;
+        }
+        if (message.getCreateTime() != null) {
+            flags |= CREATE_TIME;
+            size += 8;
+        }
+        if (message.getUpdateTime() != null) {
+            flags |= UPDATE_TIME;
+            size += 8;
+        }
+        // 先计算UTF-8长度,一次分配结果数组,字符直接编码到结果中
+        int contentLength = utf8Length(message.getContent());
+        int topicLength = utf8Length(message.getTopic());
+        int extraInfoLength = utf8Length(message.getExtraInfo());
+        if (contentLength >= 0) {
+            flags |= CONTENT;
+            size += varIntLength(contentLength) + contentLength;
+        }
+        if (topicLength >= 0) {
+            flags |= TOPIC;
+            size += varIntLength(topicLength) + topicLength;
+        }
+        if (extraInfoLength >= 0) {
+            flags |= EXTRA_INFO;
+            size += varIntLength(extraInfoLength) + extraInfoLength;
+        }
+
+        byte[] bytes = new byte[size];
+        bytes[0] = BINARY_MARKER;
+        bytes[1] = (byte) flags;
+        int pos = 2;
+        if (message.getId() != null) {
+            pos = writeLong(bytes, pos, message.getId(), 4);
+        }
+        if (message.getCreateTime() != null) {
+            pos = writeLong(bytes, pos, message.getCreateTime().getTime(), 8);
+        }
+        if (message.getUpdateTime() != null) {
+            pos = writeLong(bytes, pos, message.getUpdateTime().getTime(), 8);
+        }
+        pos = writeString(bytes, pos, message.getContent(), contentLength);
+        pos = writeString(bytes, pos, message.getTopic(), topicLength);
+        writeString(bytes, pos, message.getExtraInfo(), extraInfoLength);
+        return bytes;
+    }
+
+    @Override
+    public RedisMessageModel decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != BINARY_MARKER) {
+            return JSON.parseObject(bytes, RedisMessageModel.class);
+        }
+        RedisMessageModel message = new RedisMessageModel();
+        int flags = bytes[1];
+        int[] pos = {2};
+        if ((flags & ID) != 0) {
+            message.setId((int) readLong(bytes, pos, 4));
+        }
+        if ((flags & CREATE_TIME) != 0) {
+            message.setCreateTime(new Date(readLong(bytes, pos, 8)));
+        }
+        if ((flags & UPDATE_TIME) != 0) {
+            message.setUpdateTime(new Date(readLong(bytes, pos, 8)));
+        }
+        if ((flags & CONTENT) != 0) {
+            message.setContent(readString(bytes, pos));
+        }
+        if ((flags & TOPIC) != 0) {
+            message.setTopic(readString(bytes, pos));
+        }
+        if ((flags & EXTRA_INFO) != 0) {
+            message.setExtraInfo(readString(bytes, pos));
+        }
+        return message;
+    }
+
+    private static int writeLong(byte[] bytes, int pos, long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[pos++] = (byte) (value >>> (i * 8));
+        }
+        return pos;
+    }
+
+    private static long readLong(byte[] bytes, int[] pos, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (bytes[pos[0]++] & 0xFF);
+        }
+        return length == 4 ? (int) value : value;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * 字符串的UTF-8长度,null返回-1.不成对的代理字符按'?'编码,与String.getBytes一致
+     */
+    private static int utf8Length(String s) {
+        if (s == null) {
+            return -1;
+        }
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int writeString(byte[] bytes, int pos, String s, int length) {
+        if (s == null) {
+            return pos;
+        }
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            bytes[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[pos++] = (byte) value;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xC0 | (c >> 6));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                bytes[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[pos++] = '?';
+            } else {
+                bytes[pos++] = (byte) (0xE0 | (c >> 12));
+                bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    private static String readString(byte[] bytes, int[] pos) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[pos[0]++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        String s = new String(bytes, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return s;
+    }
+}
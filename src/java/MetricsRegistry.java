@@ -0,0 +1,19 @@
+/**
+ * 统计输出,由MetricsSampler在每次采样后调用.
+ * 接入其他监控系统时实现该接口,如把TopicStats的各项写入对应的gauge
+ */
+public interface MetricsRegistry {
+
+    /**
+     * 更新主题的统计
+     * @param stats 本次采样的统计快照
+     */
+    void update(TopicStats stats);
+
+    /**
+     * 主题不再采样时移除其统计
+     * @param topic 主题
+     */
+    default void remove(String topic) {
+    }
+}
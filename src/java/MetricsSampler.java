@@ -0,0 +1,186 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 主题统计采样
+ * 后台线程每intervalMillis读取一次主题的消息总数和各订阅方的索引(每个主题1 + 订阅方数次redis访问),
+ * 与上次采样比较得到发布和读取速率,生产方和订阅方的读写路径上没有任何额外开销.
+ * 速率和积压按redis中的数据计算,包括所有进程中的生产方和订阅方.
+ * 最早未读消息的发布时长按采样时间线估算:记录消息总数变化时的(时间, 消息总数),
+ * 订阅方索引之后的第一条消息不晚于消息总数首次超过索引的采样时间发布,精度为采样间隔,
+ * 采样开始之前发布的消息按采样开始时间计算
+ */
+public class MetricsSampler {
+    /**
+     * 每个主题最多保留的时间线记录数,超出时丢弃最早的记录
+     */
+    private static final int MAX_TIMELINE = 100000;
+
+    private final long intervalMillis;
+    /**
+     * 主题 -> 采样状态
+     */
+    private final Map<String, TopicSampler> topics = new ConcurrentHashMap<>();
+    private final List<MetricsRegistry> registries = new CopyOnWriteArrayList<>();
+    private volatile Thread thread;
+
+    /**
+     * @param intervalMillis 采样间隔
+     */
+    public MetricsSampler(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 采样主题和订阅方.采样只读取订阅方索引,不注册订阅方,尚未注册的订阅方不出现在统计中,注册后自动出现.
+     * 分区主题需注册每个分区(PartitionedProducer.partitionTopic)
+     * @param topic 主题
+     * @param engine 主题存储引擎
+     * @param subscribers 订阅方
+     */
+    public void register(String topic, TopicEngine engine, String... subscribers) {
+        topics.computeIfAbsent(topic, t -> new TopicSampler(t, engine.createStorage(t))).subscribers
+            .addAllAbsent(Arrays.asList(subscribers));
+    }
+
+    public void unregister(String topic) {
+        if (topics.remove(topic) != null) {
+            for (MetricsRegistry registry : registries) {
+                registry.remove(topic);
+            }
+        }
+    }
+
+    public void addRegistry(MetricsRegistry registry) {
+        registries.add(registry);
+    }
+
+    /**
+     * 采样所有主题一次并输出到所有MetricsRegistry
+     * @return 各主题的统计,采样失败的主题不包括在内
+     */
+    public List<TopicStats> sample() {
+        List<TopicStats> result = new ArrayList<>(topics.size());
+        for (TopicSampler sampler : topics.values()) {
+            TopicStats stats;
+            try {
+                stats = sampler.sample(System.currentTimeMillis());
+            } catch (Exception e) {
+                continue;
+            }
+            result.add(stats);
+            for (MetricsRegistry registry : registries) {
+                try {
+                    registry.update(stats);
+                } catch (Exception e) {
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 启动后台采样线程
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "redisMq-metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止后台采样线程
+     */
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * 单个主题的采样状态
+     */
+    private static class TopicSampler {
+        private final String topic;
+        private final QueueStorage storage;
+        private final CopyOnWriteArrayList<String> subscribers = new CopyOnWriteArrayList<>();
+        private long lastTime;
+        private long lastSize = -1;
+        private final Map<String, Long> lastOffsets = new HashMap<>();
+        /**
+         * 时间线,{采样时间, 消息总数},消息总数递增
+         */
+        private final ArrayDeque<long[]> timeline = new ArrayDeque<>();
+
+        private TopicSampler(String topic, QueueStorage storage) {
+            this.topic = topic;
+            this.storage = storage;
+        }
+
+        private synchronized TopicStats sample(long now) {
+            long size = storage.size();
+            double seconds = (now - lastTime) / 1000.0;
+            if (timeline.isEmpty() || timeline.peekLast()[1] < size) {
+                if (timeline.size() >= MAX_TIMELINE) {
+                    timeline.pollFirst();
+                }
+                timeline.addLast(new long[]{now, size});
+            }
+            List<SubscriberStats> subscriberStats = new ArrayList<>(subscribers.size());
+            long lowest = size;
+            for (String subscriber : subscribers) {
+                Long offset = storage.peekOffset(subscriber);
+                if (offset == null) {
+                    lastOffsets.remove(subscriber);
+                    continue;
+                }
+                Long lastOffset = lastOffsets.put(subscriber, offset);
+                double consumeRate = lastOffset == null || seconds <= 0 ? 0 : Math.max(0, offset - lastOffset) / seconds;
+                long lag = Math.max(0, size - offset);
+                subscriberStats.add(new SubscriberStats(topic, subscriber, offset, lag, consumeRate,
+                    lag == 0 ? 0 : now - publishedBefore(offset)));
+                lowest = Math.min(lowest, offset);
+            }
+            // 所有订阅方都已读取的记录不再需要,保留最后一条作为之后的起点
+            while (timeline.size() > 1 && timeline.peekFirst()[1] <= lowest) {
+                timeline.pollFirst();
+            }
+            double publishRate = lastSize < 0 || seconds <= 0 ? 0 : Math.max(0, size - lastSize) / seconds;
+            lastTime = now;
+            lastSize = size;
+            return new TopicStats(topic, now, size, publishRate, subscriberStats);
+        }
+
+        /**
+         * 消息offset + 1的发布时间上限:消息总数首次超过offset的采样时间
+         */
+        private long publishedBefore(long offset) {
+            Iterator<long[]> iterator = timeline.iterator();
+            long[] entry = iterator.next();
+            while (entry[1] <= offset && iterator.hasNext()) {
+                entry = iterator.next();
+            }
+            return entry[0];
+        }
+    }
+}
@@ -0,0 +1,425 @@
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多路复用的redis客户端
+ * 少量连接由一个IO线程通过Selector读写,任意线程提交的命令写入连接的待发送队列后立即返回future,
+ * IO线程把待发送的命令合并写出(pipeline),按发送顺序与回复一一对应.
+ * 1.同一线程的命令总是发往同一个连接,同一线程先后提交的命令按顺序执行
+ * 2.不支持阻塞命令、事务(WATCH/MULTI)和订阅,这些命令会占用连接或改变连接状态,需使用连接池
+ * 3.连接断开时未完成的命令以JedisConnectionException失败,之后的命令触发重连,
+ *   重连失败的RECONNECT_INTERVAL_MILLIS内提交的命令直接失败
+ * 4.IO线程因Selector异常退出后客户端不可再用(isClosed返回true),由调用方重新创建
+ */
+public class MultiplexedRedisClient {
+    /**
+     * 重连失败后的等待时间,IO线程也按此间隔检查超时
+     */
+    private static final long RECONNECT_INTERVAL_MILLIS = 1000;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] AUTH = SafeEncoder.encode("AUTH");
+
+    private final InetSocketAddress address;
+    private final String password;
+    private final long timeoutNanos;
+    private final Connection[] connections;
+    private final Selector selector;
+    /**
+     * 是否已唤醒IO线程,避免每次提交命令都调用selector.wakeup
+     */
+    private final AtomicBoolean wakeup = new AtomicBoolean();
+    private final Thread ioThread;
+    private volatile boolean closed;
+
+    /**
+     * @param host redis地址
+     * @param port 端口
+     * @param password 密码,为null时不认证
+     * @param timeoutMillis 已发送的命令超过该时间没有回复时断开连接
+     * @param connections 连接数
+     * @throws IOException
+     */
+    protected MultiplexedRedisClient(String host, int port, String password, int timeoutMillis, int connections)
+        throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.password = password;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection();
+        }
+        this.selector = Selector.open();
+        this.ioThread = new Thread(this::run, "redisMq-io");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * 提交命令
+     * @param args 命令和参数,如 GET key
+     * @return 回复: 简单字符串 -> String, 整数 -> Long, 批量字符串 -> byte[], 数组 -> List;
+     *         错误回复以JedisDataException失败,连接断开以JedisConnectionException失败
+     */
+    public CompletableFuture<Object> execute(byte[]... args) {
+        Request request = new Request(RespCodec.encode(args));
+        if (closed) {
+            request.future.completeExceptionally(new JedisConnectionException("client closed"));
+            return request.future;
+        }
+        Connection connection = connections[(int) (Thread.currentThread().getId() % connections.length)];
+        connection.pending.offer(request);
+        if (wakeup.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+        if (closed) {
+            // IO线程可能已退出,不会再处理该命令
+            request.future.completeExceptionally(new JedisConnectionException("client closed"));
+        }
+        return request.future;
+    }
+
+    /**
+     * 提交命令并等待回复
+     * @param timeoutMillis 最长等待时间
+     * @return 回复,见execute
+     * @throws Exception 错误回复、连接断开或超时
+     */
+    public Object executeAndWait(long timeoutMillis, byte[]... args) throws Exception {
+        try {
+            return execute(args).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * @return 是否已关闭或IO线程已退出
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 关闭连接,未完成的命令以JedisConnectionException失败
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            ioThread.join(RECONNECT_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                // 先清除唤醒标记再发送,之后提交的命令一定会再次唤醒select
+                wakeup.set(false);
+                long now = System.nanoTime();
+                for (Connection connection : connections) {
+                    try {
+                        connection.service(now);
+                    } catch (RuntimeException e) {
+                        // 单个连接的异常(如地址无法解析)只断开该连接,IO线程继续运行
+                        connection.disconnect(new JedisConnectionException(e));
+                        connection.failPending(new JedisConnectionException(e));
+                    }
+                }
+                selector.select(RECONNECT_INTERVAL_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((Connection) key.attachment()).handle(key);
+                }
+            }
+        } catch (Exception e) {
+        } finally {
+            closed = true;
+            JedisConnectionException cause = new JedisConnectionException("client closed");
+            for (Connection connection : connections) {
+                connection.disconnect(cause);
+                connection.failPending(cause);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static class Request {
+        private final byte[] command;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private long sentAt;
+
+        private Request(byte[] command) {
+            this.command = command;
+        }
+
+        private void complete(Object reply) {
+            if (reply instanceof JedisDataException) {
+                future.completeExceptionally((JedisDataException) reply);
+            } else {
+                future.complete(reply);
+            }
+        }
+    }
+
+    /**
+     * 一个连接的状态,除pending外只在IO线程中访问
+     */
+    private class Connection {
+        /**
+         * 已提交未发送的命令
+         */
+        private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * 已开始发送未收到回复的命令,按发送顺序
+         */
+        private final ArrayDeque<Request> inflight = new ArrayDeque<>();
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final RespCodec.ReplyParser parser = new RespCodec.ReplyParser();
+        private byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        private int readStart;
+        private int readLimit;
+        /**
+         * 正在复制到writeBuffer的命令,命令大于writeBuffer剩余空间时分多次复制
+         */
+        private byte[] writing;
+        private int writingOffset;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private boolean connected;
+        /**
+         * 下次允许重连的时间
+         */
+        private long reconnectAt = System.nanoTime();
+        private long connectAt;
+
+        /**
+         * IO线程每次循环调用:发送待发送的命令,按需重连,检查回复超时
+         */
+        private void service(long now) {
+            if (channel == null) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                if (now - reconnectAt < 0) {
+                    failPending(new JedisConnectionException("redis unavailable, reconnecting"));
+                    return;
+                }
+                connect(now);
+                return;
+            }
+            if (!connected) {
+                if (now - connectAt > timeoutNanos) {
+                    disconnect(new JedisConnectionException("connect timed out"));
+                    failPending(new JedisConnectionException("connect timed out"));
+                }
+                return;
+            }
+            Request oldest = inflight.peekFirst();
+            if (oldest != null && now - oldest.sentAt > timeoutNanos) {
+                disconnect(new JedisConnectionException("read timed out"));
+                return;
+            }
+            try {
+                flush(now);
+            } catch (IOException e) {
+                disconnect(new JedisConnectionException(e));
+            }
+        }
+
+        private void connect(long now) {
+            connectAt = now;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                connected = channel.connect(address);
+                key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+                if (password != null) {
+                    // 认证在所有命令之前发送,认证失败时之后的命令以NOAUTH错误失败
+                    Request auth = new Request(RespCodec.encode(AUTH, SafeEncoder.encode(password)));
+                    auth.sentAt = now;
+                    inflight.addLast(auth);
+                    writing = auth.command;
+                    writingOffset = 0;
+                }
+                if (connected) {
+                    flush(now);
+                }
+            } catch (IOException e) {
+                disconnect(new JedisConnectionException(e));
+                failPending(new JedisConnectionException(e));
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    if (!channel.finishConnect()) {
+                        return;
+                    }
+                    connected = true;
+                    key.interestOps(SelectionKey.OP_READ);
+                    flush(System.nanoTime());
+                    return;
+                }
+                if (key.isReadable()) {
+                    read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(System.nanoTime());
+                }
+            } catch (IOException e) {
+                disconnect(new JedisConnectionException(e));
+            } catch (RuntimeException e) {
+                // 无法解析的回复,连接上的回复顺序已不可信
+                disconnect(new JedisConnectionException(e));
+            }
+        }
+
+        /**
+         * 把待发送的命令合并复制到writeBuffer并写出,socket缓冲区已满时等待OP_WRITE
+         */
+        private void flush(long now) throws IOException {
+            while (true) {
+                if (writing == null) {
+                    Request request = pending.poll();
+                    if (request == null) {
+                        break;
+                    }
+                    request.sentAt = now;
+                    inflight.addLast(request);
+                    writing = request.command;
+                    writingOffset = 0;
+                }
+                int length = Math.min(writeBuffer.remaining(), writing.length - writingOffset);
+                writeBuffer.put(writing, writingOffset, length);
+                writingOffset += length;
+                if (writingOffset == writing.length) {
+                    writing = null;
+                }
+                if (!writeBuffer.hasRemaining() && !write()) {
+                    return;
+                }
+            }
+            write();
+        }
+
+        /**
+         * 写出writeBuffer
+         * @return 是否全部写出,未全部写出时关注OP_WRITE
+         */
+        private boolean write() throws IOException {
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            boolean done = !writeBuffer.hasRemaining();
+            writeBuffer.compact();
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return done;
+        }
+
+        /**
+         * 读取回复,每解析出一个完整的回复完成最早发送的命令
+         */
+        private void read() throws IOException {
+            while (true) {
+                if (readLimit == readBuffer.length) {
+                    if (readStart > 0) {
+                        System.arraycopy(readBuffer, readStart, readBuffer, 0, readLimit - readStart);
+                        readLimit -= readStart;
+                        readStart = 0;
+                    } else {
+                        byte[] larger = new byte[readBuffer.length * 2];
+                        System.arraycopy(readBuffer, 0, larger, 0, readLimit);
+                        readBuffer = larger;
+                    }
+                }
+                int n = channel.read(ByteBuffer.wrap(readBuffer, readLimit, readBuffer.length - readLimit));
+                if (n < 0) {
+                    throw new IOException("connection closed by redis");
+                }
+                if (n == 0) {
+                    return;
+                }
+                readLimit += n;
+                while (true) {
+                    readStart = parser.parse(readBuffer, readStart, readLimit);
+                    if (!parser.isComplete()) {
+                        break;
+                    }
+                    Request request = inflight.pollFirst();
+                    if (request == null) {
+                        throw new IOException("unexpected reply");
+                    }
+                    request.complete(parser.reply());
+                }
+                if (readStart == readLimit) {
+                    readStart = 0;
+                    readLimit = 0;
+                    if (readBuffer.length > READ_BUFFER_SIZE) {
+                        readBuffer = new byte[READ_BUFFER_SIZE];// 大回复之后释放扩大的缓冲区
+                    }
+                }
+            }
+        }
+
+        /**
+         * 关闭连接,已发送的命令失败,RECONNECT_INTERVAL_MILLIS之后才允许重连
+         */
+        private void disconnect(JedisConnectionException cause) {
+            if (channel != null) {
+                if (key != null) {
+                    key.cancel();
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                }
+                channel = null;
+                key = null;
+                connected = false;
+            }
+            reconnectAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECONNECT_INTERVAL_MILLIS);
+            Request request;
+            while ((request = inflight.pollFirst()) != null) {
+                request.future.completeExceptionally(cause);
+            }
+            writing = null;
+            writeBuffer.clear();
+            parser.reset();
+            readStart = 0;
+            readLimit = 0;
+        }
+
+        private void failPending(JedisConnectionException cause) {
+            Request request;
+            while ((request = pending.poll()) != null) {
+                request.future.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * 并行订阅方
+ * 消息按key(默认为extraInfo)哈希到固定数量的有序通道,相同key的消息在同一通道中按顺序处理,不同key的消息并行处理.
+ * 订阅方索引只前进到已处理完成的连续消息,未处理完成的消息在进程崩溃后会被重新读取.
+ * 同一个订阅方同一时间只能由一个ParallelConsumer读取
+ */
+public class ParallelConsumer {
+    /**
+     * 有已分发未完成的消息时,等待处理完成的最长时间
+     */
+    private static final long COMPLETION_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final QueueStorage storage;
+    private final String subscriber;
+    private final int lanes;
+    /**
+     * 每次读取的最大消息数
+     */
+    private int fetchSize = 100;
+    /**
+     * 已分发未完成的最大消息数
+     */
+    private int maxInFlight;
+    /**
+     * 消息key,相同key的消息按顺序处理,key为null的消息不保证顺序
+     */
+    private Function<RedisMessageModel, String> keyFunction = RedisMessageModel::getExtraInfo;
+    /**
+     * 消息解码,默认按格式标记识别二进制、JSON和压缩后的消息
+     */
+    private Codec<RedisMessageModel> codec = new CompressionCodec<>(MessageCodec.BINARY);
+
+    public ParallelConsumer(String topic, String subscriber, int lanes) {
+        this(topic, subscriber, TopicEngine.STRING, lanes);
+    }
+
+    public ParallelConsumer(String topic, String subscriber, TopicEngine engine, int lanes) {
+        this.storage = engine.createStorage(topic);
+        this.subscriber = subscriber;
+        this.lanes = lanes;
+        this.maxInFlight = lanes * fetchSize;
+    }
+
+    /**
+     * 并行消费.没有可读消息时等待生产方的发布通知,连续idleTimeout毫秒没有新消息且所有消息处理完成时返回
+     * @param callback 处理消息,在通道线程中执行
+     * @param idleTimeout 最长空闲时间(毫秒),小于等于0表示一直阻塞直到线程被中断.读取订阅方索引失败时直接返回
+     */
+    public void consume(Callback callback, long idleTimeout) {
+        Long offset = storage.offset(subscriber);
+        if (offset == null) {
+            return;
+        }
+        Thread dispatcher = Thread.currentThread();
+        ExecutorService[] executors = new ExecutorService[lanes];
+        for (int i = 0; i < lanes; i++) {
+            final int lane = i;
+            executors[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "redisMq-lane-" + subscriber + "-" + lane);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // 已分发的消息,按id顺序排列
+        ArrayDeque<Slot> inFlight = new ArrayDeque<>();
+        long committed = offset;
+        long next = committed + 1;
+        long idleSince = System.currentTimeMillis();
+        try {
+            while (!dispatcher.isInterrupted()) {
+                committed = commit(inFlight, committed);
+                if (inFlight.isEmpty()) {
+                    next = committed + 1;// 提交冲突后从存储中的索引继续读取
+                }
+                long sequence = storage.publishSequence();
+                int room = Math.min(fetchSize, maxInFlight - inFlight.size());
+                int count = room > 0 ? (int) Math.min(storage.size() - next + 1, room) : 0;
+                List<byte[]> values = count > 0 ? storage.range(next, count) : null;
+                if (values != null && !values.isEmpty()) {
+                    for (byte[] value : values) {
+                        Slot slot = new Slot(next++);
+                        inFlight.add(slot);
+                        if (value == null) {
+                            slot.done = true;// 已过期的消息直接跳过
+                            continue;
+                        }
+                        RedisMessageModel message = decode(value);
+                        if (message == null) {
+                            slot.done = true;// 无法解码的消息跳过,不阻塞后续消息的提交
+                            continue;
+                        }
+                        executors[lane(message, slot.id)].execute(() -> {
+                            try {
+                                callback.handle(message);
+                            } catch (Exception e) {
+                            } finally {
+                                slot.done = true;
+                                LockSupport.unpark(dispatcher);
+                            }
+                        });
+                    }
+                    idleSince = System.currentTimeMillis();
+                    continue;
+                }
+                if (!inFlight.isEmpty()) {
+                    LockSupport.parkNanos(COMPLETION_WAIT_NANOS);
+                    continue;
+                }
+                long remaining = idleTimeout > 0 ? idleSince + idleTimeout - System.currentTimeMillis() : Long.MAX_VALUE;
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    storage.awaitPublish(sequence, remaining);
+                } catch (InterruptedException e) {
+                    dispatcher.interrupt();
+                }
+            }
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+            }
+            for (ExecutorService executor : executors) {
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            commit(inFlight, committed);
+        }
+    }
+
+    /**
+     * 订阅方索引前进到已处理完成的连续消息
+     * @param inFlight 已分发的消息
+     * @param committed 当前索引
+     * @return 新的索引
+     */
+    private long commit(ArrayDeque<Slot> inFlight, long committed) {
+        long completed = committed;
+        int done = 0;
+        for (Slot slot : inFlight) {
+            if (!slot.done) {
+                break;
+            }
+            completed = slot.id;
+            done++;
+        }
+        if (completed == committed) {
+            return committed;
+        }
+        if (!storage.commit(subscriber, committed, completed)) {
+            // 索引已被其他客户端修改,以存储中的索引为准,已分发的消息不再提交
+            Consumer.COMMIT_CONFLICTS.increment();
+            inFlight.clear();
+            Long offset = storage.offset(subscriber);
+            return offset == null ? committed : offset;
+        }
+        for (int i = 0; i < done; i++) {
+            inFlight.pollFirst();
+        }
+        return completed;
+    }
+
+    /**
+     * 解码消息,失败返回null
+     */
+    private RedisMessageModel decode(byte[] value) {
+        RedisMessageModel message = null;
+        try {
+            message = codec.decode(value);
+        } catch (Exception e) {
+        }
+        if (message == null) {
+            Consumer.DECODE_ERRORS.increment();
+        }
+        return message;
+    }
+
+    private int lane(RedisMessageModel message, long id) {
+        String key = keyFunction.apply(message);
+        if (key == null) {
+            return (int) Math.floorMod(id, (long) lanes);
+        }
+        return Math.floorMod(key.hashCode(), lanes);
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setKeyFunction(Function<RedisMessageModel, String> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        this.codec = codec;
+    }
+
+    private static class Slot {
+        private final long id;
+        private volatile boolean done;
+
+        private Slot(long id) {
+            this.id = id;
+        }
+    }
+}
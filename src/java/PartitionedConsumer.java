@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分区主题的订阅方,只读取分配给自己的分区
+ * 同一订阅方的多个实例分配不相交的分区(见assign),各实例读取互不竞争,订阅方可以随分区数水平扩展.
+ * 每个分区有独立的订阅方索引,分区内的消息按顺序读取,不同分区的消息之间没有顺序.
+ * 阻塞消费多个分区时使用ConsumerContainer,每个分区一个订阅任务
+ */
+public class PartitionedConsumer {
+    private final String topic;
+    private final String subscriber;
+    private final TopicEngine engine;
+    private final int[] partitions;
+    private final Consumer[] consumers;
+    /**
+     * 下次首先读取的分区,各分区轮流优先读取,避免消息多的分区占满每批消息
+     */
+    private int next;
+
+    /**
+     * @param topic 主题
+     * @param subscriber 订阅方
+     * @param engine 主题存储引擎
+     * @param partitions 分配给当前实例的分区号
+     */
+    public PartitionedConsumer(String topic, String subscriber, TopicEngine engine, int... partitions) {
+        this.topic = topic;
+        this.subscriber = subscriber;
+        this.engine = engine;
+        this.partitions = partitions.clone();
+        this.consumers = new Consumer[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            consumers[i] = new Consumer(PartitionedProducer.partitionTopic(topic, partitions[i]), subscriber, engine);
+        }
+    }
+
+    /**
+     * 按实例序号平均分配分区,如8个分区3个实例: 实例0 -> 0,3,6 实例1 -> 1,4,7 实例2 -> 2,5
+     * @param partitions 分区数
+     * @param members 同一订阅方的实例数
+     * @param member 当前实例序号,0 ~ members-1
+     * @return 分配给当前实例的分区号
+     */
+    public static int[] assign(int partitions, int members, int member) {
+        int[] assigned = new int[(partitions - member + members - 1) / members];
+        for (int i = 0; i < assigned.length; i++) {
+            assigned[i] = member + i * members;
+        }
+        return assigned;
+    }
+
+    /**
+     * 从分配的分区中批量读取消息
+     * @param maxMessages 最多读取的消息数
+     * @return 读取到的消息,没有可读消息或没有分配分区时返回空列表
+     */
+    public List<RedisMessageModel> consume(int maxMessages) {
+        // 实例数多于分区数时部分实例分配不到分区(见assign)
+        if (consumers.length == 0) {
+            return Collections.emptyList();
+        }
+        List<RedisMessageModel> messages = null;
+        int start = next;
+        next = (next + 1) % consumers.length;
+        for (int i = 0; i < consumers.length; i++) {
+            int remaining = maxMessages - (messages == null ? 0 : messages.size());
+            if (remaining <= 0) {
+                break;
+            }
+            List<RedisMessageModel> partitionMessages = consumers[(start + i) % consumers.length].consume(remaining);
+            if (partitionMessages.isEmpty()) {
+                continue;
+            }
+            if (messages == null) {
+                messages = new ArrayList<>(partitionMessages);
+            } else {
+                messages.addAll(partitionMessages);
+            }
+        }
+        return messages == null ? Collections.emptyList() : messages;
+    }
+
+    /**
+     * 读取一条消息
+     * @return 没有可读消息时返回null
+     */
+    public RedisMessageModel consume() {
+        List<RedisMessageModel> messages = consume(1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * 逐条消费,直到所有分配的分区都没有可读消息
+     * @param callback 处理消息
+     */
+    public void consume(Callback callback) {
+        RedisMessageModel message;
+        while ((message = consume()) != null) {
+            try {
+                callback.handle(message);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * 批量消费,每批最多batchSize条消息,直到所有分配的分区都没有可读消息
+     * @param callback 批量处理消息
+     * @param batchSize 每批最大消息数
+     */
+    public void consumeBatch(BatchCallback callback, int batchSize) {
+        List<RedisMessageModel> messages;
+        while (!(messages = consume(batchSize)).isEmpty()) {
+            try {
+                callback.handle(messages);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    /**
+     * 在容器中阻塞消费分配的分区,每个分区一个订阅任务,分区内的消息按顺序处理
+     * @param container 订阅方容器
+     * @param callback 处理消息
+     */
+    public void subscribe(ConsumerContainer container, Callback callback) {
+        for (int partition : partitions) {
+            container.subscribe(PartitionedProducer.partitionTopic(topic, partition), subscriber, engine, callback);
+        }
+    }
+
+    /**
+     * 分配的分区中可读消息的总数
+     * @return
+     */
+    public int unreadMessages() {
+        int unread = 0;
+        for (Consumer consumer : consumers) {
+            unread += consumer.unreadMessages();
+        }
+        return unread;
+    }
+
+    public int[] partitions() {
+        return partitions.clone();
+    }
+
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        for (Consumer consumer : consumers) {
+            consumer.setCodec(codec);
+        }
+    }
+
+    /**
+     * 每个分区分别开启预读
+     * @param prefetch 每个分区预读的最大消息数,小于等于0表示关闭预读
+     */
+    public void setPrefetch(int prefetch) {
+        for (Consumer consumer : consumers) {
+            consumer.setPrefetch(prefetch);
+        }
+    }
+
+    /**
+     * 停止所有分区的预读
+     */
+    public void close() {
+        for (Consumer consumer : consumers) {
+            consumer.close();
+        }
+    }
+}
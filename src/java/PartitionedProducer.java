@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 分区主题的生产方
+ * 主题分为固定数量的分区,每个分区是一个独立的主题(topic#分区号),有自己的消息总数、消息和订阅方索引,
+ * 发布只竞争所在分区的消息总数.集群模式下各分区的hash tag不同,分布在不同的节点上.
+ * 消息id在分区内递增,不同分区的消息之间没有顺序
+ */
+public class PartitionedProducer {
+    private final Producer[] producers;
+    private final Partitioner partitioner;
+
+    /**
+     * 按extraInfo哈希分区
+     */
+    public PartitionedProducer(String topic, int partitions) {
+        this(topic, partitions, TopicEngine.STRING, Partitioner.byKey(RedisMessageModel::getExtraInfo));
+    }
+
+    /**
+     * @param topic 主题
+     * @param partitions 分区数,同一主题的生产方和订阅方必须使用相同的分区数
+     * @param engine 主题存储引擎
+     * @param partitioner 分区选择
+     */
+    public PartitionedProducer(String topic, int partitions, TopicEngine engine, Partitioner partitioner) {
+        this.producers = new Producer[partitions];
+        for (int i = 0; i < partitions; i++) {
+            producers[i] = new Producer(partitionTopic(topic, i), engine);
+        }
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * 分区对应的主题
+     * @param topic 主题
+     * @param partition 分区号
+     * @return 如 topic#0
+     */
+    protected static String partitionTopic(String topic, int partition) {
+        return topic + '#' + partition;
+    }
+
+    public boolean publish(RedisMessageModel message) {
+        return publish(message, Producer.DEFALUT_EXPIRETIME);
+    }
+
+    public boolean publish(RedisMessageModel message, int seconds) {
+        return producers[partitioner.partition(message, producers.length)].publish(message, seconds);
+    }
+
+    public CompletableFuture<Long> publishAsync(RedisMessageModel message) {
+        return publishAsync(message, Producer.DEFALUT_EXPIRETIME);
+    }
+
+    /**
+     * 异步发布消息,每个分区一个异步发送器
+     * @return 消息在分区内的id
+     */
+    public CompletableFuture<Long> publishAsync(RedisMessageModel message, int seconds) {
+        return producers[partitioner.partition(message, producers.length)].publishAsync(message, seconds);
+    }
+
+    public List<Long> publishAll(List<RedisMessageModel> messages) {
+        return publishAll(messages, Producer.DEFALUT_EXPIRETIME);
+    }
+
+    /**
+     * 批量发布消息,消息按分区分组后每个分区批量写入
+     * @return 每条消息在分区内的id,与messages一一对应,发布失败的消息id为null
+     */
+    public List<Long> publishAll(List<RedisMessageModel> messages, int seconds) {
+        int[] partitionOf = new int[messages.size()];
+        List<List<RedisMessageModel>> batches = new ArrayList<>(producers.length);
+        for (int i = 0; i < producers.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            partitionOf[i] = partitioner.partition(messages.get(i), producers.length);
+            batches.get(partitionOf[i]).add(messages.get(i));
+        }
+        List<List<Long>> partitionIds = new ArrayList<>(producers.length);
+        for (int i = 0; i < producers.length; i++) {
+            partitionIds.add(batches.get(i).isEmpty() ? null : producers[i].publishAll(batches.get(i), seconds));
+        }
+        // 按原顺序取回每条消息的id
+        int[] next = new int[producers.length];
+        Long[] ids = new Long[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            ids[i] = partitionIds.get(partitionOf[i]).get(next[partitionOf[i]]++);
+        }
+        return Arrays.asList(ids);
+    }
+
+    public int partitions() {
+        return producers.length;
+    }
+
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        for (Producer producer : producers) {
+            producer.setCodec(codec);
+        }
+    }
+
+    /**
+     * 关闭所有分区的异步发送器
+     */
+    public void close() {
+        for (Producer producer : producers) {
+            producer.close();
+        }
+    }
+}
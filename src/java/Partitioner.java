@@ -0,0 +1,40 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 分区主题的分区选择
+ */
+@FunctionalInterface
+public interface Partitioner {
+
+    /**
+     * 选择消息写入的分区
+     * @param message 消息
+     * @param partitions 分区数
+     * @return 分区号,0 ~ partitions-1
+     */
+    int partition(RedisMessageModel message, int partitions);
+
+    /**
+     * 轮询分区,消息均匀分布,不保证消息之间的顺序
+     * @return
+     */
+    static Partitioner roundRobin() {
+        AtomicInteger next = new AtomicInteger();
+        return (message, partitions) -> (next.getAndIncrement() & Integer.MAX_VALUE) % partitions;
+    }
+
+    /**
+     * 按key哈希分区,相同key的消息在同一分区中按发布顺序排列,key为null的消息轮询分区
+     * @param keyFunction 消息key,如 RedisMessageModel::getExtraInfo
+     * @return
+     */
+    static Partitioner byKey(Function<RedisMessageModel, String> keyFunction) {
+        Partitioner fallback = roundRobin();
+        return (message, partitions) -> {
+            String key = keyFunction.apply(message);
+            // String.hashCode的算法是固定的,不同JVM中相同key选择相同的分区
+            return key == null ? fallback.partition(message, partitions) : (key.hashCode() & Integer.MAX_VALUE) % partitions;
+        };
+    }
+}
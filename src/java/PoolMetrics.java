@@ -0,0 +1,95 @@
+/**
+ * 连接池统计快照
+ */
+public class PoolMetrics {
+    private final int active;
+    private final int idle;
+    private final int waiters;
+    private final int maxTotal;
+    private final long borrows;
+    private final long meanBorrowWaitNanos;
+    private final long maxBorrowWaitNanos;
+    private final long exhaustions;
+    private final long failures;
+
+    protected PoolMetrics(int active, int idle, int waiters, int maxTotal, long borrows,
+                          long meanBorrowWaitNanos, long maxBorrowWaitNanos, long exhaustions, long failures) {
+        this.active = active;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.maxTotal = maxTotal;
+        this.borrows = borrows;
+        this.meanBorrowWaitNanos = meanBorrowWaitNanos;
+        this.maxBorrowWaitNanos = maxBorrowWaitNanos;
+        this.exhaustions = exhaustions;
+        this.failures = failures;
+    }
+
+    /**
+     * 已借出的连接数
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * 空闲连接数
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * 正在等待空闲连接的线程数
+     */
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * 累计成功借用次数
+     */
+    public long getBorrows() {
+        return borrows;
+    }
+
+    /**
+     * 平均借用等待时间(纳秒),包括testOnBorrow的PING
+     */
+    public long getMeanBorrowWaitNanos() {
+        return meanBorrowWaitNanos;
+    }
+
+    /**
+     * 最长借用等待时间(纳秒)
+     */
+    public long getMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos;
+    }
+
+    /**
+     * 连接池耗尽(等待超时)次数
+     */
+    public long getExhaustions() {
+        return exhaustions;
+    }
+
+    /**
+     * 创建连接失败次数
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "active=" + active + "/" + maxTotal + " idle=" + idle + " waiters=" + waiters
+            + " borrows=" + borrows + " meanWait=" + meanBorrowWaitNanos / 1000 + "us"
+            + " maxWait=" + maxBorrowWaitNanos / 1000 + "us"
+            + " exhaustions=" + exhaustions + " failures=" + failures;
+    }
+}
@@ -0,0 +1,329 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 订阅方预读缓冲区
+ * 后台线程从订阅方索引之后读取消息放入本地有界队列,缓冲区中的消息数不超过lowWatermark时继续读取,
+ * 应用处理当前消息的同时预读后续消息,处理和网络延迟可以重叠.
+ * 预读不改变订阅方索引,消息交给调用方时才前进索引(比较并更新),
+ * 更新失败说明消息已被同一订阅方的其他客户端读取,清空缓冲区从新的索引重新预读.
+ * 访问redis时不持有lock,取出消息提交索引期间后台线程可以继续预读
+ */
+public class PrefetchBuffer {
+    /**
+     * 读取失败后重试的间隔
+     */
+    private static final long RETRY_INTERVAL_MILLIS = 100;
+    /**
+     * 读取订阅方索引失败,由后台线程重新读取
+     */
+    private static final long UNKNOWN_OFFSET = Long.MIN_VALUE;
+
+    private final QueueStorage storage;
+    private final String subscriber;
+    private final int capacity;
+    private final int lowWatermark;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 取出消息到提交索引完成期间持有,多个线程取出时按顺序提交
+     */
+    private final ReentrantLock takeLock = new ReentrantLock();
+    /**
+     * 有新消息放入缓冲区或预读发现没有新消息
+     */
+    private final Condition fetched = lock.newCondition();
+    /**
+     * 缓冲区消息数降到lowWatermark或需要从新的索引重新预读
+     */
+    private final Condition refill = lock.newCondition();
+    private final ArrayDeque<Entry> buffer;
+    /**
+     * 已交给调用方的最后一条消息id,即订阅方索引,读取失败时为UNKNOWN_OFFSET
+     */
+    private long committed;
+    /**
+     * 下一条预读的消息id
+     */
+    private long next;
+    /**
+     * 重置次数,重置前开始的预读结果丢弃
+     */
+    private long generation;
+    /**
+     * 是否有预读未完成.为false说明最近一次预读时没有新消息
+     */
+    private boolean fetching = true;
+    /**
+     * 放入缓冲区的次数,订阅方等待新消息前记录
+     */
+    private volatile long sequence;
+    private volatile boolean closed;
+    private final Thread thread;
+
+    protected PrefetchBuffer(QueueStorage storage, String subscriber, int capacity, int lowWatermark) {
+        this.storage = storage;
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.lowWatermark = Math.min(lowWatermark, capacity - 1);
+        this.buffer = new ArrayDeque<>(capacity);
+        Long offset = storage.offset(subscriber);
+        this.committed = offset == null ? UNKNOWN_OFFSET : offset;
+        this.next = committed + 1;
+        this.thread = new Thread(this::run, "redisMq-prefetch-" + subscriber);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 取出缓冲区中的消息并前进订阅方索引.缓冲区为空且有预读未完成时等待预读完成
+     * @param maxMessages 最多取出的消息数
+     * @return 消息内容(已过期的消息被跳过),没有可读消息时返回空列表
+     */
+    protected List<byte[]> take(int maxMessages) {
+        takeLock.lock();
+        try {
+            while (!closed) {
+                List<byte[]> messages;
+                long expected;
+                long last;
+                long takeGeneration;
+                lock.lock();
+                try {
+                    while (buffer.isEmpty() && fetching && !closed) {
+                        fetched.await();
+                    }
+                    if (buffer.isEmpty() || closed) {
+                        return Collections.emptyList();
+                    }
+                    messages = new ArrayList<>(Math.min(maxMessages, buffer.size()));
+                    expected = last = committed;
+                    while (messages.size() < maxMessages && !buffer.isEmpty()) {
+                        Entry entry = buffer.pollFirst();
+                        last = entry.id;
+                        if (entry.value != null) {
+                            messages.add(entry.value);
+                        }
+                    }
+                    if (buffer.size() <= lowWatermark) {
+                        refill.signal();
+                    }
+                    takeGeneration = generation;
+                } finally {
+                    lock.unlock();
+                }
+                if (!storage.commit(subscriber, expected, last)) {
+                    Consumer.COMMIT_CONFLICTS.increment();
+                    reset();// 索引已被其他客户端修改,从新的索引重新预读
+                    continue;
+                }
+                lock.lock();
+                try {
+                    // 提交期间缓冲区未被重置时才前进本地索引
+                    if (generation == takeGeneration) {
+                        committed = last;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!messages.isEmpty()) {
+                    return messages;
+                }
+                // 取出的消息均已过期,继续取后续消息
+            }
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    /**
+     * 从存储中的订阅方索引重新读取,后台线程可能正在等待发布通知,因此直接读取一次.
+     * 读取时不持有lock,之后的预读结果按generation丢弃.读取订阅方索引失败时由后台线程重试
+     */
+    private void reset() {
+        Long offset = storage.offset(subscriber);
+        if (offset == null) {
+            lock.lock();
+            try {
+                committed = UNKNOWN_OFFSET;
+                buffer.clear();
+                generation++;
+                fetching = true;
+                refill.signal();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        int count = (int) Math.min(storage.size() - offset, capacity);
+        List<byte[]> values = count > 0 ? storage.range(offset + 1, count) : null;
+        lock.lock();
+        try {
+            committed = offset;
+            next = offset + 1;
+            buffer.clear();
+            generation++;
+            if (values != null) {
+                for (byte[] value : values) {
+                    buffer.addLast(new Entry(next++, value));
+                }
+            }
+            refill.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 订阅方索引未知时重新读取
+     * @return 订阅方索引是否已知
+     */
+    private boolean resolveOffset() {
+        lock.lock();
+        try {
+            if (committed != UNKNOWN_OFFSET) {
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        reset();
+        lock.lock();
+        try {
+            if (committed != UNKNOWN_OFFSET) {
+                return true;
+            }
+            fetching = false;// 等待中的调用方返回空列表
+            fetched.signalAll();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            if (!resolveOffset()) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            long from;
+            int room;
+            long fetchGeneration;
+            lock.lock();
+            try {
+                while (!closed && buffer.size() > lowWatermark) {
+                    refill.await();
+                }
+                if (committed == UNKNOWN_OFFSET) {
+                    continue;// 等待期间被重置且读取订阅方索引失败
+                }
+                fetching = true;
+                from = next;
+                room = capacity - buffer.size();
+                fetchGeneration = generation;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            // 先记录通知次数再读取,读取之后发布的消息一定会唤醒等待
+            long publishSequence = storage.publishSequence();
+            List<byte[]> values = null;
+            try {
+                int count = (int) Math.min(storage.size() - from + 1, room);
+                values = count > 0 ? storage.range(from, count) : Collections.emptyList();
+            } catch (Exception e) {
+            }
+            lock.lock();
+            try {
+                if (fetchGeneration != generation) {
+                    continue;// 预读期间缓冲区被重置
+                }
+                if (!UtilCompare.isEmpty(values)) {
+                    for (byte[] value : values) {
+                        buffer.addLast(new Entry(next++, value));
+                    }
+                    sequence++;
+                    fetched.signalAll();
+                    continue;
+                }
+                fetching = false;
+                fetched.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                storage.awaitPublish(publishSequence, values == null ? RETRY_INTERVAL_MILLIS : Consumer.MAX_AWAIT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 放入缓冲区的次数
+     * @return
+     */
+    protected long sequence() {
+        return sequence;
+    }
+
+    /**
+     * 等待sequence之后有新消息放入缓冲区
+     * @param lastSequence 等待前记录的次数
+     * @param timeoutMillis 最长等待时间
+     * @throws InterruptedException
+     */
+    protected void await(long lastSequence, long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (sequence == lastSequence && nanos > 0 && !closed) {
+                nanos = fetched.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止预读,缓冲区中未取出的消息不会前进订阅方索引
+     */
+    protected void close() {
+        closed = true;
+        thread.interrupt();
+        lock.lock();
+        try {
+            fetched.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        private final long id;
+        /**
+         * 消息内容,已过期的消息为null
+         */
+        private final byte[] value;
+
+        private Entry(long id, byte[] value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -1,6 +1,8 @@
-import com.alibaba.fastjson.JSON;
-
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 生产方
@@ -8,23 +10,59 @@ import java.util.List;
 public class Producer {
     protected static final String TOPIC_MESSAGE_CACHETYPE = "queueId_message";
     protected static final String TOPIC_COUNT_CACHETYPE = "key_count";
+    protected static final String TOPIC_NOTIFY_CACHETYPE = "key_notify";
     /**
      * 默认过期时间1天
      */
     protected static final int DEFALUT_EXPIRETIME = 60 * 60 * 24;
+    /**
+     * 批量发布时每次脚本调用写入的最大消息数,避免单个脚本长时间阻塞redis
+     */
+    protected static final int PUBLISH_BATCH_SIZE = 1000;
+    /**
+     * 埋点,见Instrumentation
+     */
+    protected static final LatencyHistogram PUBLISH_LATENCY = Instrumentation.histogram("producer.publish");
+    protected static final LongAdder PUBLISHED_MESSAGES = Instrumentation.counter("producer.messages");
+    protected static final LongAdder PUBLISH_ROUND_TRIPS = Instrumentation.counter("producer.roundTrips");
 
     /**
-     * 主题总数队列
+     * 主题存储
+     */
+    private QueueStorage storage;
+    private String topic;
+    /**
+     * 消息编码,默认JSON编码,与旧版本订阅方兼容
+     */
+    private Codec<RedisMessageModel> codec = MessageCodec.JSON_TEXT;
+    /**
+     * 异步发送器,首次异步发布时创建
+     */
+    private volatile AsyncSender sender;
+    /**
+     * 异步发布每批最大消息数
+     */
+    private int asyncBatchSize = 500;
+    /**
+     * 异步发布时消息在缓冲区中等待凑批的最长时间(毫秒)
+     */
+    private long lingerMillis = 5;
+    /**
+     * 异步发布缓冲区大小(编码后的消息字节数)
      */
-    private RedisQueue countRedisQueue;
+    private int bufferMemory = 32 * 1024 * 1024;
     /**
-     * 主题消息队列
+     * 异步发布缓冲区满时调用方最长阻塞时间(毫秒),0表示立即失败
      */
-    private RedisQueue messageRedisQueue;
+    private long maxBlockMillis = 60 * 1000;
 
     public Producer(String topic) {
-        this.countRedisQueue = new RedisQueue(topic, TOPIC_COUNT_CACHETYPE);
-        this.messageRedisQueue = new RedisQueue(topic, TOPIC_MESSAGE_CACHETYPE);
+        this(topic, TopicEngine.STRING);
+    }
+
+    public Producer(String topic, TopicEngine engine) {
+        this.storage = engine.createStorage(topic);
+        this.topic = topic;
     }
 
     /**
@@ -41,36 +79,132 @@ public class Producer {
      * @param seconds 过期时间
      */
     public boolean publish(final RedisMessageModel message, int seconds) {
-        //在redis事务下发布相关消息
-        return exec(JSON.toJSONString(message), seconds) != null;
+        //原子发布消息
+        return exec(codec.encode(message), seconds) != null;
+    }
+
+    /**
+     * 异步发布消息,消息默认过期时间1天
+     * @param message 消息
+     * @return 消息id
+     */
+    public CompletableFuture<Long> publishAsync(final RedisMessageModel message) {
+        return publishAsync(message, DEFALUT_EXPIRETIME);
+    }
+
+    /**
+     * 异步发布消息,指定过期时间.消息在后台线程中与其他消息合并后一次写入
+     * @param message 消息
+     * @param seconds 过期时间
+     * @return 消息id,缓冲区满超过maxBlockMillis或写入失败时异常完成
+     */
+    public CompletableFuture<Long> publishAsync(final RedisMessageModel message, int seconds) {
+        return sender().send(codec.encode(message), seconds);
+    }
+
+    /**
+     * 关闭异步发送器,缓冲区中的消息发送完成后返回
+     */
+    public void close() {
+        AsyncSender current = sender;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private AsyncSender sender() {
+        AsyncSender current = sender;
+        if (current == null) {
+            synchronized (this) {
+                current = sender;
+                if (current == null) {
+                    current = new AsyncSender(storage, topic, asyncBatchSize, lingerMillis, bufferMemory, maxBlockMillis);
+                    sender = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 批量发布消息,消息默认过期时间1天
+     * @param messages 消息
+     * @return 每条消息的id,与messages一一对应,发布失败的消息id为null
+     */
+    public List<Long> publishAll(final List<RedisMessageModel> messages) {
+        return publishAll(messages, DEFALUT_EXPIRETIME);
+    }
+
+    /**
+     * 批量发布消息,指定整批消息的过期时间.每PUBLISH_BATCH_SIZE条消息一次网络往返
+     * @param messages 消息
+     * @param seconds 过期时间
+     * @return 每条消息的id,与messages一一对应,发布失败的消息id为null
+     */
+    public List<Long> publishAll(final List<RedisMessageModel> messages, int seconds) {
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (int from = 0; from < messages.size(); from += PUBLISH_BATCH_SIZE) {
+            int to = Math.min(from + PUBLISH_BATCH_SIZE, messages.size());
+            List<byte[]> batch = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                batch.add(codec.encode(messages.get(i)));
+            }
+            Long lastMessageId = exec(batch, seconds);
+            for (int i = from; i < to; i++) {
+                ids.add(lastMessageId == null ? null : lastMessageId - (to - 1 - i));
+            }
+        }
+        return ids;
     }
 
-    private List<Object> exec(final String message, int seconds) {
-        return RedisQueue.execOnSameRedisConn(redisTransaction -> {
-            //监控消息总条数.如果其他客户端进行了修改.则本次事务取消
-            redisTransaction.watch(countRedisQueue);
-            Integer lastMessageId = getNextMessageId();
-            redisTransaction.multi();
-            //记录消息总条数
-            redisTransaction.set(countRedisQueue, lastMessageId.toString());
-            //具体消息
-            redisTransaction.set(messageRedisQueue.cat(lastMessageId), message, seconds);
-            return redisTransaction.exec();
-        });
+    private Long exec(final byte[] message, int seconds) {
+        return exec(Collections.singletonList(message), seconds);
     }
 
     /**
-     * 获取下一条消息id
-     * @return
+     * 原子地预留一段连续的消息id并写入消息
+     * @param messages 消息
+     * @param seconds 过期时间
+     * @return 最后一条消息的id,失败返回null
      */
-    protected Integer getNextMessageId() {
-        final String slastMessageId = countRedisQueue.get();
-        Integer lastMessageId = 0;
-        if (slastMessageId != null) {
-            lastMessageId = Integer.parseInt(slastMessageId);
+    private Long exec(final List<byte[]> messages, int seconds) {
+        long startNanos = System.nanoTime();
+        long roundTrips = Instrumentation.roundTrips();
+        Long lastMessageId = storage.append(messages, seconds);
+        PUBLISH_LATENCY.recordSince(startNanos);
+        PUBLISH_ROUND_TRIPS.add(Instrumentation.roundTrips() - roundTrips);
+        if (lastMessageId != null) {
+            PUBLISHED_MESSAGES.add(messages.size());
         }
-        lastMessageId++;
         return lastMessageId;
     }
 
+    /**
+     * 设置消息编码.旧版本订阅方只能读取JSON,且读取时先前进索引再解析,无法解析的消息会丢失,
+     * 因此分两步升级: 先升级所有订阅方(新版本按格式标记识别JSON、二进制和压缩消息),
+     * 再在生产方设置MessageCodec.BINARY或压缩编码 new CompressionCodec<>(MessageCodec.BINARY, new DeflateCompressor())
+     * @param codec 消息编码
+     */
+    public void setCodec(Codec<RedisMessageModel> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * 以下异步发布参数需在首次异步发布前设置
+     */
+    public void setAsyncBatchSize(int asyncBatchSize) {
+        this.asyncBatchSize = Math.min(asyncBatchSize, PUBLISH_BATCH_SIZE);
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public void setBufferMemory(int bufferMemory) {
+        this.bufferMemory = bufferMemory;
+    }
+
+    public void setMaxBlockMillis(long maxBlockMillis) {
+        this.maxBlockMillis = maxBlockMillis;
+    }
 }
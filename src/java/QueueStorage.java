@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 主题存储.Producer/Consumer对主题的所有读写都通过该接口完成,
+ * 存储引擎由{@link TopicEngine}按主题选择
+ */
+public interface QueueStorage {
+
+    /**
+     * 预留一段连续的消息id并写入消息.预留和写入必须原子完成,订阅方不能读到已预留但未写入的id
+     * @param messages 编码后的消息内容
+     * @param seconds 过期时间(秒),小于等于0表示不过期,不支持过期的引擎忽略该参数
+     * @return 最后一条消息的id,失败返回null
+     */
+    Long append(List<byte[]> messages, int seconds);
+
+    /**
+     * 消息总数,即最后一条消息的id
+     * @return
+     */
+    long size();
+
+    /**
+     * 读取id从from开始的连续消息,不改变任何订阅方的索引
+     * @param from 第一条消息id
+     * @param count 最多读取的消息数
+     * @return 与id一一对应的消息内容,已过期的消息对应null;后续消息尚不可见时返回的条数少于count
+     */
+    List<byte[]> range(long from, int count);
+
+    /**
+     * 订阅方读取的最后一条消息id.新注册的订阅方初始化为只读取最后一条消息
+     * @param subscriber 订阅方
+     * @return 读取失败返回null
+     */
+    Long offset(String subscriber);
+
+    /**
+     * 订阅方读取的最后一条消息id,不初始化新订阅方(STREAM引擎不创建消费组),用于只读的统计
+     * @param subscriber 订阅方
+     * @return 订阅方尚未注册或读取失败时返回null
+     */
+    Long peekOffset(String subscriber);
+
+    /**
+     * 订阅方索引仍为expected时将其更新为update
+     * @param subscriber 订阅方
+     * @param expected 读取时的索引
+     * @param update 新的索引
+     * @return 是否更新成功,失败说明索引已被其他客户端修改
+     */
+    boolean commit(String subscriber, long expected, long update);
+
+    /**
+     * 读取订阅方的后续消息并前进索引
+     * @param subscriber 订阅方
+     * @param maxMessages 最多读取的消息数
+     * @return 读取到的消息内容(已过期的消息被跳过),没有可读消息时返回空列表,失败返回null
+     */
+    default List<byte[]> poll(String subscriber, int maxMessages) {
+        while (true) {
+            Long offset = offset(subscriber);
+            if (offset == null) {
+                return null;
+            }
+            int count = (int) Math.min(size() - offset, maxMessages);
+            if (count <= 0) {
+                return Collections.emptyList();
+            }
+            List<byte[]> values = range(offset + 1, count);
+            if (values == null) {
+                return null;
+            }
+            if (values.isEmpty()) {
+                return Collections.emptyList();// 后续消息已预留但尚未写入
+            }
+            if (!commit(subscriber, offset, offset + values.size())) {
+                Consumer.COMMIT_CONFLICTS.increment();
+                continue;// 索引已被其他客户端修改,重新读取
+            }
+            List<byte[]> messages = new ArrayList<>(values.size());
+            for (byte[] value : values) {
+                if (value != null) {
+                    messages.add(value);
+                }
+            }
+            if (messages.isEmpty()) {
+                continue;// 本段消息均已过期,继续读取后续消息
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * 当前的发布通知次数,等待新消息前记录
+     * @return
+     */
+    long publishSequence();
+
+    /**
+     * 等待sequence之后的发布通知
+     * @param sequence 等待前记录的发布通知次数
+     * @param timeoutMillis 最长等待时间
+     * @throws InterruptedException
+     */
+    void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * 删除所有订阅方都已读取或超过最长保留时间的消息,见RetentionManager.自行限制长度的存储不需要实现
+     * @param now 当前时间(毫秒)
+     * @param maxAgeMillis 最长保留时间,小于等于0表示只删除已读取的消息
+     * @param batchSize 最多删除的消息数
+     * @return 删除的消息数
+     */
+    default int compact(long now, long maxAgeMillis, int batchSize) {
+        return 0;
+    }
+}
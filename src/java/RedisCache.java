@@ -1,14 +1,25 @@
 import com.alibaba.fastjson.JSON;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.SafeEncoder;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.text.MessageFormat;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 /**
@@ -41,8 +52,26 @@ public class RedisCache {
     private static int TIMEOUT = 10000;
 
     private static boolean TEST_ON_BORROW = true;
-    private static JedisPool jedisPool = null;
-    private static Jedis jedis = null;
+    //连接管理，首次使用时创建，创建后修改连接配置不再生效
+    private static volatile RedisConnectionManager connectionManager = null;
+    //lua脚本 -> sha，脚本只在首次执行时加载一次，之后通过EVALSHA调用
+    private static final Map<String, String> SCRIPT_SHA_CACHE = new ConcurrentHashMap<>();
+    //是否通过多路复用客户端执行get/set/mget/del/exists/incr/publish、按编解码读写Object和lua脚本，事务和订阅仍使用连接池
+    private static boolean MULTIPLEXED = false;
+    //多路复用客户端的连接数
+    private static int MULTIPLEXED_CONNECTIONS = 2;
+    //多路复用客户端，首次使用时创建
+    private static volatile MultiplexedRedisClient multiplexedClient = null;
+    //集群节点，如 10.0.0.1:6379,10.0.0.2:6379，为空时使用单机模式（ADDR, PORT）
+    private static String CLUSTER_NODES = null;
+    //是否已有主题按当前模式生成了key，之后不能在单机和集群模式之间切换
+    private static volatile boolean CLUSTER_MODE_RESOLVED = false;
+    //多路复用命令 -> 延迟分布，key为命令的字节数组(按引用比较)
+    private static final Map<byte[], LatencyHistogram> MULTIPLEXED_HISTOGRAMS = new ConcurrentHashMap<>();
+    //吞掉的异常数，见Instrumentation
+    private static final LongAdder CONNECTION_ERRORS = Instrumentation.counter("redis.errors.connection");
+    private static final LongAdder REDIRECTION_ERRORS = Instrumentation.counter("redis.errors.redirection");
+    private static final LongAdder OTHER_ERRORS = Instrumentation.counter("redis.errors.other");
 
     public static String getDefaultKeyPrefix() {
         return DEFAULT_KEY_PREFIX;
@@ -52,13 +81,138 @@ public class RedisCache {
         DEFAULT_KEY_PREFIX = redisKeyPrefix;
     }
 
-    private synchronized static void init() {
-        JedisPoolConfig config = new JedisPoolConfig();
-        config.setMaxIdle(MAX_IDLE);
-        config.setMaxWaitMillis(MAX_WAIT);
-        config.setTestOnBorrow(TEST_ON_BORROW);
-        config.setMaxTotal(MAX_ACTIVE);
-        jedisPool = new JedisPool(config, ADDR, PORT, TIMEOUT, AUTH);
+    /**
+     * 创建连接池，已创建时直接返回。配置注入完成后可主动调用，避免首次请求时创建
+     *
+     * @return
+     */
+    public static RedisConnectionManager init() {
+        RedisConnectionManager manager = connectionManager;
+        if (manager == null) {
+            synchronized (RedisCache.class) {
+                manager = connectionManager;
+                if (manager == null) {
+                    JedisPoolConfig config = new JedisPoolConfig();
+                    config.setMaxIdle(MAX_IDLE);
+                    config.setMaxWaitMillis(MAX_WAIT);
+                    config.setTestOnBorrow(TEST_ON_BORROW);
+                    config.setMaxTotal(MAX_ACTIVE);
+                    if (isCluster()) {
+                        Set<HostAndPort> nodes = new HashSet<>();
+                        for (String node : CLUSTER_NODES.split(",")) {
+                            String[] hostAndPort = node.trim().split(":");
+                            nodes.add(new HostAndPort(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+                        }
+                        manager = new RedisConnectionManager(config, nodes, TIMEOUT, AUTH);
+                    } else {
+                        manager = new RedisConnectionManager(config, ADDR, PORT, TIMEOUT, AUTH);
+                    }
+                    connectionManager = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * 连接池统计：借用等待时间、活跃/空闲连接数、连接池耗尽次数
+     *
+     * @return
+     */
+    public static PoolMetrics getPoolMetrics() {
+        return init().metrics();
+    }
+
+    /**
+     * 获取多路复用客户端，已创建时直接返回，IO线程异常退出后重新创建。可直接提交命令得到future，不阻塞调用线程
+     *
+     * @return
+     */
+    public static MultiplexedRedisClient getMultiplexedClient() throws IOException {
+        MultiplexedRedisClient client = multiplexedClient;
+        if (client == null || client.isClosed()) {
+            synchronized (RedisCache.class) {
+                client = multiplexedClient;
+                if (client == null || client.isClosed()) {
+                    client = new MultiplexedRedisClient(ADDR, PORT, AUTH, TIMEOUT, MULTIPLEXED_CONNECTIONS);
+                    multiplexedClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * 是否通过多路复用客户端执行命令，多路复用客户端不按slot路由，集群模式下不使用
+     *
+     * @return
+     */
+    public static boolean isMultiplexed() {
+        return MULTIPLEXED && !isCluster();
+    }
+
+    /**
+     * 是否为集群模式，集群模式下主题的key带有{topic}形式的hash tag，同一主题的key在同一个slot
+     *
+     * @return
+     */
+    public static boolean isCluster() {
+        return isCluster(CLUSTER_NODES);
+    }
+
+    private static boolean isCluster(String clusterNodes) {
+        return clusterNodes != null && !clusterNodes.trim().isEmpty();
+    }
+
+    /**
+     * 主题生成key时调用，返回是否为集群模式，之后setClusterNodes不能再切换模式
+     *
+     * @return
+     */
+    protected static synchronized boolean resolveClusterMode() {
+        CLUSTER_MODE_RESOLVED = true;
+        return isCluster();
+    }
+
+    /**
+     * 通过多路复用客户端执行命令并等待回复，最长等待TIMEOUT
+     *
+     * @param args 命令和参数
+     * @return 回复，错误回复、连接断开或超时抛出异常
+     */
+    private static Object execute(byte[]... args) throws Exception {
+        long startNanos = System.nanoTime();
+        try {
+            return getMultiplexedClient().executeAndWait(TIMEOUT, args);
+        } catch (Exception e) {
+            countException(e);
+            throw e;
+        } finally {
+            Instrumentation.recordRedis(multiplexedHistogram(args[0]), startNanos);
+        }
+    }
+
+    /**
+     * 多路复用命令的延迟分布，按命令的字节数组(Protocol.Command.X.raw为常量)查找，不分配对象
+     */
+    private static LatencyHistogram multiplexedHistogram(byte[] command) {
+        LatencyHistogram histogram = MULTIPLEXED_HISTOGRAMS.get(command);
+        return histogram != null ? histogram : MULTIPLEXED_HISTOGRAMS.computeIfAbsent(command,
+            c -> Instrumentation.histogram("redis.multiplexed." + SafeEncoder.encode(c).toLowerCase()));
+    }
+
+    /**
+     * 记录连接池操作的耗时和第一个命令的redis往返,之后的命令在发送前调用Instrumentation.roundTrip.
+     * 未获取到连接时没有发送命令,不记录
+     *
+     * @param operation  埋点名称
+     * @param startNanos 操作开始时的System.nanoTime()
+     * @param jedis      操作使用的连接
+     */
+    private static void record(String operation, long startNanos, Jedis jedis) {
+        if (jedis != null) {
+            Instrumentation.recordRedis(Instrumentation.histogram(operation), startNanos);
+        }
     }
 
 
@@ -155,17 +309,26 @@ public class RedisCache {
      */
     private static String set(String fullKey, String value, int expireSeconds) {
         String result = "FAIL";
+        if (isMultiplexed()) {
+            try {
+                result = (String) (expireSeconds > 0
+                    ? execute(Protocol.Command.SETEX.raw, SafeEncoder.encode(fullKey), Protocol.toByteArray(expireSeconds), SafeEncoder.encode(value))
+                    : execute(Protocol.Command.SET.raw, SafeEncoder.encode(fullKey), SafeEncoder.encode(value)));
+            } catch (Exception e) {
+            }
+            return result;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
-                result = jedis.set(fullKey, value);
-                if (expireSeconds > 0) {
-                    jedis.expire(fullKey, expireSeconds);
-                }
+                result = expireSeconds > 0 ? jedis.setex(fullKey, expireSeconds, value) : jedis.set(fullKey, value);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.set", startNanos, jedis);
             if (null != jedis) {
                 jedis.close();
             }
@@ -184,16 +347,20 @@ public class RedisCache {
     private static String setByExpireAt(String fullKey, String value, int expireSeconds) {
         String result = "FAIL";
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 result = jedis.set(fullKey, value);
                 if (expireSeconds > 0) {
+                    Instrumentation.roundTrip();
                     jedis.expireAt(fullKey, expireSeconds);
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.setByExpireAt", startNanos, jedis);
             if (null != jedis) {
                 jedis.close();
             }
@@ -251,6 +418,52 @@ public class RedisCache {
         return setObjByExpireAt(generateFullKey(cacheType, key), value, expireSeconds);
     }
 
+    /**
+     * 按指定编解码设置Object
+     *
+     * @param prefix:       前缀，表示项目模块，如dw:dfs:web
+     * @param cacheType:    缓存类型，如 userId_userName, 表达了存储的key是什么类型，value是什么类型
+     * @param key:          key值，如2
+     * @param value:        存储数据
+     * @param codec:        编解码，如 MessageCodec.BINARY
+     * @param expireSeconds
+     * @return 成功 返回OK 失败返回 FAIL
+     */
+    public static <T> String setObj(String prefix, String cacheType, String key, T value, Codec<T> codec, int expireSeconds) {
+        String result = "FAIL";
+        if (isMultiplexed()) {
+            try {
+                byte[] bs = codec.encode(value);
+                if (bs != null) {
+                    byte[] fullKey = SafeEncoder.encode(generateFullKey(prefix, cacheType, key));
+                    result = (String) (expireSeconds > 0
+                        ? execute(Protocol.Command.SETEX.raw, fullKey, Protocol.toByteArray(expireSeconds), bs)
+                        : execute(Protocol.Command.SET.raw, fullKey, bs));
+                }
+            } catch (Exception e) {
+            }
+            return result;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            byte[] fullKey = SafeEncoder.encode(generateFullKey(prefix, cacheType, key));
+            jedis = getJedis(fullKey);
+            byte[] bs = codec.encode(value);
+            if (bs != null) {
+                result = expireSeconds > 0 ? jedis.setex(fullKey, expireSeconds, bs) : jedis.set(fullKey, bs);
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.setObj", startNanos, jedis);
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        return result;
+    }
+
     /**
      * 设置Object，并设置超时时间
      *
@@ -262,17 +475,17 @@ public class RedisCache {
     private static String setObj(String fullKey, Object value, int expireTime) {
         String result = "FAIL";
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             byte[] bs = serialize(value);
             if (bs != null) {
-                result = jedis.set(fullKey.getBytes(), bs);
-                if (expireTime > 0) {
-                    jedis.expire(fullKey, expireTime);
-                }
+                result = expireTime > 0 ? jedis.setex(fullKey.getBytes(), expireTime, bs) : jedis.set(fullKey.getBytes(), bs);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.setObj", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -291,17 +504,21 @@ public class RedisCache {
     private static String setObjByExpireAt(String fullKey, Object value, long expireTime) {
         String result = "FAIL";
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             byte[] bs = serialize(value);
             if (bs!=null) {
                 result = jedis.set(fullKey.getBytes(), bs);
                 if (expireTime > 0) {
+                    Instrumentation.roundTrip();
                     jedis.expireAt(fullKey, expireTime);
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.setObjByExpireAt", startNanos, jedis);
             if (jedis!=null) {
                 jedis.close();
             }
@@ -339,14 +556,136 @@ public class RedisCache {
      * @return
      */
     private static String get(String fullKey) {
+        if (isMultiplexed()) {
+            try {
+                byte[] value = (byte[]) execute(Protocol.Command.GET.raw, SafeEncoder.encode(fullKey));
+                return value == null ? null : SafeEncoder.encode(value);
+            } catch (Exception e) {
+            }
+            return null;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 return jedis.get(fullKey);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.get", startNanos, jedis);
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取二进制值
+     *
+     * @param fullKey: 完整的key
+     * @return 不存在或失败返回null
+     */
+    public static byte[] get(byte[] fullKey) {
+        if (isMultiplexed()) {
+            try {
+                return (byte[]) execute(Protocol.Command.GET.raw, fullKey);
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis(fullKey);
+            if (jedis != null) {
+                return jedis.get(fullKey);
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.get", startNanos, jedis);
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 批量获取缓存的值
+     *
+     * @param fullKeys: 完整的key如 dw:dfs:web:fileId_fileUid:2
+     * @return 与fullKeys一一对应的值，不存在的key对应null，失败返回null
+     */
+    public static List<String> mget(String... fullKeys) {
+        if (isMultiplexed()) {
+            try {
+                byte[][] keys = new byte[fullKeys.length][];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = SafeEncoder.encode(fullKeys[i]);
+                }
+                List<byte[]> values = mget(keys);
+                if (values != null) {
+                    List<String> result = new ArrayList<>(values.size());
+                    for (byte[] value : values) {
+                        result.add(value == null ? null : SafeEncoder.encode(value));
+                    }
+                    return result;
+                }
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis(fullKeys[0]);
+            if (jedis != null) {
+                return jedis.mget(fullKeys);
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.mget", startNanos, jedis);
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 批量获取二进制值
+     *
+     * @param fullKeys: 完整的key
+     * @return 与fullKeys一一对应的值，不存在的key对应null，失败返回null
+     */
+    @SuppressWarnings("unchecked")
+    public static List<byte[]> mget(byte[]... fullKeys) {
+        if (isMultiplexed()) {
+            try {
+                byte[][] args = new byte[fullKeys.length + 1][];
+                args[0] = Protocol.Command.MGET.raw;
+                System.arraycopy(fullKeys, 0, args, 1, fullKeys.length);
+                return (List<byte[]>) (List<?>) execute(args);
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis(fullKeys[0]);
+            if (jedis != null) {
+                return jedis.mget(fullKeys);
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.mget", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -373,6 +712,48 @@ public class RedisCache {
         return getObj(generateFullKey(prefix, cacheType, key));
     }
 
+    /**
+     * 按指定编解码获取Object
+     *
+     * @param prefix:   前缀，表示项目模块，如dw:dfs:web
+     * @param cacheType
+     * @param key
+     * @param codec:    编解码，需与写入时一致或能识别写入时的格式
+     * @return 成功返回value 失败返回null
+     */
+    public static <T> T getObj(String prefix, String cacheType, String key, Codec<T> codec) {
+        if (isMultiplexed()) {
+            try {
+                byte[] value = get(SafeEncoder.encode(generateFullKey(prefix, cacheType, key)));
+                if (value != null) {
+                    return codec.decode(value);
+                }
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            byte[] fullKey = SafeEncoder.encode(generateFullKey(prefix, cacheType, key));
+            jedis = getJedis(fullKey);
+            if (jedis != null) {
+                byte[] value = jedis.get(fullKey);
+                if (value != null) {
+                    return codec.decode(value);
+                }
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.getObj", startNanos, jedis);
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        return null;
+    }
+
     /**
      * 获取Object
      *
@@ -381,8 +762,9 @@ public class RedisCache {
      */
     private static Object getObj(String fullKey) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 byte[] value = jedis.get(fullKey.getBytes());
                 if (value != null) {
@@ -390,7 +772,9 @@ public class RedisCache {
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.getObj", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -425,15 +809,26 @@ public class RedisCache {
      */
     private static boolean del(String fullKey) {
         Boolean result = Boolean.FALSE;
+        if (isMultiplexed()) {
+            try {
+                execute(Protocol.Command.DEL.raw, SafeEncoder.encode(fullKey));
+                result = Boolean.TRUE;
+            } catch (Exception e) {
+            }
+            return result;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 jedis.del(fullKey);
                 result = Boolean.TRUE;
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.del", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -476,13 +871,16 @@ public class RedisCache {
     private static Long append(String fullKey, String value) {
         Long result = Long.valueOf(0);
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 result = jedis.append(fullKey, value);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.append", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -519,14 +917,24 @@ public class RedisCache {
      */
     private static Boolean exists(String fullKey) {
         Boolean result = Boolean.FALSE;
+        if (isMultiplexed()) {
+            try {
+                result = (Long) execute(Protocol.Command.EXISTS.raw, SafeEncoder.encode(fullKey)) > 0;
+            } catch (Exception e) {
+            }
+            return result;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(fullKey);
             if (jedis != null) {
                 result = jedis.exists(fullKey);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.exists", startNanos, jedis);
             if (jedis != null) {
                 jedis.close();
             }
@@ -548,6 +956,28 @@ public class RedisCache {
                 jedis.subscribe(subscriber, channelName);
             }
         } catch (Exception e) {
+            handleException(e);
+        } finally {
+            if (null != jedis)
+                jedis.close();
+        }
+    }
+
+    /**
+     * 按模式订阅频道
+     *
+     * @param subscriber 消息订阅者
+     * @param pattern    频道模式，如 redisMq:*:key_notify:*
+     */
+    public static void psubscribe(JedisPubSub subscriber, String pattern) {
+        Jedis jedis = null;
+        try {
+            jedis = getJedis();
+            if (null != jedis) {
+                jedis.psubscribe(subscriber, pattern);
+            }
+        } catch (Exception e) {
+            handleException(e);
         } finally {
             if (null != jedis)
                 jedis.close();
@@ -562,14 +992,24 @@ public class RedisCache {
      */
     public static Long publish(String channel, String msg) {
         Long result = 0L;
+        if (isMultiplexed()) {
+            try {
+                result = (Long) execute(Protocol.Command.PUBLISH.raw, SafeEncoder.encode(channel), SafeEncoder.encode(msg));
+            } catch (Exception e) {
+            }
+            return result;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             if (null != jedis) {
                 result = jedis.publish(channel, msg);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.publish", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -608,13 +1048,16 @@ public class RedisCache {
     private static String hget(String key, String field) {
         String result = null;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hget(key, field);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hget", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -671,16 +1114,20 @@ public class RedisCache {
     private static Long hset(String key, String field, String value, int expireTime) {
         Long result = -1L;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hset(key, field, value);
                 if (expireTime > 0) {
+                    Instrumentation.roundTrip();
                     jedis.expire(key, expireTime);
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hset", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -710,16 +1157,20 @@ public class RedisCache {
     private static Long hsetnx(String key, String field, String value, int expireTime) {
         Long result = 0L;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hsetnx(key, field, value);
                 if (expireTime > 0) {
+                    Instrumentation.roundTrip();
                     jedis.expire(key, expireTime);
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hsetnx", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -752,13 +1203,16 @@ public class RedisCache {
     private static Set<String> hkeys(String key) {
         Set<String> result = null;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hkeys(key);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hkeys", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -789,13 +1243,16 @@ public class RedisCache {
     private static Map<String, String> hgetAll(String key) {
         Map<String, String> result = null;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hgetAll(key);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hgetAll", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -822,13 +1279,16 @@ public class RedisCache {
     private static Long hdel(String key, String field) {
         Long result = 0L;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hdel(key, field);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hdel", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -862,20 +1322,27 @@ public class RedisCache {
     private static Boolean lock(String key, int expireTime) {
         Boolean result = false;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             // 防止线程饥饿
             for (int times = expireTime * 100; times > 0; times--) {
                 Long status = jedis.setnx(key, "lock");
                 if (1 == status) {
+                    Instrumentation.roundTrip();
                     jedis.expire(key, expireTime);
                     result = true;
                     break;
                 }
                 Thread.sleep(10L);
+                if (times > 1) {
+                    Instrumentation.roundTrip();
+                }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.lock", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -885,12 +1352,15 @@ public class RedisCache {
     private static Boolean unlock(String key) {
         Boolean result = false;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             jedis.del(key);
             result = true;
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.unlock", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -916,14 +1386,17 @@ public class RedisCache {
      */
     private static Boolean hexists(String key, String field) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Boolean result = false;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.hexists(key, field);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.hexists", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -985,14 +1458,17 @@ public class RedisCache {
      */
     private static Long lpush(String key, String... items) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Long result = 0L;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.lpush(key, items);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.lpush", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1005,14 +1481,17 @@ public class RedisCache {
      */
     private static String lpop(String key) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         String result = "";
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.lpop(key);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.lpop", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1026,14 +1505,17 @@ public class RedisCache {
      */
     private static Long rpush(String key, String... items) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Long result = 0L;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.rpush(key, items);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.rpush", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1046,14 +1528,17 @@ public class RedisCache {
      */
     private static String rpop(String key) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         String result = "";
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.rpop(key);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.rpop", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1068,15 +1553,18 @@ public class RedisCache {
      */
     private static List<String> lrange(String key, long start, long end) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         List<String> result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.lrange(key, start, end);
                 jedis.ltrim(key, start, end);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.lrange", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1099,14 +1587,17 @@ public class RedisCache {
 
     private static Double zincrby(String key, double score, String member) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Double result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.zincrby(key, score, member);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.zincrby", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1128,14 +1619,17 @@ public class RedisCache {
 
     private static Double zscore(String key, String member) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Double result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.zscore(key, member);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.zscore", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1158,14 +1652,17 @@ public class RedisCache {
 
     private static Set<Tuple> zrangeWithScores(String key, int start, int end) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Set<Tuple> result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.zrangeWithScores(key, start, end);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.zrangeWithScores", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1188,14 +1685,54 @@ public class RedisCache {
 
     private static Long zadd(String key, double score, String member) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Long result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.zadd(key, score, member);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.zadd", startNanos, jedis);
+            if (null != jedis)
+                jedis.close();
+        }
+        return result;
+    }
+
+    /**
+     * 按模式遍历key(SCAN)，不阻塞redis，集群模式下只遍历routingKey所在的节点
+     *
+     * @param routingKey 完整的key，与匹配的key使用相同的hash tag
+     * @param pattern    key模式
+     * @return 匹配的key，失败返回null
+     */
+    public static List<String> scan(byte[] routingKey, String pattern) {
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        List<String> result = null;
+        try {
+            jedis = getJedis(routingKey);
+            if (null != jedis) {
+                ScanParams params = new ScanParams().match(pattern).count(1000);
+                List<String> keys = new ArrayList<>();
+                String cursor = ScanParams.SCAN_POINTER_START;
+                do {
+                    ScanResult<String> scanResult = jedis.scan(cursor, params);
+                    keys.addAll(scanResult.getResult());
+                    cursor = scanResult.getStringCursor();
+                    if (!ScanParams.SCAN_POINTER_START.equals(cursor)) {
+                        Instrumentation.roundTrip();
+                    }
+                } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+                result = keys;
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.scan", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1215,15 +1752,25 @@ public class RedisCache {
     }
 
     private static Long incr(String key) {
+        if (isMultiplexed()) {
+            try {
+                return (Long) execute(Protocol.Command.INCR.raw, SafeEncoder.encode(key));
+            } catch (Exception e) {
+            }
+            return null;
+        }
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         Long result = null;
         try {
-            jedis = getJedis();
+            jedis = getJedis(key);
             if (null != jedis) {
                 result = jedis.incr(key);
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.incr", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1236,21 +1783,239 @@ public class RedisCache {
      * @return
      */
     public static <R> R execOnSameRedisConn(Function<RedisTransaction, R> function) {
+        return execOnSameRedisConn((byte[]) null, function);
+    }
+
+    /**
+     * 同一个redis连接的一系列操作，集群模式下连接为routingKey所在的节点，
+     * 事务中的key需与routingKey在同一个slot(使用相同的hash tag)
+     *
+     * @param routingKey 完整的key，为null时使用任意节点的连接
+     * @return
+     */
+    public static <R> R execOnSameRedisConn(byte[] routingKey, Function<RedisTransaction, R> function) {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         R result = null;
         try {
-            jedis = getJedis();
+            jedis = routingKey == null ? getJedis() : getJedis(routingKey);
             if (null != jedis) {
                 result = function.apply(new RedisTransaction(jedis));
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            Instrumentation.histogram("redis.transaction").recordSince(startNanos);
             if (null != jedis)
                 jedis.close();
         }
         return result;
     }
 
+    /**
+     * 执行lua脚本，脚本首次执行时通过SCRIPT LOAD加载并缓存sha，之后只传sha(EVALSHA)
+     *
+     * @param script lua脚本
+     * @param keys   脚本中用到的完整key
+     * @param args   脚本参数
+     * @return 脚本返回值，执行失败返回null
+     */
+    public static Object evalScript(String script, List<String> keys, List<String> args) {
+        if (isMultiplexed()) {
+            try {
+                List<byte[]> binaryKeys = new ArrayList<>(keys.size());
+                for (String key : keys) {
+                    binaryKeys.add(SafeEncoder.encode(key));
+                }
+                List<byte[]> binaryArgs = new ArrayList<>(args.size());
+                for (String arg : args) {
+                    binaryArgs.add(SafeEncoder.encode(arg));
+                }
+                // 与Jedis.evalsha(String...)一致，批量字符串转为String
+                return toStringReply(evalMultiplexed(script, binaryKeys, binaryArgs));
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        Object result = null;
+        try {
+            jedis = keys.isEmpty() ? getJedis() : getJedis(keys.get(0));
+            if (null != jedis) {
+                result = evalScript(jedis, script, keys, args);
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.evalScript", startNanos, jedis);
+            if (null != jedis)
+                jedis.close();
+        }
+        return result;
+    }
+
+    private static Object evalScript(Jedis jedis, String script, List<String> keys, List<String> args) {
+        String sha = SCRIPT_SHA_CACHE.get(script);
+        if (sha == null) {
+            sha = jedis.scriptLoad(script);
+            SCRIPT_SHA_CACHE.put(script, sha);
+            Instrumentation.roundTrip();
+        }
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            // redis重启或执行了SCRIPT FLUSH，脚本缓存丢失，重新加载
+            Instrumentation.roundTrip();
+            sha = jedis.scriptLoad(script);
+            SCRIPT_SHA_CACHE.put(script, sha);
+            Instrumentation.roundTrip();
+            return jedis.evalsha(sha, keys, args);
+        }
+    }
+
+    /**
+     * 执行lua脚本，参数和返回值均为二进制，消息内容不经过String转换
+     *
+     * @param script lua脚本
+     * @param keys   脚本中用到的完整key
+     * @param args   脚本参数
+     * @return 脚本返回值(Long, byte[]或List)，执行失败返回null
+     */
+    public static Object evalBinaryScript(String script, List<byte[]> keys, List<byte[]> args) {
+        if (isMultiplexed()) {
+            try {
+                return evalMultiplexed(script, keys, args);
+            } catch (Exception e) {
+            }
+            return null;
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        Object result = null;
+        try {
+            jedis = keys.isEmpty() ? getJedis() : getJedis(keys.get(0));
+            if (null != jedis) {
+                String sha = SCRIPT_SHA_CACHE.get(script);
+                if (sha == null) {
+                    sha = jedis.scriptLoad(script);
+                    SCRIPT_SHA_CACHE.put(script, sha);
+                    Instrumentation.roundTrip();
+                }
+                try {
+                    result = jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+                } catch (JedisNoScriptException e) {
+                    Instrumentation.roundTrip();
+                    sha = jedis.scriptLoad(script);
+                    SCRIPT_SHA_CACHE.put(script, sha);
+                    Instrumentation.roundTrip();
+                    result = jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+                }
+            }
+        } catch (Exception e) {
+            handleException(e);
+        } finally {
+            record("redis.evalBinaryScript", startNanos, jedis);
+            if (null != jedis)
+                jedis.close();
+        }
+        return result;
+    }
+
+    /**
+     * 通过多路复用客户端执行lua脚本，脚本缓存丢失时重新加载
+     */
+    private static Object evalMultiplexed(String script, List<byte[]> keys, List<byte[]> args) throws Exception {
+        String sha = SCRIPT_SHA_CACHE.get(script);
+        if (sha == null) {
+            sha = loadScript(script);
+        }
+        byte[][] command = new byte[3 + keys.size() + args.size()][];
+        command[0] = Protocol.Command.EVALSHA.raw;
+        command[1] = SafeEncoder.encode(sha);
+        command[2] = Protocol.toByteArray(keys.size());
+        int i = 3;
+        for (byte[] key : keys) {
+            command[i++] = key;
+        }
+        for (byte[] arg : args) {
+            command[i++] = arg;
+        }
+        try {
+            return execute(command);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            // redis重启或执行了SCRIPT FLUSH，脚本缓存丢失，重新加载
+            command[1] = SafeEncoder.encode(loadScript(script));
+            return execute(command);
+        }
+    }
+
+    private static String loadScript(String script) throws Exception {
+        String sha = SafeEncoder.encode((byte[]) execute(Protocol.Command.SCRIPT.raw, Protocol.Keyword.LOAD.raw,
+            SafeEncoder.encode(script)));
+        SCRIPT_SHA_CACHE.put(script, sha);
+        return sha;
+    }
+
+    /**
+     * 执行jedis没有提供的命令(如stream相关命令)，多路复用时通过多路复用客户端发送，否则使用key所在节点的连接
+     *
+     * @param fullKey 用于选择节点的完整key
+     * @param args    命令和参数
+     * @return 回复(Long, byte[]或List)，nil返回null，错误回复、连接失败抛出异常
+     */
+    public static Object sendCommand(byte[] fullKey, byte[]... args) throws Exception {
+        if (isMultiplexed()) {
+            return execute(args);
+        }
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis(fullKey);
+            if (jedis == null) {
+                throw new JedisConnectionException("Could not get a resource from the pool");
+            }
+            // Connection.sendCommand只接受Protocol.Command,直接读写socket,不经过jedis的pipeline计数
+            Client client = jedis.getClient();
+            try {
+                Socket socket = client.getSocket();
+                socket.getOutputStream().write(RespCodec.encode(args));
+                return Protocol.read(new RedisInputStream(socket.getInputStream()));
+            } catch (IOException | JedisConnectionException e) {
+                client.disconnect();// 回复可能未读完,不再复用该连接
+                throw e instanceof JedisConnectionException ? (JedisConnectionException) e : new JedisConnectionException(e);
+            }
+        } catch (Exception e) {
+            handleException(e);
+            throw e;
+        } finally {
+            record("redis.sendCommand", startNanos, jedis);
+            if (null != jedis)
+                jedis.close();
+        }
+    }
+
+    /**
+     * 回复中的批量字符串转为String
+     */
+    private static Object toStringReply(Object reply) {
+        if (reply instanceof byte[]) {
+            return SafeEncoder.encode((byte[]) reply);
+        }
+        if (reply instanceof List) {
+            List<?> values = (List<?>) reply;
+            List<Object> result = new ArrayList<>(values.size());
+            for (Object value : values) {
+                result.add(toStringReply(value));
+            }
+            return result;
+        }
+        return reply;
+    }
+
     /**
      * 获取redis 时间戳
      *
@@ -1258,6 +2023,7 @@ public class RedisCache {
      */
     public static Long getCurrentTimeMillisFromRedis() {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             if (null != jedis) {
@@ -1274,7 +2040,9 @@ public class RedisCache {
                 }
             }
         } catch (Exception e) {
+            handleException(e);
         } finally {
+            record("redis.getCurrentTimeMillisFromRedis", startNanos, jedis);
             if (null != jedis)
                 jedis.close();
         }
@@ -1290,7 +2058,8 @@ public class RedisCache {
      * @return full key，完整的存储key
      */
     public static String generateFullKey(String prefix, String cacheType, String key) {
-        return MessageFormat.format("{0}:{1}:{2}", prefix, cacheType, key);
+        // 直接拼接,MessageFormat每次调用都要解析模式串,分配较多
+        return prefix + ':' + cacheType + ':' + key;
     }
 
     /**
@@ -1301,7 +2070,7 @@ public class RedisCache {
      * @return full key，完整的存储key
      */
     public static String generateFullKey(String cacheType, String key) {
-        return MessageFormat.format("{0}:{1}:{2}", DEFAULT_KEY_PREFIX, cacheType, key);
+        return generateFullKey(DEFAULT_KEY_PREFIX, cacheType, key);
     }
 
     /**
@@ -1311,13 +2080,56 @@ public class RedisCache {
      */
     private static Jedis getJedis() {
         try {
-            if (jedisPool == null) {
-                init();
-            }
-            jedis = jedisPool.getResource();
+            return init().borrow();
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    /**
+     * 获取key所在节点的Jedis实例，单机模式与getJedis()相同
+     *
+     * @param fullKey 完整的key
+     * @return
+     */
+    private static Jedis getJedis(String fullKey) {
+        try {
+            return init().borrow(fullKey);
         } catch (Exception e) {
         }
-        return jedis;
+        return null;
+    }
+
+    private static Jedis getJedis(byte[] fullKey) {
+        try {
+            return init().borrow(fullKey);
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    /**
+     * 命令执行失败，集群slot迁移时刷新slot分布
+     */
+    private static void handleException(Exception e) {
+        countException(e);
+        RedisConnectionManager manager = connectionManager;
+        if (manager != null) {
+            manager.onException(e);
+        }
+    }
+
+    /**
+     * 按类型统计吞掉的异常
+     */
+    private static void countException(Exception e) {
+        if (e instanceof JedisRedirectionException) {
+            REDIRECTION_ERRORS.increment();
+        } else if (e instanceof JedisConnectionException) {
+            CONNECTION_ERRORS.increment();
+        } else {
+            OTHER_ERRORS.increment();
+        }
     }
 
     public void setDefaultExpireTime(int defaultExpireTime) {
@@ -1356,6 +2168,29 @@ public class RedisCache {
         RedisCache.TIMEOUT = TIMEOUT;
     }
 
+    public void setMultiplexed(boolean multiplexed) {
+        MULTIPLEXED = multiplexed;
+    }
+
+    public void setMultiplexedConnections(int multiplexedConnections) {
+        MULTIPLEXED_CONNECTIONS = multiplexedConnections;
+    }
+
+    /**
+     * 集群节点需在创建第一个主题存储之前配置，之后只能修改节点列表，
+     * 切换单机/集群模式会改变主题的key(hash tag)，抛出IllegalStateException
+     *
+     * @param clusterNodes
+     */
+    public void setClusterNodes(String clusterNodes) {
+        synchronized (RedisCache.class) {
+            if (CLUSTER_MODE_RESOLVED && isCluster(clusterNodes) != isCluster()) {
+                throw new IllegalStateException("cluster nodes must be configured before the first topic storage is created");
+            }
+            CLUSTER_NODES = clusterNodes;
+        }
+    }
+
     public static class RedisTransaction {
         private Transaction transaction;
         private Jedis tranJedis;
@@ -1364,6 +2199,15 @@ public class RedisCache {
             this.tranJedis = jedis;
         }
 
+        /**
+         * 集群slot迁移(MOVED/ASK)交给execOnSameRedisConn统计并刷新slot分布，其他异常吞掉
+         */
+        private static void rethrowRedirection(Exception e) {
+            if (e instanceof JedisRedirectionException) {
+                throw (JedisRedirectionException) e;
+            }
+        }
+
         /**
          * 监控.如果其他客户端进行了修改.则本次事务取消
          *
@@ -1380,9 +2224,68 @@ public class RedisCache {
             String result = null;
             try {
                 if (null != tranJedis) {
+                    Instrumentation.roundTrip();
                     result = tranJedis.watch(key);
                 }
             } catch (Exception e) {
+                rethrowRedirection(e);
+            }
+            return result;
+        }
+
+        /**
+         * 监控.如果其他客户端进行了修改.则本次事务取消
+         *
+         * @param fullKeys 完整的key
+         * @return
+         */
+        public String watch(byte[]... fullKeys) {
+            String result = null;
+            try {
+                if (null != tranJedis) {
+                    Instrumentation.roundTrip();
+                    result = tranJedis.watch(fullKeys);
+                }
+            } catch (Exception e) {
+                rethrowRedirection(e);
+            }
+            return result;
+        }
+
+        /**
+         * 批量获取值，在事务开启(multi)之前调用，与watch使用同一个连接
+         *
+         * @param fullKeys 完整的key
+         * @return 与fullKeys一一对应的值，不存在的key对应null
+         */
+        public List<String> mget(String... fullKeys) {
+            List<String> result = null;
+            try {
+                if (null != tranJedis) {
+                    Instrumentation.roundTrip();
+                    result = tranJedis.mget(fullKeys);
+                }
+            } catch (Exception e) {
+                rethrowRedirection(e);
+            }
+            return result;
+        }
+
+        /**
+         * 批量获取二进制值，在事务开启(multi)之前调用，与watch使用同一个连接
+         *
+         * @param fullKeys 完整的key
+         * @return 与fullKeys一一对应的值，不存在的key对应null
+         */
+        public List<byte[]> mget(byte[]... fullKeys) {
+            List<byte[]> result = null;
+            try {
+                if (null != tranJedis) {
+                    Instrumentation.roundTrip();
+                    result = tranJedis.mget(fullKeys);
+                }
+            } catch (Exception e) {
+                rethrowRedirection(e);
             }
             return result;
         }
@@ -1447,6 +2350,61 @@ public class RedisCache {
             return result;
         }
 
+        /**
+         * String类型 value增加指定的值
+         *
+         * @param prefix
+         * @param cacheType
+         * @param key
+         * @param increment 增量
+         * @return
+         */
+        public Response<Long> incrBy(String prefix, String cacheType, String key, long increment) {
+            return incrBy(generateFullKey(prefix, cacheType, key), increment);
+        }
+
+        private Response<Long> incrBy(String key, long increment) {
+            Response<Long> result = null;
+            try {
+                result = transaction.incrBy(key, increment);
+            } catch (Exception e) {
+            }
+            return result;
+        }
+
+        /**
+         * String类型 value增加指定的值
+         *
+         * @param fullKey   完整的key
+         * @param increment 增量
+         * @return
+         */
+        public Response<Long> incrBy(byte[] fullKey, long increment) {
+            Response<Long> result = null;
+            try {
+                result = transaction.incrBy(fullKey, increment);
+            } catch (Exception e) {
+            }
+            return result;
+        }
+
+        /**
+         * 有序集合添加成员，在事务中执行
+         *
+         * @param fullKey 完整的key
+         * @param score   分数
+         * @param member  成员
+         * @return
+         */
+        public Response<Long> zadd(byte[] fullKey, double score, byte[] member) {
+            Response<Long> result = null;
+            try {
+                result = transaction.zadd(fullKey, score, member);
+            } catch (Exception e) {
+            }
+            return result;
+        }
+
         /**
          * 开启事务
          *
@@ -1467,8 +2425,10 @@ public class RedisCache {
         public List<Object> exec() {
             List<Object> result = null;
             try {
+                Instrumentation.roundTrip();
                 result = transaction.exec();
             } catch (Exception e) {
+                rethrowRedirection(e);
             }
             return result;
         }
@@ -0,0 +1,149 @@
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSlotBasedConnectionHandler;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * redis连接管理,持有连接池并统计借用连接的情况
+ * 借出的连接只通过返回值交给调用方,不保存在共享状态中,调用方使用完后通过close归还
+ * 集群模式下每个节点一个连接池,按key所在的slot借用对应节点的连接,收到MOVED/ASK时刷新slot分布
+ */
+public class RedisConnectionManager {
+    /**
+     * 单机模式的连接池,集群模式为null
+     */
+    private final JedisPool pool;
+    /**
+     * 集群模式的slot -> 节点连接池,单机模式为null
+     */
+    private final JedisSlotBasedConnectionHandler cluster;
+    private final int maxTotal;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    /**
+     * 等待maxWaitMillis后仍没有空闲连接的次数
+     */
+    private final LongAdder exhaustions = new LongAdder();
+    /**
+     * 创建连接失败(如redis不可达)的次数
+     */
+    private final LongAdder failures = new LongAdder();
+
+    protected RedisConnectionManager(JedisPoolConfig config, String host, int port, int timeout, String password) {
+        this.pool = new JedisPool(config, host, port, timeout, password);
+        this.cluster = null;
+        this.maxTotal = config.getMaxTotal();
+    }
+
+    /**
+     * 集群模式
+     * @param nodes 任意几个集群节点,用于获取slot分布
+     * @param config 每个节点的连接池配置
+     */
+    protected RedisConnectionManager(JedisPoolConfig config, Set<HostAndPort> nodes, int timeout, String password) {
+        this.pool = null;
+        this.cluster = new JedisSlotBasedConnectionHandler(nodes, config, timeout, timeout, password);
+        this.maxTotal = config.getMaxTotal();
+    }
+
+    protected boolean isCluster() {
+        return cluster != null;
+    }
+
+    /**
+     * 借用连接,使用完后必须close.集群模式下为任意节点的连接,用于不涉及key的命令
+     * @return 连接池耗尽或redis不可达时抛出JedisException
+     */
+    protected Jedis borrow() {
+        return borrow(-1);
+    }
+
+    /**
+     * 借用key所在节点的连接,单机模式与borrow()相同
+     * @param key 完整的key
+     * @return
+     */
+    protected Jedis borrow(String key) {
+        return borrow(cluster == null ? -1 : JedisClusterCRC16.getSlot(key));
+    }
+
+    protected Jedis borrow(byte[] key) {
+        return borrow(cluster == null ? -1 : JedisClusterCRC16.getSlot(key));
+    }
+
+    /**
+     * 命令执行失败时调用,集群slot迁移(MOVED/ASK)后刷新slot分布,之后的命令发往新的节点
+     * @param e 命令抛出的异常
+     */
+    protected void onException(Exception e) {
+        if (cluster != null && e instanceof JedisRedirectionException) {
+            cluster.renewSlotCache();
+        }
+    }
+
+    private Jedis borrow(int slot) {
+        long start = System.nanoTime();
+        try {
+            Jedis jedis = cluster == null ? pool.getResource()
+                : slot < 0 ? cluster.getConnection() : cluster.getConnectionFromSlot(slot);
+            long wait = System.nanoTime() - start;
+            borrows.increment();
+            borrowWaitNanos.add(wait);
+            if (wait > maxBorrowWaitNanos.get()) {
+                maxBorrowWaitNanos.accumulateAndGet(wait, Math::max);
+            }
+            return jedis;
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                exhaustions.increment();
+            } else {
+                failures.increment();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 当前连接池状态和累计的借用统计
+     * @return
+     */
+    public PoolMetrics metrics() {
+        long count = borrows.sum();
+        int active = 0;
+        int idle = 0;
+        int waiters = 0;
+        int total = 0;
+        // 集群模式为所有节点连接池的合计
+        for (JedisPool nodePool : cluster == null ? Collections.singleton(pool) : cluster.getNodes().values()) {
+            active += nodePool.getNumActive();
+            idle += nodePool.getNumIdle();
+            waiters += nodePool.getNumWaiters();
+            total += maxTotal;
+        }
+        return new PoolMetrics(active, idle, waiters, total,
+            count, count == 0 ? 0 : borrowWaitNanos.sum() / count, maxBorrowWaitNanos.get(),
+            exhaustions.sum(), failures.sum());
+    }
+
+    /**
+     * 关闭连接池
+     */
+    protected void close() {
+        if (cluster != null) {
+            cluster.close();
+        } else {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于redis hash分桶的主题存储,每bucketSize条连续的消息存储在一个hash中(id / bucketSize为桶号,id % bucketSize为field),
+ * 如 redisMq:topic:queueId_bucket:3 的field 5 为第3 * 128 + 5条消息.
+ * 小消息不再每条占用一个顶层key(key、过期时间各自的开销),桶内field数和值长度不超过
+ * hash-max-listpack-entries(redis 7以下为hash-max-ziplist-entries,默认128)和hash-max-listpack-value(默认64字节)时
+ * redis使用紧凑编码,内存占用可降低数倍.过期时间按桶设置,桶在最后一条消息写入seconds秒后过期.
+ * 消息总数和订阅方索引与string存储相同
+ */
+public class RedisHashQueueStorage implements QueueStorage {
+    /**
+     * 默认每个桶的消息数,与redis紧凑编码的默认上限一致
+     */
+    protected static final int DEFAULT_BUCKET_SIZE = 128;
+    protected static final String TOPIC_BUCKET_CACHETYPE = "queueId_bucket";
+    /**
+     * 读取脚本一次读取的最大消息数,受lua unpack参数个数限制
+     */
+    private static final int SCRIPT_MAX_MESSAGES = 1000;
+
+    /**
+     * 发布消息脚本.INCRBY预留一段连续的消息id,每个桶一次HMSET写入,并按桶设置过期时间
+     * 桶已有不过期的消息时不设置过期时间,桶的剩余过期时间小于seconds时延长到seconds
+     * KEYS[1]: 主题消息总数
+     * ARGV[1]: 桶key前缀, ARGV[2]: 过期时间(秒), ARGV[3]: 通知频道, ARGV[4]: 每个桶的消息数, ARGV[5..]: 消息内容
+     * 返回本批最后一条消息的id
+     */
+    private static final String PUBLISH_SCRIPT =
+        "local n = #ARGV - 4 " +
+        "local size = tonumber(ARGV[4]) " +
+        "local seconds = tonumber(ARGV[2]) " +
+        "local last = redis.call('INCRBY', KEYS[1], n) " +
+        "local first = last - n " +
+        "local i = 1 " +
+        "while i <= n do " +
+        "  local bucket = math.floor((first + i) / size) " +
+        "  local key = ARGV[1] .. bucket " +
+        "  local ttl = redis.call('TTL', key) " +
+        "  local args = {} " +
+        "  while i <= n and math.floor((first + i) / size) == bucket do " +
+        "    args[#args + 1] = (first + i) % size " +
+        "    args[#args + 1] = ARGV[i + 4] " +
+        "    i = i + 1 " +
+        "  end " +
+        "  redis.call('HMSET', key, unpack(args)) " +
+        "  if seconds <= 0 then " +
+        "    if ttl >= 0 then redis.call('PERSIST', key) end " +
+        "  elseif ttl == -2 or (ttl >= 0 and ttl < seconds) then " +
+        "    redis.call('EXPIRE', key, seconds) " +
+        "  end " +
+        "end " +
+        "redis.call('PUBLISH', ARGV[3], last) " +
+        "return last";
+    /**
+     * 按id范围[from, to]读取消息,每个桶一次HMGET,skipMissing为true时跳过已过期的消息
+     */
+    private static final String READ_FUNCTION =
+        "local function read(prefix, size, from, to, result, skipMissing) " +
+        "  local id = from " +
+        "  while id <= to do " +
+        "    local bucket = math.floor(id / size) " +
+        "    local bucketEnd = math.min(to, bucket * size + size - 1) " +
+        "    local fields = {} " +
+        "    for j = id, bucketEnd do fields[#fields + 1] = j % size end " +
+        "    local values = redis.call('HMGET', prefix .. bucket, unpack(fields)) " +
+        "    for j = 1, #fields do " +
+        "      if values[j] or not skipMissing then result[#result + 1] = values[j] end " +
+        "    end " +
+        "    id = bucketEnd + 1 " +
+        "  end " +
+        "  return result " +
+        "end ";
+    /**
+     * 读取一段消息,已过期的消息对应nil
+     * KEYS[1]: 主题消息总数,只用于集群模式下选择节点
+     * ARGV[1]: 桶key前缀, ARGV[2]: 每个桶的消息数, ARGV[3]: 第一条消息的id, ARGV[4]: 最后一条消息的id
+     */
+    private static final String RANGE_SCRIPT = READ_FUNCTION +
+        "return read(ARGV[1], tonumber(ARGV[2]), tonumber(ARGV[3]), tonumber(ARGV[4]), {}, false)";
+    /**
+     * 批量读取脚本,读取索引和消息总数、读取整段消息、前进索引在redis中原子执行
+     * KEYS[1]: 订阅方索引, KEYS[2]: 主题消息总数, KEYS[3]: 订阅方索引有序集合
+     * ARGV[1]: 桶key前缀, ARGV[2]: 每个桶的消息数, ARGV[3]: 最多读取的消息数, ARGV[4]: 新注册订阅方索引的过期时间(秒),
+     * ARGV[5]: 订阅方
+     * 返回 {读取的消息数, 未过期的消息...}
+     */
+    private static final String POLL_SCRIPT = READ_FUNCTION +
+        "local size = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+        "local offset = redis.call('GET', KEYS[1]) " +
+        "if not offset then " +
+        "  offset = size - 1 " +
+        "  if tonumber(ARGV[4]) > 0 then " +
+        "    redis.call('SET', KEYS[1], offset, 'EX', ARGV[4]) " +
+        "  else " +
+        "    redis.call('SET', KEYS[1], offset) " +
+        "  end " +
+        "  redis.call('ZADD', KEYS[3], offset, ARGV[5]) " +
+        "else " +
+        "  offset = tonumber(offset) " +
+        "end " +
+        "local count = math.min(size - offset, tonumber(ARGV[3])) " +
+        "if count <= 0 then return {0} end " +
+        "redis.call('INCRBY', KEYS[1], count) " +
+        "redis.call('ZADD', KEYS[3], offset + count, ARGV[5]) " +
+        "return read(ARGV[1], tonumber(ARGV[2]), offset + 1, offset + count, {count}, true)";
+    /**
+     * 订阅方索引比较并更新,同时更新订阅方索引有序集合
+     * KEYS[1]: 订阅方索引, KEYS[2]: 订阅方索引有序集合
+     * ARGV[1]: 读取时的索引, ARGV[2]: 新的索引, ARGV[3]: 订阅方
+     */
+    private static final String COMMIT_SCRIPT =
+        "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end " +
+        "redis.call('SET', KEYS[1], ARGV[2]) " +
+        "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3]) " +
+        "return 1";
+    /**
+     * 整理脚本,整个桶都在删除范围内时删除桶,否则删除桶中的field
+     * ARGV[5]: 每个桶的消息数
+     */
+    private static final String COMPACT_SCRIPT = RetentionManager.COMPACT_SCRIPT_HEAD +
+        "local bucketSize = tonumber(ARGV[5]) " +
+        "local id = from " +
+        "while id <= to do " +
+        "  local bucket = math.floor(id / bucketSize) " +
+        "  local bucketEnd = bucket * bucketSize + bucketSize - 1 " +
+        "  if bucketEnd <= to then " +
+        "    redis.call('DEL', ARGV[1] .. bucket) " +
+        "  else " +
+        "    local fields = {} " +
+        "    for j = id, to do fields[#fields + 1] = j % bucketSize end " +
+        "    redis.call('HDEL', ARGV[1] .. bucket, unpack(fields)) " +
+        "  end " +
+        "  id = bucketEnd + 1 " +
+        "end " +
+        RetentionManager.COMPACT_SCRIPT_TAIL;
+
+    private final String topic;
+    /**
+     * 主题消息总数
+     */
+    private final RedisQueue countRedisQueue;
+    /**
+     * 主题新消息通知频道
+     */
+    private final RedisQueue notifyRedisQueue;
+    /**
+     * 订阅方 -> 订阅方索引
+     */
+    private final Map<String, RedisQueue> subscribersRedisQueues = new ConcurrentHashMap<>();
+    /**
+     * 脚本中不变的key和参数,预先编码
+     */
+    private final List<byte[]> countKeys;
+    private final byte[] bucketKeyPrefix;
+    private final byte[] bucketSizeArg;
+    private final byte[] notifyChannel;
+    private volatile TopicNotifier notifier;
+    /**
+     * 订阅方索引有序集合、已删除到的消息id和时间线,见RetentionManager
+     */
+    private final RedisQueue offsetsRedisQueue;
+    private final RedisQueue trimmedRedisQueue;
+    private final RedisQueue timelineRedisQueue;
+    /**
+     * 是否已把整理前注册的订阅方补齐到订阅方索引有序集合
+     */
+    private volatile boolean offsetsSeeded;
+
+    protected RedisHashQueueStorage(String topic) {
+        this(topic, DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * @param bucketSize 每个桶的消息数,同一主题的生产方和订阅方必须相同
+     */
+    protected RedisHashQueueStorage(String topic, int bucketSize) {
+        this.topic = topic;
+        this.countRedisQueue = new RedisQueue(topic, Producer.TOPIC_COUNT_CACHETYPE);
+        this.notifyRedisQueue = new RedisQueue(topic, Producer.TOPIC_NOTIFY_CACHETYPE);
+        this.countKeys = Collections.singletonList(countRedisQueue.fullKeyBytes());
+        this.bucketKeyPrefix = SafeEncoder.encode(new RedisQueue(topic, TOPIC_BUCKET_CACHETYPE).keyPrefix());
+        this.bucketSizeArg = RedisQueue.encodeLong(bucketSize);
+        this.notifyChannel = notifyRedisQueue.fullKeyBytes();
+        this.offsetsRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_OFFSETS_CACHETYPE);
+        this.trimmedRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_TRIMMED_CACHETYPE);
+        this.timelineRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_TIMELINE_CACHETYPE);
+    }
+
+    @Override
+    public Long append(List<byte[]> messages, int seconds) {
+        List<byte[]> args = new ArrayList<>(messages.size() + 4);
+        args.add(bucketKeyPrefix);
+        args.add(RedisQueue.encodeLong(seconds));
+        args.add(notifyChannel);
+        args.add(bucketSizeArg);
+        args.addAll(messages);
+        return (Long) RedisQueue.evalBinaryScript(PUBLISH_SCRIPT, countKeys, args);
+    }
+
+    @Override
+    public long size() {
+        return RedisQueue.parseLong(countRedisQueue.getBytes());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<byte[]> range(long from, int count) {
+        List<byte[]> values = new ArrayList<>(count);
+        for (long id = from; id < from + count; id += SCRIPT_MAX_MESSAGES) {
+            long to = Math.min(from + count, id + SCRIPT_MAX_MESSAGES) - 1;
+            List<byte[]> result = (List<byte[]>) RedisQueue.evalBinaryScript(RANGE_SCRIPT, countKeys,
+                Arrays.asList(bucketKeyPrefix, bucketSizeArg, RedisQueue.encodeLong(id), RedisQueue.encodeLong(to)));
+            if (result == null) {
+                return null;
+            }
+            values.addAll(result);
+        }
+        return values;
+    }
+
+    @Override
+    public Long offset(String subscriber) {
+        RedisQueue subscribersRedisQueue = subscribersRedisQueue(subscriber);
+        byte[] lastMessageRead = subscribersRedisQueue.getBytes();
+        if (lastMessageRead == null || lastMessageRead.length == 0) {
+            // 如果是新注册上来的consumer，只读取最后一条消息
+            long lowest = size() - 1;
+            subscribersRedisQueue.set(String.valueOf(lowest), Consumer.DEFALUT_EXPIRETIME);
+            offsetsRedisQueue.zadd(lowest, subscriber);
+            return lowest;
+        }
+        return RedisQueue.parseLong(lastMessageRead);
+    }
+
+    @Override
+    public Long peekOffset(String subscriber) {
+        byte[] lastMessageRead = subscribersRedisQueue(subscriber).getBytes();
+        return lastMessageRead == null || lastMessageRead.length == 0 ? null : RedisQueue.parseLong(lastMessageRead);
+    }
+
+    @Override
+    public boolean commit(String subscriber, long expected, long update) {
+        Long result = (Long) RedisQueue.evalBinaryScript(COMMIT_SCRIPT,
+            Arrays.asList(subscribersRedisQueue(subscriber).fullKeyBytes(), offsetsRedisQueue.fullKeyBytes()),
+            Arrays.asList(RedisQueue.encodeLong(expected), RedisQueue.encodeLong(update), SafeEncoder.encode(subscriber)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 通过POLL_SCRIPT批量读取,一次网络往返,本段消息均已过期时继续读取后续消息
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<byte[]> poll(String subscriber, int maxMessages) {
+        List<byte[]> keys = Arrays.asList(subscribersRedisQueue(subscriber).fullKeyBytes(), countRedisQueue.fullKeyBytes(),
+            offsetsRedisQueue.fullKeyBytes());
+        List<byte[]> args = Arrays.asList(bucketKeyPrefix, bucketSizeArg,
+            RedisQueue.encodeLong(Math.min(maxMessages, SCRIPT_MAX_MESSAGES)),
+            RedisQueue.encodeLong(Consumer.DEFALUT_EXPIRETIME), SafeEncoder.encode(subscriber));
+        while (true) {
+            List<Object> result = (List<Object>) RedisQueue.evalBinaryScript(POLL_SCRIPT, keys, args);
+            if (result == null || (Long) result.get(0) == 0) {
+                return Collections.emptyList();
+            }
+            if (result.size() > 1) {
+                List<byte[]> messages = new ArrayList<>(result.size() - 1);
+                for (int i = 1; i < result.size(); i++) {
+                    messages.add((byte[]) result.get(i));
+                }
+                return messages;
+            }
+        }
+    }
+
+    /**
+     * 删除所有订阅方都已读取或超过最长保留时间的消息
+     */
+    @Override
+    public int compact(long now, long maxAgeMillis, int batchSize) {
+        if (!offsetsSeeded) {
+            if (!RetentionManager.seedOffsets(offsetsRedisQueue, new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE))) {
+                return 0;
+            }
+            offsetsSeeded = true;
+        }
+        Long deleted = (Long) RedisQueue.evalBinaryScript(COMPACT_SCRIPT,
+            Arrays.asList(offsetsRedisQueue.fullKeyBytes(), trimmedRedisQueue.fullKeyBytes(),
+                timelineRedisQueue.fullKeyBytes(), countRedisQueue.fullKeyBytes()),
+            Arrays.asList(bucketKeyPrefix, RedisQueue.encodeLong(Math.min(batchSize, RetentionManager.MAX_BATCH_SIZE)),
+                RedisQueue.encodeLong(now), RedisQueue.encodeLong(maxAgeMillis), bucketSizeArg));
+        return deleted == null ? 0 : deleted.intValue();
+    }
+
+    @Override
+    public long publishSequence() {
+        return notifier().sequence();
+    }
+
+    @Override
+    public void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+        notifier().await(sequence, timeoutMillis);
+    }
+
+    private TopicNotifier notifier() {
+        TopicNotifier current = notifier;
+        if (current == null) {
+            current = TopicNotifier.of(notifyRedisQueue.fullKey());
+            notifier = current;
+        }
+        return current;
+    }
+
+    private RedisQueue subscribersRedisQueue(String subscriber) {
+        return subscribersRedisQueues.computeIfAbsent(subscriber,
+            s -> new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, s));
+    }
+}
@@ -1,6 +1,8 @@
 import redis.clients.jedis.Response;
 import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
@@ -14,16 +16,27 @@ public class RedisQueue {
     private String cacheType;
     private String key;
     private String sb;
+    /**
+     * 预先编码的key前缀,如 redisMq:topic:queueId_message:,集群模式为 redisMq:{topic}:queueId_message:
+     */
+    private final byte[] keyPrefixBytes;
+    /**
+     * 预先编码的完整key,如 redisMq:topic:key_count:all
+     */
+    private final byte[] fullKeyBytes;
 
     protected RedisQueue(String topic, String cacheType) {
-        this.topicPrefix = PREFIX + topic;
-        this.cacheType = cacheType;
+        this(topic, cacheType, null);
     }
 
     protected RedisQueue(String topic, String cacheType, String key) {
-        this.topicPrefix = PREFIX + topic;
+        // 集群模式下主题名作为hash tag,同一主题的消息、消息总数和订阅方索引在同一个slot,可以在同一个事务或脚本中访问
+        this.topicPrefix = RedisCache.resolveClusterMode() ? PREFIX + '{' + topic + '}' : PREFIX + topic;
         this.cacheType = cacheType;
         this.key = key;
+        this.keyPrefixBytes = SafeEncoder.encode(keyPrefix());
+        this.fullKeyBytes = SafeEncoder.encode(RedisCache.generateFullKey(topicPrefix, cacheType,
+            UtilCompare.isEmpty(key) ? REDIS_KEY : key));
     }
 
     private String key() {
@@ -48,10 +61,149 @@ public class RedisQueue {
         return this;
     }
 
+    /**
+     * 完整的key，如 redisMq:topic:key_count:all
+     * @return
+     */
+    protected String fullKey() {
+        return RedisCache.generateFullKey(topicPrefix, cacheType, key());
+    }
+
+    /**
+     * 完整的key的二进制形式,未使用cat时返回构造时编码好的key,调用方不能修改
+     * @return
+     */
+    protected byte[] fullKeyBytes() {
+        return sb == null ? fullKeyBytes : SafeEncoder.encode(fullKey());
+    }
+
+    /**
+     * 当前主题下该缓存类型的key前缀，如 redisMq:topic:queueId_message:
+     * @return
+     */
+    protected String keyPrefix() {
+        return RedisCache.generateFullKey(topicPrefix, cacheType, "");
+    }
+
+    /**
+     * 遍历本主题下该缓存类型的所有key
+     * @return 完整的key,失败返回null
+     */
+    protected List<String> scanKeys() {
+        return RedisCache.scan(fullKeyBytes, escapeGlob(keyPrefix()) + "*");
+    }
+
+    /**
+     * 转义glob特殊字符(* ? [ ] \),主题名包含这些字符时不能匹配到其他主题的key
+     * @param s 原样匹配的字符串
+     * @return
+     */
+    protected static String escapeGlob(String s) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                if (escaped == null) {
+                    escaped = new StringBuilder(s.length() + 8).append(s, 0, i);
+                }
+                escaped.append('\\');
+            }
+            if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? s : escaped.toString();
+    }
+
+    /**
+     * 所有主题下该缓存类型的key模式,如 redisMq:*:key_notify:*
+     * @param cacheType 缓存类型
+     * @return
+     */
+    protected static String pattern(String cacheType) {
+        return RedisCache.generateFullKey(PREFIX + "*", cacheType, "*");
+    }
+
     protected String get() {
         return RedisCache.get(topicPrefix, cacheType, key());
     }
 
+    protected byte[] getBytes() {
+        return RedisCache.get(fullKeyBytes());
+    }
+
+    /**
+     * 批量读取从from开始的连续count个key,如消息id为from..from+count-1的消息
+     */
+    protected List<byte[]> mget(long from, int count) {
+        return RedisCache.mget(keys(from, count));
+    }
+
+    /**
+     * 消息id为from..from+count-1的key.key前缀只在缓冲区中写入一次,每个key只写入id的数字并复制一次
+     */
+    protected byte[][] keys(long from, int count) {
+        byte[] buffer = Arrays.copyOf(keyPrefixBytes, keyPrefixBytes.length + 20);
+        byte[][] keys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            keys[i] = Arrays.copyOf(buffer, writeLong(buffer, keyPrefixBytes.length, from + i));
+        }
+        return keys;
+    }
+
+    /**
+     * 数字的十进制ASCII形式,用于二进制命令和脚本参数
+     */
+    protected static byte[] encodeLong(long value) {
+        byte[] buffer = new byte[20];
+        return Arrays.copyOf(buffer, writeLong(buffer, 0, value));
+    }
+
+    /**
+     * 将value的十进制形式写入buffer的pos之后
+     * @return 写入后的结束位置
+     */
+    private static int writeLong(byte[] buffer, int pos, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                byte[] min = SafeEncoder.encode(String.valueOf(value));
+                System.arraycopy(min, 0, buffer, pos, min.length);
+                return pos + min.length;
+            }
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * 解析十进制ASCII形式的数字,null返回0
+     */
+    protected static long parseLong(byte[] bytes) {
+        if (bytes == null) {
+            return 0;
+        }
+        boolean negative = bytes.length > 0 && bytes[0] == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < bytes.length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(SafeEncoder.encode(bytes));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
     protected boolean del() {
         return RedisCache.del(topicPrefix, cacheType, key());
     }
@@ -76,8 +228,24 @@ public class RedisQueue {
         return RedisCache.set(topicPrefix, cacheType, key(), value, expireSeconds);
     }
 
-    protected static <R> R execOnSameRedisConn(Function<RedisTransaction, R> functon) {
-        return RedisCache.execOnSameRedisConn(transaction -> {
+    protected static Object evalScript(String script, List<String> keys, List<String> args) {
+        return RedisCache.evalScript(script, keys, args);
+    }
+
+    protected static Object evalBinaryScript(String script, List<byte[]> keys, List<byte[]> args) {
+        return RedisCache.evalBinaryScript(script, keys, args);
+    }
+
+    protected static Object sendCommand(RedisQueue redisQueue, byte[]... args) throws Exception {
+        return RedisCache.sendCommand(redisQueue.fullKeyBytes(), args);
+    }
+
+    /**
+     * 同一个redis连接的一系列操作,集群模式下为redisQueue所在节点的连接
+     * @param redisQueue 用于选择节点的队列,同一主题的队列在同一个slot
+     */
+    protected static <R> R execOnSameRedisConn(RedisQueue redisQueue, Function<RedisTransaction, R> functon) {
+        return RedisCache.execOnSameRedisConn(redisQueue.fullKeyBytes(), transaction -> {
             return functon.apply(RedisQueue.RedisTransaction.initTransaction(transaction));
         });
     }
@@ -96,7 +264,25 @@ public class RedisQueue {
         }
 
         protected String watch(RedisQueue redisQueue) {
-            return transaction.watch(redisQueue.topicPrefix, redisQueue.cacheType, redisQueue.key());
+            return transaction.watch(redisQueue.fullKeyBytes());
+        }
+
+        /**
+         * 批量读取多个队列的当前值
+         */
+        protected List<byte[]> mget(RedisQueue... redisQueues) {
+            byte[][] keys = new byte[redisQueues.length][];
+            for (int i = 0; i < redisQueues.length; i++) {
+                keys[i] = redisQueues[i].fullKeyBytes();
+            }
+            return transaction.mget(keys);
+        }
+
+        /**
+         * 批量读取从from开始的连续count个key,如消息id为from..from+count-1的消息
+         */
+        protected List<byte[]> mget(RedisQueue redisQueue, long from, int count) {
+            return transaction.mget(redisQueue.keys(from, count));
         }
 
         protected Response<String> set(RedisQueue redisQueue, String value, int seconds) {
@@ -107,6 +293,14 @@ public class RedisQueue {
             return transaction.incr(redisQueue.topicPrefix, redisQueue.cacheType, redisQueue.key());
         }
 
+        protected Response<Long> incrBy(RedisQueue redisQueue, long increment) {
+            return transaction.incrBy(redisQueue.fullKeyBytes(), increment);
+        }
+
+        protected Response<Long> zadd(RedisQueue redisQueue, double score, String member) {
+            return transaction.zadd(redisQueue.fullKeyBytes(), score, SafeEncoder.encode(member));
+        }
+
         protected void multi() {
             transaction.multi();
         }
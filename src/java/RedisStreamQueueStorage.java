@@ -0,0 +1,265 @@
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基于redis stream的主题存储
+ * 消息id仍由主题消息总数自增得到,写入stream时使用 <消息id>-0 作为stream id,
+ * 因此消费组的last-delivered-id即为订阅方读取的最后一条消息,与string引擎的订阅方索引含义一致.
+ * 读取通过消费组(XREADGROUP COUNT)完成并立即XACK,jedis当前版本没有stream相关命令,通过RedisCache.sendCommand发送.
+ * 发布时stream近似保留最近maxLen条消息,未读取的消息同样会被裁剪,不会因某个消费组停止读取而无限增长;
+ * 按seconds设置stream的过期时间.查询和比较并更新订阅方索引仍通过lua脚本(XINFO GROUPS)完成
+ */
+public class RedisStreamQueueStorage implements QueueStorage {
+    protected static final String TOPIC_STREAM_CACHETYPE = "stream_message";
+    /**
+     * stream默认近似保留的最大消息数
+     */
+    protected static final int DEFAULT_MAXLEN = 1000000;
+
+    private static final byte[] XRANGE = SafeEncoder.encode("XRANGE");
+    private static final byte[] XREADGROUP = SafeEncoder.encode("XREADGROUP");
+    private static final byte[] XACK = SafeEncoder.encode("XACK");
+    private static final byte[] GROUP = SafeEncoder.encode("GROUP");
+    private static final byte[] COUNT = SafeEncoder.encode("COUNT");
+    private static final byte[] STREAMS = SafeEncoder.encode("STREAMS");
+    private static final byte[] NEW_MESSAGES = SafeEncoder.encode(">");
+
+    /**
+     * 查询消费组读取的最后一条消息id的lua函数,stream或消费组不存在返回-1
+     */
+    private static final String LAST_READ_FUNCTION =
+        "local function lastRead(stream, group) " +
+        "  if redis.call('EXISTS', stream) == 0 then return -1 end " +
+        "  for _, g in ipairs(redis.call('XINFO', 'GROUPS', stream)) do " +
+        "    local info = {} " +
+        "    for i = 1, #g, 2 do info[g[i]] = g[i + 1] end " +
+        "    if info['name'] == group then " +
+        "      return tonumber(string.match(info['last-delivered-id'], '^(%d+)')) " +
+        "    end " +
+        "  end " +
+        "  return -1 " +
+        "end ";
+    /**
+     * 发布消息脚本.写入时近似裁剪到最大长度,seconds大于0时设置stream的过期时间
+     * KEYS[1]: 主题消息总数, KEYS[2]: stream
+     * ARGV[1]: stream最大长度, ARGV[2]: 过期时间(秒), ARGV[3]: 通知频道, ARGV[4..]: 消息内容
+     * 返回本批最后一条消息的id
+     */
+    private static final String PUBLISH_SCRIPT =
+        "local n = #ARGV - 3 " +
+        "local last = redis.call('INCRBY', KEYS[1], n) " +
+        "local first = last - n " +
+        "for i = 1, n do " +
+        "  redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[1], (first + i) .. '-0', 'm', ARGV[i + 3]) " +
+        "end " +
+        "if tonumber(ARGV[2]) > 0 then redis.call('EXPIRE', KEYS[2], ARGV[2]) end " +
+        "redis.call('PUBLISH', ARGV[3], last) " +
+        "return last";
+    /**
+     * 查询订阅方索引,消费组不存在时创建.新注册的订阅方只读取最后一条消息,与string引擎一致
+     * XINFO属于不确定命令,脚本按效果复制(replicate_commands)
+     * KEYS[1]: 主题消息总数, KEYS[2]: stream
+     * ARGV[1]: 消费组
+     */
+    private static final String OFFSET_SCRIPT = "redis.replicate_commands() " + LAST_READ_FUNCTION +
+        "local last = lastRead(KEYS[2], ARGV[1]) " +
+        "if last >= 0 then return last end " +
+        "local size = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+        "last = math.max(size - 1, 0) " +
+        "redis.call('XGROUP', 'CREATE', KEYS[2], ARGV[1], last .. '-0', 'MKSTREAM') " +
+        "return last";
+    /**
+     * 读取消费组位置,不创建消费组
+     * KEYS[1]: stream
+     * ARGV[1]: 消费组
+     * 消费组不存在时返回nil
+     */
+    private static final String PEEK_OFFSET_SCRIPT = LAST_READ_FUNCTION +
+        "local last = lastRead(KEYS[1], ARGV[1]) " +
+        "if last < 0 then return nil end " +
+        "return last";
+    /**
+     * 订阅方索引比较并更新
+     * KEYS[1]: stream
+     * ARGV[1]: 消费组, ARGV[2]: 读取时的索引, ARGV[3]: 新的索引
+     */
+    private static final String COMMIT_SCRIPT = "redis.replicate_commands() " + LAST_READ_FUNCTION +
+        "if lastRead(KEYS[1], ARGV[1]) ~= tonumber(ARGV[2]) then return 0 end " +
+        "redis.call('XGROUP', 'SETID', KEYS[1], ARGV[1], ARGV[3] .. '-0') " +
+        "return 1";
+
+    private RedisQueue countRedisQueue;
+    private RedisQueue streamRedisQueue;
+    private RedisQueue notifyRedisQueue;
+    private volatile int maxLen = DEFAULT_MAXLEN;
+    private volatile TopicNotifier notifier;
+
+    protected RedisStreamQueueStorage(String topic) {
+        this.countRedisQueue = new RedisQueue(topic, Producer.TOPIC_COUNT_CACHETYPE);
+        this.streamRedisQueue = new RedisQueue(topic, TOPIC_STREAM_CACHETYPE);
+        this.notifyRedisQueue = new RedisQueue(topic, Producer.TOPIC_NOTIFY_CACHETYPE);
+    }
+
+    /**
+     * stream中的消息不能单独过期,seconds大于0时stream在最后一次发布seconds秒后过期,消费组随之删除,读取时重新创建
+     */
+    @Override
+    public Long append(List<byte[]> messages, int seconds) {
+        List<byte[]> args = new ArrayList<>(messages.size() + 3);
+        args.add(RedisQueue.encodeLong(maxLen));
+        args.add(RedisQueue.encodeLong(seconds));
+        args.add(notifyRedisQueue.fullKeyBytes());
+        args.addAll(messages);
+        return (Long) RedisQueue.evalBinaryScript(PUBLISH_SCRIPT,
+            Arrays.asList(countRedisQueue.fullKeyBytes(), streamRedisQueue.fullKeyBytes()), args);
+    }
+
+    /**
+     * stream近似保留的最大消息数,同一主题的生产方应使用相同的值
+     */
+    public void setMaxLen(int maxLen) {
+        this.maxLen = maxLen;
+    }
+
+    @Override
+    public long size() {
+        return RedisQueue.parseLong(countRedisQueue.getBytes());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<byte[]> range(long from, int count) {
+        List<Object> entries;
+        try {
+            entries = (List<Object>) RedisQueue.sendCommand(streamRedisQueue, XRANGE, streamRedisQueue.fullKeyBytes(),
+                streamId(from), streamId(from + count - 1));
+        } catch (Exception e) {
+            return null;
+        }
+        // 已被裁剪的消息对应null
+        List<byte[]> values = new ArrayList<>(Collections.<byte[]>nCopies(count, null));
+        for (Object entry : entries) {
+            List<Object> idAndFields = (List<Object>) entry;
+            values.set((int) (messageId((byte[]) idAndFields.get(0)) - from), value(idAndFields));
+        }
+        return values;
+    }
+
+    @Override
+    public Long offset(String subscriber) {
+        return (Long) RedisQueue.evalBinaryScript(OFFSET_SCRIPT,
+            Arrays.asList(countRedisQueue.fullKeyBytes(), streamRedisQueue.fullKeyBytes()),
+            Collections.singletonList(SafeEncoder.encode(subscriber)));
+    }
+
+    @Override
+    public Long peekOffset(String subscriber) {
+        return (Long) RedisQueue.evalBinaryScript(PEEK_OFFSET_SCRIPT,
+            Collections.singletonList(streamRedisQueue.fullKeyBytes()),
+            Collections.singletonList(SafeEncoder.encode(subscriber)));
+    }
+
+    @Override
+    public boolean commit(String subscriber, long expected, long update) {
+        Long result = (Long) RedisQueue.evalBinaryScript(COMMIT_SCRIPT,
+            Collections.singletonList(streamRedisQueue.fullKeyBytes()),
+            Arrays.asList(SafeEncoder.encode(subscriber), RedisQueue.encodeLong(expected), RedisQueue.encodeLong(update)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 通过消费组批量读取消息(XREADGROUP COUNT)并确认(XACK),两次网络往返.
+     * 消费组不存在(新订阅方或stream已过期)时按offset创建后重新读取
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<byte[]> poll(String subscriber, int maxMessages) {
+        byte[] group = SafeEncoder.encode(subscriber);
+        List<Object> reply;
+        try {
+            try {
+                reply = readGroup(group, maxMessages);
+            } catch (JedisDataException e) {
+                if (e.getMessage() == null || !e.getMessage().startsWith("NOGROUP") || offset(subscriber) == null) {
+                    throw e;
+                }
+                reply = readGroup(group, maxMessages);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        if (reply == null || reply.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object> entries = (List<Object>) ((List<Object>) reply.get(0)).get(1);
+        List<byte[]> values = new ArrayList<>(entries.size());
+        byte[][] ack = new byte[3 + entries.size()][];
+        ack[0] = XACK;
+        ack[1] = streamRedisQueue.fullKeyBytes();
+        ack[2] = group;
+        int i = 3;
+        for (Object entry : entries) {
+            List<Object> idAndFields = (List<Object>) entry;
+            ack[i++] = (byte[]) idAndFields.get(0);
+            values.add(value(idAndFields));
+        }
+        if (!values.isEmpty()) {
+            try {
+                RedisQueue.sendCommand(streamRedisQueue, ack);
+            } catch (Exception e) {
+                // 消费组位置已前进,未确认的消息只留在待确认列表中,不影响后续读取
+            }
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> readGroup(byte[] group, int maxMessages) throws Exception {
+        return (List<Object>) RedisQueue.sendCommand(streamRedisQueue, XREADGROUP, GROUP, group, group,
+            COUNT, RedisQueue.encodeLong(maxMessages), STREAMS, streamRedisQueue.fullKeyBytes(), NEW_MESSAGES);
+    }
+
+    private static byte[] streamId(long messageId) {
+        return SafeEncoder.encode(messageId + "-0");
+    }
+
+    /**
+     * stream id的毫秒部分即消息id
+     */
+    private static long messageId(byte[] streamId) {
+        String id = SafeEncoder.encode(streamId);
+        return Long.parseLong(id.substring(0, id.indexOf('-')));
+    }
+
+    /**
+     * 消息内容,即唯一字段m的值
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] value(List<Object> idAndFields) {
+        return (byte[]) ((List<Object>) idAndFields.get(1)).get(1);
+    }
+
+    @Override
+    public long publishSequence() {
+        return notifier().sequence();
+    }
+
+    @Override
+    public void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+        notifier().await(sequence, timeoutMillis);
+    }
+
+    private TopicNotifier notifier() {
+        TopicNotifier current = notifier;
+        if (current == null) {
+            current = TopicNotifier.of(notifyRedisQueue.fullKey());
+            notifier = current;
+        }
+        return current;
+    }
+}
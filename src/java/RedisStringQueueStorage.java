@@ -0,0 +1,322 @@
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于redis string的主题存储,每条消息一个key,订阅方索引单独存储
+ * 如 redisMq:topic:queueId_message:1, redisMq:topic:key_count:all, redisMq:topic:key_subscribers:subscriber
+ * 集群模式下key带有hash tag(redisMq:{topic}:...),脚本中拼接的消息key与KEYS在同一个slot
+ */
+public class RedisStringQueueStorage implements QueueStorage {
+    /**
+     * 发布消息脚本.INCRBY一次预留一段连续的消息id,写入全部消息并设置过期时间,在redis中原子执行,只需一次网络往返
+     * 写入后向主题通知频道PUBLISH最后一条消息的id,唤醒阻塞等待的订阅方
+     * KEYS[1]: 主题消息总数
+     * ARGV[1]: 消息key前缀, ARGV[2]: 过期时间(秒), ARGV[3]: 通知频道, ARGV[4..]: 消息内容
+     * 返回本批最后一条消息的id
+     */
+    private static final String PUBLISH_SCRIPT =
+        "local n = #ARGV - 3 " +
+        "local last = redis.call('INCRBY', KEYS[1], n) " +
+        "local first = last - n " +
+        "local seconds = tonumber(ARGV[2]) " +
+        "for i = 1, n do " +
+        "  if seconds > 0 then " +
+        "    redis.call('SET', ARGV[1] .. (first + i), ARGV[i + 3], 'EX', seconds) " +
+        "  else " +
+        "    redis.call('SET', ARGV[1] .. (first + i), ARGV[i + 3]) " +
+        "  end " +
+        "end " +
+        "redis.call('PUBLISH', ARGV[3], last) " +
+        "return last";
+    /**
+     * 订阅方索引比较并更新,同时更新订阅方索引有序集合
+     * KEYS[1]: 订阅方索引, KEYS[2]: 订阅方索引有序集合
+     * ARGV[1]: 读取时的索引, ARGV[2]: 新的索引, ARGV[3]: 订阅方
+     */
+    private static final String COMMIT_SCRIPT =
+        "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end " +
+        "redis.call('SET', KEYS[1], ARGV[2]) " +
+        "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3]) " +
+        "return 1";
+    /**
+     * 整理脚本,删除一段消息key
+     */
+    private static final String COMPACT_SCRIPT = RetentionManager.COMPACT_SCRIPT_HEAD +
+        "local keys = {} " +
+        "for id = from, to do keys[#keys + 1] = ARGV[1] .. id end " +
+        "redis.call('DEL', unpack(keys)) " +
+        RetentionManager.COMPACT_SCRIPT_TAIL;
+    /**
+     * 批量读取脚本,读取索引和消息总数、MGET整段消息、前进索引在redis中原子执行,只需一次网络往返,
+     * 不需要WATCH/MULTI占用同一个连接,使用多路复用客户端时代替事务读取
+     * KEYS[1]: 订阅方索引, KEYS[2]: 主题消息总数, KEYS[3]: 订阅方索引有序集合
+     * ARGV[1]: 消息key前缀, ARGV[2]: 最多读取的消息数, ARGV[3]: 新注册订阅方索引的过期时间(秒), ARGV[4]: 订阅方
+     * 返回 {读取的消息数, 未过期的消息...}
+     */
+    private static final String POLL_SCRIPT =
+        "local size = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+        "local offset = redis.call('GET', KEYS[1]) " +
+        "if not offset then " +
+        "  offset = size - 1 " +
+        "  if tonumber(ARGV[3]) > 0 then " +
+        "    redis.call('SET', KEYS[1], offset, 'EX', ARGV[3]) " +
+        "  else " +
+        "    redis.call('SET', KEYS[1], offset) " +
+        "  end " +
+        "  redis.call('ZADD', KEYS[3], offset, ARGV[4]) " +
+        "else " +
+        "  offset = tonumber(offset) " +
+        "end " +
+        "local count = math.min(size - offset, tonumber(ARGV[2])) " +
+        "if count <= 0 then return {0} end " +
+        "local keys = {} " +
+        "for i = 1, count do keys[i] = ARGV[1] .. (offset + i) end " +
+        "local values = redis.call('MGET', unpack(keys)) " +
+        "redis.call('INCRBY', KEYS[1], count) " +
+        "redis.call('ZADD', KEYS[3], offset + count, ARGV[4]) " +
+        "local result = {count} " +
+        "for i = 1, count do " +
+        "  if values[i] then result[#result + 1] = values[i] end " +
+        "end " +
+        "return result";
+    /**
+     * 脚本一次读取的最大消息数,受lua unpack参数个数限制
+     */
+    private static final int POLL_SCRIPT_MAX_MESSAGES = 1000;
+
+    /**
+     * 主题消息总数
+     */
+    private RedisQueue countRedisQueue;
+    /**
+     * 主题消息
+     */
+    private RedisQueue messageRedisQueue;
+    /**
+     * 主题新消息通知频道
+     */
+    private RedisQueue notifyRedisQueue;
+    /**
+     * 订阅方 -> 订阅方索引
+     */
+    private Map<String, RedisQueue> subscribersRedisQueues = new ConcurrentHashMap<>();
+    private String topic;
+    /**
+     * 发布脚本中不变的key和参数,预先编码
+     */
+    private final List<byte[]> publishKeys;
+    private final byte[] messageKeyPrefix;
+    private final byte[] notifyChannel;
+    private volatile TopicNotifier notifier;
+    /**
+     * 订阅方索引有序集合、已删除到的消息id和时间线,见RetentionManager
+     */
+    private final RedisQueue offsetsRedisQueue;
+    private final RedisQueue trimmedRedisQueue;
+    private final RedisQueue timelineRedisQueue;
+    /**
+     * 是否已把整理前注册的订阅方补齐到订阅方索引有序集合
+     */
+    private volatile boolean offsetsSeeded;
+
+    protected RedisStringQueueStorage(String topic) {
+        this.topic = topic;
+        this.countRedisQueue = new RedisQueue(topic, Producer.TOPIC_COUNT_CACHETYPE);
+        this.messageRedisQueue = new RedisQueue(topic, Producer.TOPIC_MESSAGE_CACHETYPE);
+        this.notifyRedisQueue = new RedisQueue(topic, Producer.TOPIC_NOTIFY_CACHETYPE);
+        this.publishKeys = Collections.singletonList(countRedisQueue.fullKeyBytes());
+        this.messageKeyPrefix = SafeEncoder.encode(messageRedisQueue.keyPrefix());
+        this.notifyChannel = notifyRedisQueue.fullKeyBytes();
+        this.offsetsRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_OFFSETS_CACHETYPE);
+        this.trimmedRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_TRIMMED_CACHETYPE);
+        this.timelineRedisQueue = new RedisQueue(topic, RetentionManager.TOPIC_TIMELINE_CACHETYPE);
+    }
+
+    @Override
+    public Long append(List<byte[]> messages, int seconds) {
+        List<byte[]> args = new ArrayList<>(messages.size() + 3);
+        args.add(messageKeyPrefix);
+        args.add(RedisQueue.encodeLong(seconds));
+        args.add(notifyChannel);
+        args.addAll(messages);
+        return (Long) RedisQueue.evalBinaryScript(PUBLISH_SCRIPT, publishKeys, args);
+    }
+
+    @Override
+    public long size() {
+        return RedisQueue.parseLong(countRedisQueue.getBytes());
+    }
+
+    @Override
+    public List<byte[]> range(long from, int count) {
+        return messageRedisQueue.mget(from, count);
+    }
+
+    @Override
+    public Long offset(String subscriber) {
+        RedisQueue subscribersRedisQueue = subscribersRedisQueue(subscriber);
+        byte[] lastMessageRead = subscribersRedisQueue.getBytes();
+        if (lastMessageRead == null || lastMessageRead.length == 0) {
+            return initOffset(subscriber, subscribersRedisQueue, size());
+        }
+        return RedisQueue.parseLong(lastMessageRead);
+    }
+
+    @Override
+    public Long peekOffset(String subscriber) {
+        byte[] lastMessageRead = subscribersRedisQueue(subscriber).getBytes();
+        return lastMessageRead == null || lastMessageRead.length == 0 ? null : RedisQueue.parseLong(lastMessageRead);
+    }
+
+    @Override
+    public boolean commit(String subscriber, long expected, long update) {
+        Long result = (Long) RedisQueue.evalBinaryScript(COMMIT_SCRIPT,
+            Arrays.asList(subscribersRedisQueue(subscriber).fullKeyBytes(), offsetsRedisQueue.fullKeyBytes()),
+            Arrays.asList(RedisQueue.encodeLong(expected), RedisQueue.encodeLong(update), SafeEncoder.encode(subscriber)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 批量读取队列中的消息.保证在集群环境下能正确并发读取消息
+     * 1.保证watch到客户端索引增加之间的操作是原子操作
+     * 2.订阅方索引和消息总数一次读取,整段消息一次MGET读取,索引一次INCRBY前进
+     */
+    @Override
+    public List<byte[]> poll(String subscriber, int maxMessages) {
+        RedisQueue subscribersRedisQueue = subscribersRedisQueue(subscriber);
+        if (RedisCache.isMultiplexed()) {
+            return pollByScript(subscriber, subscribersRedisQueue, maxMessages);
+        }
+        return RedisQueue.execOnSameRedisConn(subscribersRedisQueue, redisTransaction -> {
+            while (true) {
+                redisTransaction.watch(subscribersRedisQueue);
+                List<byte[]> offsetAndSize = redisTransaction.mget(subscribersRedisQueue, countRedisQueue);
+                long topicSize = RedisQueue.parseLong(offsetAndSize.get(1));
+                if (offsetAndSize.get(0) == null || offsetAndSize.get(0).length == 0) {
+                    initOffset(subscriber, subscribersRedisQueue, topicSize);
+                    continue;// 新注册的订阅方,初始化索引后重新读取
+                }
+                long lastReadMessage = RedisQueue.parseLong(offsetAndSize.get(0));
+                int count = (int) Math.min(topicSize - lastReadMessage, maxMessages);
+                if (count <= 0) {
+                    return Collections.<byte[]>emptyList();
+                }
+                List<byte[]> values = redisTransaction.mget(messageRedisQueue, lastReadMessage + 1, count);
+                if (UtilCompare.isEmpty(goNext(redisTransaction, subscriber, subscribersRedisQueue, lastReadMessage, count))) {
+                    Consumer.WATCH_CONFLICTS.increment();
+                    continue;// 自增失败重新读取
+                }
+                List<byte[]> messages = new ArrayList<>(count);
+                for (byte[] value : values) {
+                    // 已过期的消息直接跳过
+                    if (value != null) {
+                        messages.add(value);
+                    }
+                }
+                if (messages.isEmpty()) {
+                    continue;// 本段消息均已过期,继续读取后续消息
+                }
+                return messages;
+            }
+        });
+    }
+
+    /**
+     * 通过POLL_SCRIPT批量读取,本段消息均已过期时继续读取后续消息
+     */
+    @SuppressWarnings("unchecked")
+    private List<byte[]> pollByScript(String subscriber, RedisQueue subscribersRedisQueue, int maxMessages) {
+        List<byte[]> keys = Arrays.asList(subscribersRedisQueue.fullKeyBytes(), countRedisQueue.fullKeyBytes(),
+            offsetsRedisQueue.fullKeyBytes());
+        List<byte[]> args = Arrays.asList(messageKeyPrefix,
+            RedisQueue.encodeLong(Math.min(maxMessages, POLL_SCRIPT_MAX_MESSAGES)),
+            RedisQueue.encodeLong(Consumer.DEFALUT_EXPIRETIME), SafeEncoder.encode(subscriber));
+        while (true) {
+            List<Object> result = (List<Object>) RedisQueue.evalBinaryScript(POLL_SCRIPT, keys, args);
+            if (result == null || (Long) result.get(0) == 0) {
+                return Collections.emptyList();
+            }
+            if (result.size() > 1) {
+                List<byte[]> messages = new ArrayList<>(result.size() - 1);
+                for (int i = 1; i < result.size(); i++) {
+                    messages.add((byte[]) result.get(i));
+                }
+                return messages;
+            }
+        }
+    }
+
+    /**
+     * 删除所有订阅方都已读取或超过最长保留时间的消息
+     */
+    @Override
+    public int compact(long now, long maxAgeMillis, int batchSize) {
+        if (!offsetsSeeded) {
+            if (!RetentionManager.seedOffsets(offsetsRedisQueue, new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE))) {
+                return 0;
+            }
+            offsetsSeeded = true;
+        }
+        Long deleted = (Long) RedisQueue.evalBinaryScript(COMPACT_SCRIPT,
+            Arrays.asList(offsetsRedisQueue.fullKeyBytes(), trimmedRedisQueue.fullKeyBytes(),
+                timelineRedisQueue.fullKeyBytes(), countRedisQueue.fullKeyBytes()),
+            Arrays.asList(messageKeyPrefix, RedisQueue.encodeLong(Math.min(batchSize, RetentionManager.MAX_BATCH_SIZE)),
+                RedisQueue.encodeLong(now), RedisQueue.encodeLong(maxAgeMillis)));
+        return deleted == null ? 0 : deleted.intValue();
+    }
+
+    @Override
+    public long publishSequence() {
+        return notifier().sequence();
+    }
+
+    @Override
+    public void awaitPublish(long sequence, long timeoutMillis) throws InterruptedException {
+        notifier().await(sequence, timeoutMillis);
+    }
+
+    private TopicNotifier notifier() {
+        TopicNotifier current = notifier;
+        if (current == null) {
+            current = TopicNotifier.of(notifyRedisQueue.fullKey());
+            notifier = current;
+        }
+        return current;
+    }
+
+    /**
+     * 客户端消息索引增加count,在同一个事务中更新订阅方索引有序集合
+     */
+    private List<Object> goNext(RedisQueue.RedisTransaction redisTransaction, String subscriber,
+                                RedisQueue subscribersRedisQueue, long lastReadMessage, int count) {
+        redisTransaction.multi();
+        redisTransaction.incrBy(subscribersRedisQueue, count);
+        redisTransaction.zadd(offsetsRedisQueue, lastReadMessage + count, subscriber);
+        return redisTransaction.exec();
+    }
+
+    /**
+     * 初始化新注册的订阅方的索引
+     * @param topicSize 消息总数
+     * @return
+     */
+    private long initOffset(String subscriber, RedisQueue subscribersRedisQueue, long topicSize) {
+        // 如果是新注册上来的consumer，只读取最后一条消息
+        // TODO 配置新注册的consumer是读取最后一条还是全部消息
+        long lowest = topicSize - 1;
+        subscribersRedisQueue.set(String.valueOf(lowest), Consumer.DEFALUT_EXPIRETIME);
+        offsetsRedisQueue.zadd(lowest, subscriber);
+        return lowest;
+    }
+
+    private RedisQueue subscribersRedisQueue(String subscriber) {
+        return subscribersRedisQueues.computeIfAbsent(subscriber,
+            s -> new RedisQueue(topic, Consumer.TOPIC_SUBSCRIBERS_CACHETYPE, s));
+    }
+}
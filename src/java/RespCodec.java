@@ -0,0 +1,248 @@
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RESP协议编解码
+ * 回复解析为: 简单字符串 -> String, 错误 -> JedisDataException, 整数 -> Long, 批量字符串 -> byte[], 数组 -> List
+ * 数组回复按元素增量解析,大回复分多次读取时已解析的元素不会重复解析
+ */
+public class RespCodec {
+    /**
+     * 回复不完整,需要读取更多数据
+     */
+    protected static final int INCOMPLETE = -1;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private RespCodec() {
+    }
+
+    /**
+     * 编码命令,一次分配结果数组
+     * @param args 命令和参数
+     * @return
+     */
+    protected static byte[] encode(byte[]... args) {
+        int size = 1 + digits(args.length) + 2;
+        for (byte[] arg : args) {
+            size += 1 + digits(arg.length) + 2 + arg.length + 2;
+        }
+        byte[] bytes = new byte[size];
+        int pos = 0;
+        bytes[pos++] = '*';
+        pos = writeInt(bytes, pos, args.length);
+        for (byte[] arg : args) {
+            bytes[pos++] = '$';
+            pos = writeInt(bytes, pos, arg.length);
+            System.arraycopy(arg, 0, bytes, pos, arg.length);
+            pos += arg.length;
+            bytes[pos++] = CRLF[0];
+            bytes[pos++] = CRLF[1];
+        }
+        return bytes;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int writeInt(byte[] bytes, int pos, int value) {
+        int end = pos + digits(value);
+        for (int i = end - 1; i >= pos; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        bytes[end] = CRLF[0];
+        bytes[end + 1] = CRLF[1];
+        return end + 2;
+    }
+
+    /**
+     * 解析一个完整的回复
+     * @param buf 已读取的数据
+     * @param pos 回复的起始位置
+     * @param limit 已读取数据的结束位置
+     * @param out out[0]为解析结果
+     * @return 回复之后的位置,回复不完整返回INCOMPLETE
+     */
+    protected static int parse(byte[] buf, int pos, int limit, Object[] out) {
+        if (pos >= limit) {
+            return INCOMPLETE;
+        }
+        byte type = buf[pos];
+        int lineEnd = lineEnd(buf, pos + 1, limit);
+        if (lineEnd == INCOMPLETE) {
+            return INCOMPLETE;
+        }
+        switch (type) {
+            case '+':
+                out[0] = new String(buf, pos + 1, lineEnd - pos - 1, StandardCharsets.UTF_8);
+                return lineEnd + 2;
+            case '-':
+                out[0] = new JedisDataException(new String(buf, pos + 1, lineEnd - pos - 1, StandardCharsets.UTF_8));
+                return lineEnd + 2;
+            case ':':
+                out[0] = parseLong(buf, pos + 1, lineEnd);
+                return lineEnd + 2;
+            case '$': {
+                int length = (int) parseLong(buf, pos + 1, lineEnd);
+                if (length < 0) {
+                    out[0] = null;
+                    return lineEnd + 2;
+                }
+                int start = lineEnd + 2;
+                if (limit < start + length + 2) {
+                    return INCOMPLETE;
+                }
+                byte[] value = new byte[length];
+                System.arraycopy(buf, start, value, 0, length);
+                out[0] = value;
+                return start + length + 2;
+            }
+            case '*': {
+                int count = (int) parseLong(buf, pos + 1, lineEnd);
+                if (count < 0) {
+                    out[0] = null;
+                    return lineEnd + 2;
+                }
+                List<Object> values = new ArrayList<>(count);
+                int next = lineEnd + 2;
+                for (int i = 0; i < count; i++) {
+                    next = parse(buf, next, limit, out);
+                    if (next == INCOMPLETE) {
+                        return INCOMPLETE;
+                    }
+                    values.add(out[0]);
+                }
+                out[0] = values;
+                return next;
+            }
+            default:
+                throw new IllegalStateException("unknown reply type: " + (char) type);
+        }
+    }
+
+    /**
+     * 增量解析器,每个连接一个,只在IO线程中使用
+     */
+    protected static class ReplyParser {
+        /**
+         * 未解析完的数组,栈顶为最内层
+         */
+        private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+        private final Object[] out = new Object[1];
+        private Object reply;
+        private boolean complete;
+
+        /**
+         * 从pos开始解析,直到得到一个完整的回复或数据不足
+         * @return 已解析到的位置,之前的数据不再需要
+         */
+        protected int parse(byte[] buf, int pos, int limit) {
+            complete = false;
+            while (true) {
+                Frame top = stack.peek();
+                if (top != null && top.remaining == 0) {
+                    stack.pop();
+                    if (deliver(top.values)) {
+                        return pos;
+                    }
+                    continue;
+                }
+                if (pos >= limit) {
+                    return pos;
+                }
+                if (buf[pos] == '*') {
+                    int lineEnd = lineEnd(buf, pos + 1, limit);
+                    if (lineEnd == INCOMPLETE) {
+                        return pos;
+                    }
+                    int count = (int) parseLong(buf, pos + 1, lineEnd);
+                    pos = lineEnd + 2;
+                    if (count > 0) {
+                        stack.push(new Frame(count));
+                        continue;
+                    }
+                    if (deliver(count < 0 ? null : new ArrayList<>(0))) {
+                        return pos;
+                    }
+                    continue;
+                }
+                int next = RespCodec.parse(buf, pos, limit, out);
+                if (next == INCOMPLETE) {
+                    return pos;
+                }
+                pos = next;
+                if (deliver(out[0])) {
+                    return pos;
+                }
+            }
+        }
+
+        private boolean deliver(Object value) {
+            Frame top = stack.peek();
+            if (top == null) {
+                reply = value;
+                complete = true;
+                return true;
+            }
+            top.values.add(value);
+            top.remaining--;
+            return false;
+        }
+
+        /**
+         * 最近一次parse是否得到了完整的回复
+         */
+        protected boolean isComplete() {
+            return complete;
+        }
+
+        protected Object reply() {
+            return reply;
+        }
+
+        protected void reset() {
+            stack.clear();
+            complete = false;
+            reply = null;
+        }
+
+        private static class Frame {
+            private final List<Object> values;
+            private int remaining;
+
+            private Frame(int count) {
+                this.values = new ArrayList<>(count);
+                this.remaining = count;
+            }
+        }
+    }
+
+    private static int lineEnd(byte[] buf, int from, int limit) {
+        for (int i = from; i < limit - 1; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return INCOMPLETE;
+    }
+
+    private static long parseLong(byte[] buf, int from, int to) {
+        boolean negative = buf[from] == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+}
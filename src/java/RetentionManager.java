@@ -0,0 +1,185 @@
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按订阅进度保留消息
+ * 订阅方读取或提交时把索引写入主题的有序集合(redisMq:topic:key_offsets:all, member为订阅方, score为索引),
+ * 后台线程定期删除所有订阅方都已读取的消息(id不超过最小索引),每次最多删除batchSize条,内存占用与订阅方的积压成正比.
+ * 超过maxAgeMillis的消息无论是否已读取都删除,避免停止消费的订阅方使消息无限积累:
+ * 每次整理时记录(时间, 消息总数)到主题的时间线(redisMq:topic:key_timeline:all),
+ * maxAgeMillis之前记录的消息总数以内的消息即已超过最长保留时间,精度为整理间隔.
+ * 使用时生产方可以不设置消息过期时间(publish(message, 0)),由整理删除.
+ * 尚未写入有序集合的订阅方(升级前注册、之后未读取过)在首次整理前从订阅方索引的key(SCAN)补齐,补齐失败时不整理.
+ * 仍在运行的旧版本订阅方之后新注册的订阅方不会写入有序集合,应在所有订阅方升级后开始整理
+ */
+public class RetentionManager {
+    protected static final String TOPIC_OFFSETS_CACHETYPE = "key_offsets";
+    protected static final String TOPIC_TRIMMED_CACHETYPE = "key_trimmed";
+    protected static final String TOPIC_TIMELINE_CACHETYPE = "key_timeline";
+    /**
+     * 每次整理最多删除的消息数,受lua unpack参数个数限制
+     */
+    protected static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * 整理脚本的公共部分,计算本次删除的消息id范围[from, to],之后由各存储删除消息
+     * KEYS[1]: 订阅方索引有序集合, KEYS[2]: 已删除到的消息id, KEYS[3]: 时间线, KEYS[4]: 主题消息总数
+     * ARGV[1]: 消息key前缀, ARGV[2]: 最多删除的消息数, ARGV[3]: 当前时间(毫秒), ARGV[4]: 最长保留时间(毫秒),小于等于0表示不限制
+     */
+    protected static final String COMPACT_SCRIPT_HEAD =
+        "local size = tonumber(redis.call('GET', KEYS[4]) or '0') " +
+        "local trimmed = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+        "local now = tonumber(ARGV[3]) " +
+        "local maxAge = tonumber(ARGV[4]) " +
+        "local to = -1 " +
+        "local lowest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') " +
+        "if lowest[2] then to = tonumber(lowest[2]) end " +
+        "if maxAge > 0 then " +
+        "  redis.call('ZADD', KEYS[3], 'NX', now, size) " +
+        "  local expired = redis.call('ZREVRANGEBYSCORE', KEYS[3], now - maxAge, '-inf', 'WITHSCORES', 'LIMIT', 0, 1) " +
+        "  if expired[1] then " +
+        "    to = math.max(to, tonumber(expired[1])) " +
+        "    redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', '(' .. expired[2]) " +
+        "  end " +
+        "end " +
+        "to = math.min(to, size, trimmed + tonumber(ARGV[2])) " +
+        "if to <= trimmed then return 0 end " +
+        "local from = trimmed + 1 ";
+    /**
+     * 补齐订阅方索引有序集合,已有的成员不修改
+     * KEYS[1]: 订阅方索引有序集合, KEYS[2..]: 订阅方索引
+     * ARGV: 与KEYS[2..]一一对应的订阅方
+     */
+    private static final String SEED_SCRIPT =
+        "for i = 2, #KEYS do " +
+        "  local offset = redis.call('GET', KEYS[i]) " +
+        "  if offset then redis.call('ZADD', KEYS[1], 'NX', offset, ARGV[i - 1]) end " +
+        "end " +
+        "return #KEYS - 1";
+    /**
+     * 整理脚本的结尾,记录已删除到的消息id,返回删除的消息数
+     */
+    protected static final String COMPACT_SCRIPT_TAIL =
+        "redis.call('SET', KEYS[2], to) " +
+        "return to - trimmed";
+
+    /**
+     * 重新整理的间隔,一次没有删除完时立即继续
+     */
+    private final long intervalMillis;
+    private final long maxAgeMillis;
+    private int batchSize = MAX_BATCH_SIZE;
+    /**
+     * 主题 -> 主题存储
+     */
+    private final Map<String, QueueStorage> topics = new ConcurrentHashMap<>();
+    private volatile Thread thread;
+
+    /**
+     * @param maxAgeMillis 消息最长保留时间,小于等于0表示只删除已读取的消息
+     * @param intervalMillis 整理间隔
+     */
+    public RetentionManager(long maxAgeMillis, long intervalMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * 整理主题.分区主题需注册每个分区(PartitionedProducer.partitionTopic)
+     * @param topic 主题
+     * @param engine 主题存储引擎,STREAM引擎发布时按最大长度裁剪并设置过期时间,MEMORY引擎自行限制长度,均不需要整理
+     */
+    public void register(String topic, TopicEngine engine) {
+        topics.put(topic, engine.createStorage(topic));
+    }
+
+    public void unregister(String topic) {
+        topics.remove(topic);
+    }
+
+    /**
+     * 整理所有主题一次
+     * @return 删除的消息数
+     */
+    public long compact() {
+        long deleted = 0;
+        for (QueueStorage storage : topics.values()) {
+            try {
+                int count;
+                do {
+                    count = storage.compact(System.currentTimeMillis(), maxAgeMillis, batchSize);
+                    deleted += count;
+                } while (count >= batchSize && !Thread.currentThread().isInterrupted());
+            } catch (Exception e) {
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 启动后台整理线程
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                compact();
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "redisMq-retention");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止后台整理线程
+     */
+    public synchronized void close() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * 把已有的订阅方索引补齐到订阅方索引有序集合
+     * @param offsetsRedisQueue 订阅方索引有序集合
+     * @param subscribersRedisQueue 主题的订阅方索引(不指定订阅方)
+     * @return 是否成功,失败时不能整理,否则未写入有序集合的订阅方未读取的消息会被删除
+     */
+    protected static boolean seedOffsets(RedisQueue offsetsRedisQueue, RedisQueue subscribersRedisQueue) {
+        List<String> keys = subscribersRedisQueue.scanKeys();
+        if (keys == null) {
+            return false;
+        }
+        int prefixLength = subscribersRedisQueue.keyPrefix().length();
+        for (int from = 0; from < keys.size(); from += MAX_BATCH_SIZE) {
+            List<String> batch = keys.subList(from, Math.min(from + MAX_BATCH_SIZE, keys.size()));
+            List<byte[]> scriptKeys = new ArrayList<>(batch.size() + 1);
+            List<byte[]> args = new ArrayList<>(batch.size());
+            scriptKeys.add(offsetsRedisQueue.fullKeyBytes());
+            for (String key : batch) {
+                scriptKeys.add(SafeEncoder.encode(key));
+                args.add(SafeEncoder.encode(key.substring(prefixLength)));
+            }
+            if (RedisQueue.evalBinaryScript(SEED_SCRIPT, scriptKeys, args) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.min(batchSize, MAX_BATCH_SIZE);
+    }
+}
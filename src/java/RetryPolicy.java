@@ -0,0 +1,61 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 处理失败的重试策略,指数退避
+ * 第n次失败后等待min(initialBackoffMillis * multiplier^(n-1), maxBackoffMillis),
+ * 再随机减少最多jitter比例,避免同时失败的消息同时重试.投递maxAttempts次仍失败时转入死信主题
+ */
+public class RetryPolicy {
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 100;
+    private double multiplier = 2;
+    private long maxBackoffMillis = 60 * 1000;
+    private double jitter = 0.2;
+
+    /**
+     * @param attempts 已投递的次数
+     * @return 是否还可以重试
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * @param attempts 已投递的次数
+     * @return 下次投递前等待的时间(毫秒)
+     */
+    public long backoffMillis(int attempts) {
+        double backoff = Math.min(initialBackoffMillis * Math.pow(multiplier, Math.max(attempts - 1, 0)), maxBackoffMillis);
+        return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 最多投递次数,包括首次投递
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * 随机减少的最大比例,0到1,0表示不随机
+     */
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * 订阅方统计快照
+ */
+public class SubscriberStats implements SubscriberStatsMXBean {
+    private final String topic;
+    private final String subscriber;
+    private final long offset;
+    private final long lag;
+    private final double consumeRate;
+    private final long oldestUnconsumedAgeMillis;
+
+    protected SubscriberStats(String topic, String subscriber, long offset, long lag, double consumeRate,
+                              long oldestUnconsumedAgeMillis) {
+        this.topic = topic;
+        this.subscriber = subscriber;
+        this.offset = offset;
+        this.lag = lag;
+        this.consumeRate = consumeRate;
+        this.oldestUnconsumedAgeMillis = oldestUnconsumedAgeMillis;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public String getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * 订阅方读取的最后一条消息id
+     */
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * 未读取的消息数,即Consumer.unreadMessages
+     */
+    @Override
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * 两次采样之间每秒读取的消息数,包括所有进程中的同一订阅方
+     */
+    @Override
+    public double getConsumeRate() {
+        return consumeRate;
+    }
+
+    /**
+     * 最早一条未读取消息的发布时长(毫秒),没有未读消息时为0.
+     * 按采样时的消息总数估算,精度为采样间隔
+     */
+    @Override
+    public long getOldestUnconsumedAgeMillis() {
+        return oldestUnconsumedAgeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s offset=%d lag=%d consumeRate=%.1f/s oldestUnconsumed=%dms",
+            topic, subscriber, offset, lag, consumeRate, oldestUnconsumedAgeMillis);
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * 订阅方统计的JMX接口,见JmxMetricsRegistry
+ */
+public interface SubscriberStatsMXBean {
+    String getTopic();
+
+    String getSubscriber();
+
+    long getOffset();
+
+    long getLag();
+
+    double getConsumeRate();
+
+    long getOldestUnconsumedAgeMillis();
+}
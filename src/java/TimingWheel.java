@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 时间轮定时器
+ * 一个后台线程每tickMillis前进一格,执行到期的任务;添加和执行任务都是O(1),适合大量短延迟的重试.
+ * 延迟超过一圈的任务记录剩余圈数.任务在定时器线程执行,必须很快返回,耗时操作应交给其他线程.
+ * 关闭后不能再添加任务
+ */
+public class TimingWheel {
+    private final long tickMillis;
+    private final List<List<Task>> buckets;
+    private final int mask;
+    /**
+     * 新添加的任务,由定时器线程放入对应的格子
+     */
+    private final Queue<Task> pending = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+    private volatile boolean closed;
+    private long startMillis;
+    private long tick;
+
+    /**
+     * @param tickMillis 每格的时长,即定时精度
+     * @param wheelSize 格数,向上取整为2的幂
+     */
+    public TimingWheel(long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(wheelSize - 1, 1)) << 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 延迟执行任务,首次调用时启动定时器线程
+     * @param task 任务
+     * @param delayMillis 延迟(毫秒)
+     * @throws IllegalStateException 定时器已关闭
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        start();
+        pending.add(new Task(task, System.currentTimeMillis() + Math.max(delayMillis, 0)));
+    }
+
+    private void start() {
+        if (thread != null && !closed) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("timing wheel closed");
+            }
+            if (thread != null) {
+                return;
+            }
+            startMillis = System.currentTimeMillis();
+            Thread timer = new Thread(this::run, "redisMq-timer");
+            timer.setDaemon(true);
+            thread = timer;
+            timer.start();
+        }
+    }
+
+    private void run() {
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            long deadline = startMillis + (tick + 1) * tickMillis;
+            long wait = deadline - System.currentTimeMillis();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait * 1000000);
+                continue;
+            }
+            transfer();
+            Iterator<Task> iterator = buckets.get((int) (tick & mask)).iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (task.rounds > 0) {
+                    task.rounds--;
+                    continue;
+                }
+                iterator.remove();
+                try {
+                    task.task.run();
+                } catch (Exception e) {
+                }
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * 把新添加的任务放入到期时间所在的格子,已到期的放入当前格子
+     */
+    private void transfer() {
+        Task task;
+        while ((task = pending.poll()) != null) {
+            long ticks = Math.max((task.deadline - startMillis) / tickMillis, tick);
+            task.rounds = (ticks - tick) / buckets.size();
+            buckets.get((int) (ticks & mask)).add(task);
+        }
+    }
+
+    /**
+     * 停止定时器线程,未执行的任务被丢弃.关闭后不能重新启动:
+     * 格子中的任务和当前格子按原来的起始时间计算,旧线程也可能尚未退出
+     */
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private static class Task {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+
+        private Task(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
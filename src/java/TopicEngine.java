@@ -0,0 +1,48 @@
+/**
+ * 主题存储引擎,同一主题的生产方和订阅方必须使用相同的引擎
+ */
+public enum TopicEngine {
+    /**
+     * 每条消息一个string key,订阅方索引单独存储
+     */
+    STRING {
+        @Override
+        protected QueueStorage createStorage(String topic) {
+            return new RedisStringQueueStorage(topic);
+        }
+    },
+    /**
+     * redis stream(需要redis 5.0+),主题消息存储在一个stream中,订阅方对应stream的消费组
+     */
+    STREAM {
+        @Override
+        protected QueueStorage createStorage(String topic) {
+            return new RedisStreamQueueStorage(topic);
+        }
+    },
+    /**
+     * 消息按id分桶存储在redis hash中,小消息内存占用比STRING低数倍
+     */
+    HASH {
+        @Override
+        protected QueueStorage createStorage(String topic) {
+            return new RedisHashQueueStorage(topic);
+        }
+    },
+    /**
+     * JVM内存环形缓冲区,只在当前JVM内可见,不依赖redis
+     */
+    MEMORY {
+        @Override
+        protected QueueStorage createStorage(String topic) {
+            return MemoryQueueStorage.of(topic);
+        }
+    };
+
+    /**
+     * 创建主题存储
+     * @param topic 主题
+     * @return
+     */
+    protected abstract QueueStorage createStorage(String topic);
+}
@@ -0,0 +1,122 @@
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 主题新消息通知
+ * 生产方在发布脚本中向主题通知频道PUBLISH最新的消息id,订阅方阻塞等待通知而不是轮询redis.
+ * 同一个JVM中所有主题共享一个模式订阅连接(PSUBSCRIBE redisMq:*:key_notify:*)和一个后台线程,
+ * 订阅的主题数量不影响连接数.等待使用ReentrantLock,在虚拟线程中等待不会占用载体线程
+ */
+public class TopicNotifier {
+    /**
+     * 订阅连接断开后重新订阅的间隔
+     */
+    private static final long RESUBSCRIBE_INTERVAL_MILLIS = 1000;
+    /**
+     * 订阅连接不可用时退化为轮询的间隔
+     */
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private static final Map<String, TopicNotifier> NOTIFIERS = new ConcurrentHashMap<>();
+    private static volatile boolean subscribed;
+    private static Thread subscriberThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    /**
+     * 收到的通知次数,订阅方等待前记录,用于判断等待期间是否有新消息
+     */
+    private volatile long sequence;
+
+    private TopicNotifier() {
+    }
+
+    /**
+     * 获取频道对应的通知器,首次获取时启动后台订阅线程
+     * @param channel 主题通知频道
+     * @return
+     */
+    protected static TopicNotifier of(String channel) {
+        start();
+        return NOTIFIERS.computeIfAbsent(channel, c -> new TopicNotifier());
+    }
+
+    private static synchronized void start() {
+        if (subscriberThread != null) {
+            return;
+        }
+        subscriberThread = new Thread(() -> {
+            JedisPubSub pubSub = new JedisPubSub() {
+                @Override
+                public void onPSubscribe(String pattern, int subscribedChannels) {
+                    subscribed = true;
+                    // 订阅建立前发布的消息可能没有收到通知,唤醒所有等待者重新读取
+                    for (TopicNotifier notifier : NOTIFIERS.values()) {
+                        notifier.signal();
+                    }
+                }
+
+                @Override
+                public void onPMessage(String pattern, String channel, String message) {
+                    TopicNotifier notifier = NOTIFIERS.get(channel);
+                    if (notifier != null) {
+                        notifier.signal();
+                    }
+                }
+            };
+            while (true) {
+                // 订阅会一直阻塞,直到连接异常断开
+                RedisCache.psubscribe(pubSub, RedisQueue.pattern(Producer.TOPIC_NOTIFY_CACHETYPE));
+                subscribed = false;
+                try {
+                    Thread.sleep(RESUBSCRIBE_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "redisMq-notifier");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            sequence++;
+            published.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前收到的通知次数
+     * @return
+     */
+    protected long sequence() {
+        return sequence;
+    }
+
+    /**
+     * 等待sequence之后的新通知.订阅连接不可用时最多等待POLL_INTERVAL_MILLIS,由调用方重新读取
+     * @param lastSequence 等待前记录的通知次数
+     * @param timeoutMillis 最长等待时间
+     * @throws InterruptedException
+     */
+    protected void await(long lastSequence, long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(subscribed ? timeoutMillis : Math.min(timeoutMillis, POLL_INTERVAL_MILLIS));
+        lock.lock();
+        try {
+            while (sequence == lastSequence && nanos > 0) {
+                nanos = published.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
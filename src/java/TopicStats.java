@@ -0,0 +1,82 @@
+import java.util.List;
+
+/**
+ * 主题统计快照
+ */
+public class TopicStats implements TopicStatsMXBean {
+    private final String topic;
+    private final long timestamp;
+    private final long size;
+    private final double publishRate;
+    private final List<SubscriberStats> subscribers;
+
+    protected TopicStats(String topic, long timestamp, long size, double publishRate, List<SubscriberStats> subscribers) {
+        this.topic = topic;
+        this.timestamp = timestamp;
+        this.size = size;
+        this.publishRate = publishRate;
+        this.subscribers = subscribers;
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * 采样时间(毫秒)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 消息总数,即最后一条消息的id
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 两次采样之间每秒发布的消息数,包括所有进程中的生产方
+     */
+    @Override
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    public List<SubscriberStats> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * 积压最多的订阅方的未读消息数
+     */
+    @Override
+    public long getMaxLag() {
+        long max = 0;
+        for (SubscriberStats subscriber : subscribers) {
+            max = Math.max(max, subscriber.getLag());
+        }
+        return max;
+    }
+
+    /**
+     * 所有订阅方中最早一条未读取消息的发布时长(毫秒)
+     */
+    @Override
+    public long getOldestUnconsumedAgeMillis() {
+        long max = 0;
+        for (SubscriberStats subscriber : subscribers) {
+            max = Math.max(max, subscriber.getOldestUnconsumedAgeMillis());
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s size=%d publishRate=%.1f/s maxLag=%d oldestUnconsumed=%dms %s",
+            topic, size, publishRate, getMaxLag(), getOldestUnconsumedAgeMillis(), subscribers);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * 主题统计的JMX接口,见JmxMetricsRegistry
+ */
+public interface TopicStatsMXBean {
+    String getTopic();
+
+    long getSize();
+
+    double getPublishRate();
+
+    long getMaxLag();
+
+    long getOldestUnconsumedAgeMillis();
+}